@@ -0,0 +1,91 @@
+package benchmark;
+
+import kademlia.KademliaNode;
+import kademlia.VirtualThreads;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Burst of concurrent blocking get() calls against a small in-process network, default executors against virtual threads <br>
+ * virtualThreads=false: nodes use the gRPC default executors, callers run on a fixed pool of 64 platform threads.
+ * virtualThreads=true: nodes run with {@link KademliaNode#setVirtualThreads(boolean)}, every caller gets its own virtual thread.
+ * Before Java 21 the second mode runs on an unbounded platform pool instead, see {@link VirtualThreads}. <br>
+ * 16 nodes, 160-bit IDs, k=20, 64 keys; one operation = the whole burst.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ConcurrentLookupBenchmark {
+
+    private static final int NODES = 16;
+    private static final int KEYS = 64;
+    private static final int PLATFORM_CALLERS = 64;
+
+    @Param({"false", "true"})
+    public boolean virtualThreads;
+
+    @Param({"64", "1024"})
+    public int concurrency;
+
+    private final List<KademliaNode> nodes = new ArrayList<>();
+    private ExecutorService callers;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        KademliaNode.setIdLength(160);
+        KademliaNode.setK(20);
+        KademliaNode.setRepublishInterval(Duration.ofDays(1));
+        KademliaNode.setExpireInterval(Duration.ofDays(1));
+        KademliaNode.setRefreshInterval(Duration.ofDays(1));
+        KademliaNode.setVirtualThreads(virtualThreads);
+
+        for (int i = 0; i < NODES; i++) {
+            KademliaNode node = new KademliaNode("localhost", 9_100 + i, BigInteger.valueOf(i).shiftLeft(150));
+            if (nodes.isEmpty())
+                node.initKademlia();
+            else
+                node.join(nodes.get(0).getNodeReference());
+            nodes.add(node);
+        }
+        for (int key = 0; key < KEYS; key++) {
+            nodes.get(key % NODES).put("key" + key, "value" + key);
+        }
+        callers = virtualThreads
+                ? VirtualThreads.newPerTaskExecutor("caller")
+                : Executors.newFixedThreadPool(PLATFORM_CALLERS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        callers.shutdownNow();
+        nodes.forEach(KademliaNode::shutdownKademliaNode);
+        nodes.clear();
+        KademliaNode.setVirtualThreads(false);
+    }
+
+    @Benchmark
+    public int concurrentGets() {
+        List<CompletableFuture<String>> gets = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            KademliaNode node = nodes.get(i % NODES);
+            String key = "key" + (i % KEYS);
+            gets.add(CompletableFuture.supplyAsync(() -> node.get(key), callers));
+        }
+        int found = 0;
+        for (CompletableFuture<String> get : gets) {
+            if (get.join() != null) found++;
+        }
+        return found;
+    }
+}
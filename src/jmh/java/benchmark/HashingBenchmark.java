@@ -0,0 +1,55 @@
+package benchmark;
+
+import kademlia.Id;
+import kademlia.KademliaNode;
+import kademlia.Util;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Util#getId(String)}, the SHA-1 hash every put and get computes for its key <br>
+ * Short keys like "key42" and 1 KiB keys, 160-bit IDs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HashingBenchmark {
+
+    private static final int KEYS = 1024;
+
+    private String[] shortKeys;
+    private String[] longKeys;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        KademliaNode.setIdLength(160);
+        Random random = new Random(42);
+        shortKeys = new String[KEYS];
+        longKeys = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            shortKeys[i] = "key" + i;
+            StringBuilder key = new StringBuilder(1024);
+            while (key.length() < 1024) {
+                key.append((char) ('a' + random.nextInt(26)));
+            }
+            longKeys[i] = key.toString();
+        }
+    }
+
+    @Benchmark
+    public Id shortKey() {
+        next = (next + 1) & (KEYS - 1);
+        return Util.getId(shortKeys[next]);
+    }
+
+    @Benchmark
+    public Id longKey() {
+        next = (next + 1) & (KEYS - 1);
+        return Util.getId(longKeys[next]);
+    }
+}
@@ -0,0 +1,114 @@
+package benchmark;
+
+import com.google.protobuf.ByteString;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import kademlia.Id;
+import kademlia.KademliaNode;
+import kademlia.NodeReference;
+import kademlia.WireFormat;
+import org.openjdk.jmh.annotations.*;
+import proto.Kademlia;
+import proto.KademliaServiceGrpc;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inbound RPCs per second served by a single node, every benchmark thread has its own channel <br>
+ * Run with a growing number of threads to see how the node scales with cores, e.g.
+ * <pre>mvn -Pjmh test-compile exec:exec -Djmh.args="NodeThroughput -f 1 -t 1"</pre> then -t 2, 4, 8. <br>
+ * Requests come from 16 fake senders in 16 different buckets, so every RPC inserts its sender into the routing table
+ * without ever filling a bucket (no pings to the fake senders). 160-bit IDs, k=20.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class NodeThroughputBenchmark {
+
+    private static final int BITS = 160;
+    private static final int SENDERS = 16;
+    private static final int KEYS = 1024;
+
+    private KademliaNode node;
+    private Kademlia.NodeReference[] senders;
+    private ByteString[] keys;
+    private ByteString value;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        KademliaNode.setIdLength(BITS);
+        KademliaNode.setK(20);
+        KademliaNode.setRepublishInterval(Duration.ofDays(1));
+        KademliaNode.setExpireInterval(Duration.ofDays(1));
+        KademliaNode.setRefreshInterval(Duration.ofDays(1));
+
+        Random random = new Random(42);
+        node = new KademliaNode("localhost", 9_000, BigInteger.ZERO);
+        node.initKademlia();
+
+        senders = new Kademlia.NodeReference[SENDERS];
+        for (int i = 0; i < SENDERS; i++) {
+            Id id = Id.randomWithHighestBit(BITS - 1 - i, random);
+            senders[i] = new NodeReference("localhost", 20_000 + i, id).toProto(WireFormat.LATEST);
+        }
+        keys = new ByteString[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = WireFormat.encodeId(Id.randomWithHighestBit(BITS - 1, random));
+        }
+        value = ByteString.copyFrom(new byte[100]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        node.shutdownKademliaNode();
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        ManagedChannel channel;
+        KademliaServiceGrpc.KademliaServiceBlockingStub stub;
+        final Random random = new Random();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            channel = ManagedChannelBuilder.forAddress("localhost", 9_000).usePlaintext().build();
+            stub = KademliaServiceGrpc.newBlockingStub(channel);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Benchmark
+    public Kademlia.StoreResponse store(Client client) {
+        return client.stub.store(Kademlia.StoreRequest.newBuilder()
+                .setRawKey(keys[client.random.nextInt(KEYS)])
+                .setRawValue(value)
+                .setSender(senders[client.random.nextInt(SENDERS)])
+                .build());
+    }
+
+    @Benchmark
+    public Kademlia.FindValueResponse findValue(Client client) {
+        return client.stub.findValue(Kademlia.FindValueRequest.newBuilder()
+                .setRawKey(keys[client.random.nextInt(KEYS)])
+                .setSender(senders[client.random.nextInt(SENDERS)])
+                .build());
+    }
+
+    @Benchmark
+    public Kademlia.FindNodeResponse findNode(Client client) {
+        return client.stub.findNode(Kademlia.FindNodeRequest.newBuilder()
+                .setRawTargetId(keys[client.random.nextInt(KEYS)])
+                .setSender(senders[client.random.nextInt(SENDERS)])
+                .build());
+    }
+}
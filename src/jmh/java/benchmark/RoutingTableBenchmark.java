@@ -0,0 +1,125 @@
+package benchmark;
+
+import kademlia.Id;
+import kademlia.NodeReference;
+import kademlia.RoutingTable;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * {@link RoutingTable#findKClosest(Id)} (bucket walk in XOR order) against a linear scan over all contacts,
+ * {@link RoutingTable#findAlphaClosest(Id)} and {@link RoutingTable#insert(NodeReference)} of known and new contacts <br>
+ * 160-bit IDs, k=20, table filled from the farthest bucket down until it holds the given number of contacts.
+ * Setup fails if the two approaches ever disagree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RoutingTableBenchmark {
+
+    private static final int BITS = 160;
+    private static final int K = 20;
+    private static final int ALPHA = 3;
+    private static final int TARGETS = 1024;
+
+    @Param({"500", "1500", "3000"})
+    public int contacts;
+
+    private NodeReference owner;
+    private RoutingTable routingTable;
+    private List<NodeReference> all;
+    private Id[] targets;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        owner = new NodeReference("localhost", 1, Id.randomWithHighestBit(BITS - 1, random));
+        routingTable = new RoutingTable(BITS, ALPHA, K, owner);
+        all = new ArrayList<>(contacts);
+
+        Set<Id> used = new HashSet<>();
+        for (int bucket = BITS - 1; bucket >= 5 && all.size() < contacts; bucket--) {
+            for (int i = 0; i < K && all.size() < contacts; i++) {
+                Id id = owner.getId().xor(Id.randomWithHighestBit(bucket, random));
+                if (!used.add(id)) {
+                    i--;
+                    continue;
+                }
+                NodeReference node = new NodeReference("localhost", 10_000 + all.size(), id);
+                routingTable.insert(node);
+                all.add(node);
+            }
+        }
+
+        targets = new Id[TARGETS];
+        for (int i = 0; i < TARGETS; i++) {
+            // half random IDs, half IDs of known contacts (lookups converge on those)
+            targets[i] = i % 2 == 0
+                    ? Id.randomWithHighestBit(BITS - 1, random)
+                    : all.get(random.nextInt(all.size())).getId();
+        }
+
+        for (Id target : targets) {
+            if (!routingTable.findKClosest(target).equals(linearScan(target))) {
+                throw new IllegalStateException("findKClosest differs from linear scan for target " + target);
+            }
+        }
+    }
+
+    private Id nextTarget() {
+        next = (next + 1) & (TARGETS - 1);
+        return targets[next];
+    }
+
+    private NodeReference nextContact() {
+        next = (next + 1) & (TARGETS - 1);
+        return all.get(next % all.size());
+    }
+
+    private List<NodeReference> linearScan(Id target) {
+        return all.stream()
+                .sorted(NodeReference.byDistanceTo(target))
+                .limit(K)
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<NodeReference> findKClosest() {
+        return routingTable.findKClosest(nextTarget());
+    }
+
+    @Benchmark
+    public List<NodeReference> linearScan() {
+        return linearScan(nextTarget());
+    }
+
+    @Benchmark
+    public List<NodeReference> findAlphaClosest() {
+        return routingTable.findAlphaClosest(nextTarget());
+    }
+
+    /**
+     * Known contact moves to the tail of its bucket, what every inbound RPC does
+     */
+    @Benchmark
+    public int insertSeenAgain() {
+        routingTable.insert(nextContact());
+        return routingTable.getSize();
+    }
+
+    /**
+     * Empty table filled with all contacts, one operation inserts them all
+     */
+    @Benchmark
+    public int insertAll() {
+        RoutingTable table = new RoutingTable(BITS, ALPHA, K, owner);
+        all.forEach(table::insert);
+        return table.getSize();
+    }
+}
@@ -0,0 +1,91 @@
+package benchmark;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import kademlia.Id;
+import kademlia.KademliaNode;
+import kademlia.NodeReference;
+import kademlia.WireFormat;
+import org.openjdk.jmh.annotations.*;
+import proto.Kademlia;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wire encoding of contacts: {@link NodeReference#toProto(int)}, {@link NodeReference#NodeReference(Kademlia.NodeReference)}
+ * and a FIND_NODE response with k contacts serialized to bytes and parsed back <br>
+ * v1 sends IDs as decimal strings, v2 as fixed-width bytes with packed IPv4 addresses, see {@link WireFormat}.
+ * 160-bit IDs, k=20. Setup fails if a decoded response does not round-trip to the original contacts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SerializationBenchmark {
+
+    private static final int BITS = 160;
+    private static final int K = 20;
+
+    @Param({"1", "2"})
+    public int version;
+
+    private List<NodeReference> kClosest;
+    private Kademlia.NodeReference encoded;
+    private byte[] response;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InvalidProtocolBufferException {
+        // WireFormat encodes v2 IDs in the width of the configured ID length
+        KademliaNode.setIdLength(BITS);
+        Random random = new Random(42);
+        kClosest = new ArrayList<>(K);
+        for (int i = 0; i < K; i++) {
+            Id id = Id.randomWithHighestBit(BITS - 1, random);
+            kClosest.add(new NodeReference("10.0.0." + (i + 1), 5_000 + i, id));
+        }
+        encoded = kClosest.get(0).toProto(version);
+        response = findNodeResponse().toByteArray();
+
+        List<NodeReference> decoded = decodeFindNodeResponse();
+        for (int i = 0; i < K; i++) {
+            if (!decoded.get(i).getId().equals(kClosest.get(i).getId()) || !decoded.get(i).equals(kClosest.get(i))) {
+                throw new IllegalStateException("Decoded response differs from " + kClosest.get(i));
+            }
+        }
+    }
+
+    private Kademlia.FindNodeResponse findNodeResponse() {
+        Kademlia.FindNodeResponse.Builder builder = Kademlia.FindNodeResponse.newBuilder()
+                .setProtocolVersion(version);
+        kClosest.forEach(node -> builder.addKClosest(node.toProto(version)));
+        return builder.build();
+    }
+
+    @Benchmark
+    public Kademlia.NodeReference toProto() {
+        next = (next + 1) % K;
+        return kClosest.get(next).toProto(version);
+    }
+
+    @Benchmark
+    public NodeReference fromProto() {
+        return new NodeReference(encoded);
+    }
+
+    @Benchmark
+    public byte[] encodeFindNodeResponse() {
+        return findNodeResponse().toByteArray();
+    }
+
+    @Benchmark
+    public List<NodeReference> decodeFindNodeResponse() throws InvalidProtocolBufferException {
+        Kademlia.FindNodeResponse parsed = Kademlia.FindNodeResponse.parseFrom(response);
+        List<NodeReference> nodes = new ArrayList<>(parsed.getKClosestCount());
+        parsed.getKClosestList().forEach(node -> nodes.add(new NodeReference(node)));
+        return nodes;
+    }
+}
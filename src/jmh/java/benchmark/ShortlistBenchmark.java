@@ -0,0 +1,107 @@
+package benchmark;
+
+import kademlia.Id;
+import kademlia.NodeReference;
+import kademlia.Shortlist;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * {@link Shortlist} bookkeeping of a whole lookup, without any network <br>
+ * Every contact of the population knows a random sample of the others and answers with the k of them closest to the target.
+ * lookup: sequential lookup from the alpha closest of a random sample until {@link Shortlist#pollClosest()} runs dry.
+ * kBestResponded: {@link Shortlist#getKBestResponded()} of a converged lookup. <br>
+ * 160-bit IDs, k=20, alpha=3.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ShortlistBenchmark {
+
+    private static final int BITS = 160;
+    private static final int K = 20;
+    private static final int ALPHA = 3;
+    private static final int KNOWN = 200;
+    private static final int TARGETS = 4;
+
+    @Param({"1000", "10000"})
+    public int contacts;
+
+    private Id[] targets;
+    private List<NodeReference>[] initial;
+    private Map<NodeReference, List<NodeReference>>[] responses;
+    private Shortlist[] converged;
+    private int next;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        Random random = new Random(42);
+        List<NodeReference> population = new ArrayList<>(contacts);
+        for (int i = 0; i < contacts; i++) {
+            Id id = Id.randomWithHighestBit(BITS - 1, random);
+            population.add(new NodeReference("10.0." + (i >> 8) + "." + (i & 0xff), 5_000, id));
+        }
+
+        targets = new Id[TARGETS];
+        initial = new List[TARGETS];
+        responses = new Map[TARGETS];
+        converged = new Shortlist[TARGETS];
+        for (int t = 0; t < TARGETS; t++) {
+            Id target = Id.randomWithHighestBit(BITS - 1, random);
+            targets[t] = target;
+            initial[t] = closest(sample(population, random), target, ALPHA);
+            responses[t] = new HashMap<>();
+            for (NodeReference node : population) {
+                responses[t].put(node, closest(sample(population, random), target, K));
+            }
+            converged[t] = lookup(t);
+            if (!converged[t].isConverged()) {
+                throw new IllegalStateException("Lookup of " + target + " did not converge");
+            }
+        }
+    }
+
+    private static List<NodeReference> sample(List<NodeReference> population, Random random) {
+        List<NodeReference> sample = new ArrayList<>(KNOWN);
+        for (int i = 0; i < KNOWN; i++) {
+            sample.add(population.get(random.nextInt(population.size())));
+        }
+        return sample;
+    }
+
+    private static List<NodeReference> closest(List<NodeReference> nodes, Id target, int count) {
+        return nodes.stream()
+                .distinct()
+                .sorted(NodeReference.byDistanceTo(target))
+                .limit(count)
+                .collect(Collectors.toList());
+    }
+
+    private Shortlist lookup(int t) {
+        Shortlist shortlist = new Shortlist(targets[t], K, initial[t]);
+        NodeReference node;
+        while ((node = shortlist.pollClosest()) != null) {
+            shortlist.markResponded(node);
+            responses[t].get(node).forEach(shortlist::addToQuery);
+        }
+        return shortlist;
+    }
+
+    @Benchmark
+    public List<NodeReference> lookup() {
+        next = (next + 1) % TARGETS;
+        return lookup(next).getKBestResponded();
+    }
+
+    @Benchmark
+    public List<NodeReference> kBestResponded() {
+        next = (next + 1) % TARGETS;
+        return converged[next].getKBestResponded();
+    }
+}
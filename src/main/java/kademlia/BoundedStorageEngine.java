@@ -0,0 +1,337 @@
+package kademlia;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * {@link StorageEngine} decorator keeping the stored values within a byte budget <br>
+ * Values stored by the owner itself (its own STOREs and local puts) are never evicted. Replicas received from other
+ * nodes are evicted least recently used first to make room, a replica that does not fit even then is refused. <br>
+ * Each sender may hold at most senderQuotaBytes of replicas, a STORE over the quota is refused without evicting anything.
+ * Only value bytes are counted, not keys or the engine's own overhead. <br>
+ * Reads take no lock, they only stamp the entry. Writes take the lock of their key and the engine's lock for the
+ * accounting only, the delegate is called outside of the engine's lock.
+ */
+public class BoundedStorageEngine implements StorageEngine {
+
+    private static final int KEY_LOCKS = 64;
+
+    private static final class Usage {
+        final Id key;
+        final int bytes;
+        final NodeReference sender;
+        final boolean owned;
+        final long expiresAtMillis;
+
+        /**
+         * Stamp of the last read or write
+         */
+        volatile long lastAccess;
+
+        /**
+         * Stamp the entry is ordered by in the recency queue, guarded by the engine
+         */
+        long queuedAt;
+
+        Usage(Id key, int bytes, NodeReference sender, boolean owned, long expiresAtMillis, long stamp) {
+            this.key = key;
+            this.bytes = bytes;
+            this.sender = sender;
+            this.owned = owned;
+            this.expiresAtMillis = expiresAtMillis;
+            this.lastAccess = stamp;
+            this.queuedAt = stamp;
+        }
+    }
+
+    private final StorageEngine delegate;
+    private final NodeReference owner;
+    private final long capacityBytes;
+    private final long senderQuotaBytes;
+    private final Consumer<Id> evictionListener;
+
+    /**
+     * Writes of one key are serialized, so that the delegate sees them in the order they were accounted in
+     */
+    private final ReentrantLock[] keyLocks = new ReentrantLock[KEY_LOCKS];
+
+    /**
+     * Written under the engine's lock, read without it
+     */
+    private final Map<Id, Usage> usages = new ConcurrentHashMap<>();
+    private final AtomicLong accesses = new AtomicLong();
+
+    /**
+     * Replicas by the stamp they were queued with. A replica read since then is queued again with its newer stamp
+     * when it comes up, entries replaced in usages are dropped. Guarded by this
+     */
+    private final PriorityQueue<Usage> recency = new PriorityQueue<>(Comparator.comparingLong((Usage usage) -> usage.queuedAt));
+    private final Map<NodeReference, Long> senderBytes = new HashMap<>();
+    private long usedBytes = 0;
+    private long ownedBytes = 0;
+
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    /**
+     * Values already held by the delegate (e.g. recovered from disk) count as evictable replicas of an unknown sender,
+     * replicas over the capacity are evicted right away
+     * @param evictionListener called with every evicted key, outside of the engine's lock
+     */
+    public BoundedStorageEngine(StorageEngine delegate, NodeReference owner, long capacityBytes, long senderQuotaBytes,
+                                Consumer<Id> evictionListener) {
+        if (capacityBytes < 0 || senderQuotaBytes < 0) {
+            throw new IllegalArgumentException("Capacity and sender quota must not be negative");
+        }
+        this.delegate = delegate;
+        this.owner = owner;
+        this.capacityBytes = capacityBytes;
+        this.senderQuotaBytes = senderQuotaBytes;
+        this.evictionListener = evictionListener;
+        for (int i = 0; i < KEY_LOCKS; i++) {
+            keyLocks[i] = new ReentrantLock();
+        }
+        List<Usage> evicted;
+        synchronized (this) {
+            delegate.scan((key, value) -> account(new Usage(key, value.length, null, false, Long.MAX_VALUE, accesses.incrementAndGet())));
+            evicted = evictOverCapacity(null);
+        }
+        deleteEvicted(evicted);
+    }
+
+    @Override
+    public byte[] get(Id key) {
+        byte[] value = delegate.get(key);
+        if (value != null) touch(key);
+        return value;
+    }
+
+    @Override
+    public boolean read(Id key, Consumer<ByteBuffer> reader) {
+        boolean found = delegate.read(key, reader);
+        if (found) touch(key);
+        return found;
+    }
+
+    /**
+     * Local put of the owner, always accepted even if the owned values alone exceed the budget
+     * @throws IllegalArgumentException if the delegate refuses the value
+     */
+    @Override
+    public void put(Id key, byte[] value, long expiresAtMillis) {
+        if (!put(key, value, expiresAtMillis, owner)) {
+            throw new IllegalArgumentException("Value of " + value.length + " bytes refused by the storage engine");
+        }
+    }
+
+    @Override
+    public boolean put(Id key, byte[] value, long expiresAtMillis, NodeReference sender) {
+        List<Usage> evicted;
+        ReentrantLock lock = lockOf(key);
+        lock.lock();
+        try {
+            synchronized (this) {
+                Usage previous = usages.get(key);
+                // once published by the owner, the key stays pinned until it is deleted or expires
+                boolean owned = owner.equals(sender) || previous != null && previous.owned;
+
+                if (!owned && !fits(value.length, sender, previous) || !delegate.accepts(key, value.length, sender)) {
+                    rejections.incrementAndGet();
+                    return false;
+                }
+
+                release(key);
+                account(new Usage(key, value.length, owned ? null : sender, owned, expiresAtMillis, accesses.incrementAndGet()));
+                evicted = evictOverCapacity(key);
+            }
+            delegate.put(key, value, expiresAtMillis);
+        } finally {
+            lock.unlock();
+        }
+        deleteEvicted(evicted);
+        return true;
+    }
+
+    /**
+     * Same checks as a put of a replica, without storing or counting a rejection
+     */
+    @Override
+    public synchronized boolean accepts(Id key, long bytes, NodeReference sender) {
+        Usage previous = usages.get(key);
+        return (owner.equals(sender) || previous != null && previous.owned || fits(bytes, sender, previous))
+                && delegate.accepts(key, bytes, sender);
+    }
+
+    /**
+     * Guarded by this. Replica fits within the sender's quota and the room left by the owned values
+     */
+    private boolean fits(long bytes, NodeReference sender, Usage previous) {
+        long held = senderBytes.getOrDefault(sender, 0L) - (previous != null && sender.equals(previous.sender) ? previous.bytes : 0);
+        return held + bytes <= senderQuotaBytes && ownedBytes + bytes <= capacityBytes;
+    }
+
+    @Override
+    public boolean delete(Id key) {
+        ReentrantLock lock = lockOf(key);
+        lock.lock();
+        try {
+            synchronized (this) {
+                release(key);
+            }
+            return delegate.delete(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void scan(BiConsumer<Id, byte[]> visitor) {
+        delegate.scan(visitor);
+    }
+
+    /**
+     * Keys stored again with a later deadline while the delegate expired them keep their bytes
+     */
+    @Override
+    public List<Id> expire(long nowMillis) {
+        List<Id> expired = delegate.expire(nowMillis);
+        synchronized (this) {
+            for (Id key : expired) {
+                Usage usage = usages.get(key);
+                if (usage != null && usage.expiresAtMillis <= nowMillis) release(key);
+            }
+        }
+        return expired;
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public Map<Id, byte[]> asMap() {
+        return new StorageMapView(this, () -> delegate.asMap().keySet().iterator());
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    /**
+     * Replicas dropped to make room for newer ones
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * STOREs refused because of the sender quota, because the budget is taken by the owner's values or by the delegate
+     */
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized long getSenderBytes(NodeReference sender) {
+        return senderBytes.getOrDefault(sender, 0L);
+    }
+
+    private void touch(Id key) {
+        Usage usage = usages.get(key);
+        if (usage != null) usage.lastAccess = accesses.incrementAndGet();
+    }
+
+    private ReentrantLock lockOf(Id key) {
+        return keyLocks[(key.hashCode() & Integer.MAX_VALUE) % KEY_LOCKS];
+    }
+
+    /**
+     * Guarded by this. Take least recently used replicas out of the accounting until the budget is kept
+     * @param keep key being stored, never evicted
+     */
+    private List<Usage> evictOverCapacity(Id keep) {
+        List<Usage> evicted = new ArrayList<>();
+        while (usedBytes > capacityBytes) {
+            Usage eldest = recency.poll();
+            if (eldest == null) break;
+            // deleted, expired or stored again since it was queued
+            if (usages.get(eldest.key) != eldest) continue;
+            long accessed = eldest.lastAccess;
+            if (accessed != eldest.queuedAt) {
+                eldest.queuedAt = accessed;
+                recency.add(eldest);
+                continue;
+            }
+            if (eldest.key.equals(keep)) {
+                recency.add(eldest);
+                break;
+            }
+            usages.remove(eldest.key);
+            unaccount(eldest);
+            evicted.add(eldest);
+        }
+        // replaced entries pile up when nothing is evicted for a while
+        if (recency.size() > 2 * usages.size() + KEY_LOCKS) {
+            recency.removeIf(usage -> usages.get(usage.key) != usage);
+        }
+        return evicted;
+    }
+
+    /**
+     * Delete evicted replicas from the delegate, unless they were stored again meanwhile
+     */
+    private void deleteEvicted(List<Usage> evicted) {
+        for (Usage usage : evicted) {
+            ReentrantLock lock = lockOf(usage.key);
+            lock.lock();
+            try {
+                if (usages.containsKey(usage.key)) continue;
+                delegate.delete(usage.key);
+            } finally {
+                lock.unlock();
+            }
+            evictions.incrementAndGet();
+            evictionListener.accept(usage.key);
+        }
+    }
+
+    /**
+     * Guarded by this
+     */
+    private void account(Usage usage) {
+        usages.put(usage.key, usage);
+        if (!usage.owned) recency.add(usage);
+        usedBytes += usage.bytes;
+        if (usage.owned) ownedBytes += usage.bytes;
+        if (usage.sender != null) senderBytes.merge(usage.sender, (long) usage.bytes, Long::sum);
+    }
+
+    /**
+     * Guarded by this, the entry stays in the recency queue until it comes up
+     */
+    private void release(Id key) {
+        Usage usage = usages.remove(key);
+        if (usage != null) unaccount(usage);
+    }
+
+    private void unaccount(Usage usage) {
+        usedBytes -= usage.bytes;
+        if (usage.owned) ownedBytes -= usage.bytes;
+        if (usage.sender != null) senderBytes.computeIfPresent(usage.sender, (sender, bytes) -> bytes == usage.bytes ? null : bytes - usage.bytes);
+    }
+}
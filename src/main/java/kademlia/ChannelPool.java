@@ -0,0 +1,269 @@
+package kademlia;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Long-lived {@link ManagedChannel}s to remote peers, one per {@link NodeReference} <br>
+ * Channels are kept in least-recently-used order, the pool is capped at maxSize channels and channels
+ * unused for longer than maxIdle are closed by {@link #evictIdle()}. <br>
+ * A channel is dropped after maxFailures consecutive failed calls so that the next call reconnects from scratch. <br>
+ * Every {@link #acquire} is paired with a {@link #release} once the call is started: a channel dropped from the pool
+ * while acquired is shut down only after its last user released it, so that a call about to start is not failed.
+ */
+public class ChannelPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChannelPool.class);
+
+    private final NodeReference owner;
+    private final int maxSize;
+    private final long maxIdleMillis;
+    private final int maxFailures;
+
+    /**
+     * Runs the call callbacks of every channel, null for the gRPC default
+     */
+    private final Executor callbackExecutor;
+
+    /**
+     * Access-ordered: least-recently used channel is the first one
+     */
+    private final LinkedHashMap<NodeReference, PooledChannel> channels = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Channels dropped from the pool while acquired, shut down by their last release
+     */
+    private final Map<ManagedChannel, PooledChannel> retired = new IdentityHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private boolean closed = false;
+
+    public ChannelPool(NodeReference owner, int maxSize, Duration maxIdle, int maxFailures) {
+        this(owner, maxSize, maxIdle, maxFailures, null);
+    }
+
+    public ChannelPool(NodeReference owner, int maxSize, Duration maxIdle, int maxFailures, Executor callbackExecutor) {
+        this.owner = owner;
+        this.maxSize = maxSize;
+        this.maxIdleMillis = maxIdle.toMillis();
+        this.maxFailures = maxFailures;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Get pooled channel to the peer, open a new one if there is none. The caller must {@link #release} it
+     */
+    public ManagedChannel acquire(NodeReference peer) {
+        ManagedChannel evicted = null;
+        PooledChannel pooled;
+        lock.lock();
+        try {
+            if (closed) {
+                // node is shutting down, hand out channel that fails every call with UNAVAILABLE
+                ManagedChannel channel = build(peer);
+                channel.shutdownNow();
+                return channel;
+            }
+            pooled = channels.get(peer);
+            if (pooled == null) {
+                if (channels.size() >= maxSize) {
+                    Iterator<Map.Entry<NodeReference, PooledChannel>> eldest = channels.entrySet().iterator();
+                    evicted = retire(eldest.next().getValue());
+                    eldest.remove();
+                }
+                pooled = new PooledChannel(build(peer));
+                channels.put(peer, pooled);
+            }
+            pooled.lastUsed = System.currentTimeMillis();
+            pooled.users++;
+        } finally {
+            lock.unlock();
+        }
+        if (evicted != null) {
+            evicted.shutdown();
+        }
+        return pooled.channel;
+    }
+
+    /**
+     * Call on the acquired channel was started, a channel dropped from the pool meanwhile is shut down once unused
+     */
+    public void release(NodeReference peer, ManagedChannel channel) {
+        boolean idle;
+        lock.lock();
+        try {
+            PooledChannel pooled = channels.get(peer);
+            if (pooled != null && pooled.channel == channel) {
+                pooled.users--;
+                return;
+            }
+            pooled = retired.get(channel);
+            if (pooled == null) {
+                return;
+            }
+            idle = --pooled.users == 0;
+            if (idle) {
+                retired.remove(channel);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (idle) {
+            channel.shutdown();
+        }
+    }
+
+    /**
+     * Call to the peer succeeded, its channel is healthy
+     */
+    public void reportSuccess(NodeReference peer) {
+        PooledChannel pooled = get(peer);
+        if (pooled != null) {
+            pooled.failures.set(0);
+        }
+    }
+
+    /**
+     * Call to the peer failed, close its channel after too many consecutive failures
+     */
+    public void reportFailure(NodeReference peer) {
+        PooledChannel pooled = get(peer);
+        if (pooled != null && pooled.failures.incrementAndGet() >= maxFailures) {
+            logger.trace("[{}]  Channel to [{}] failed {} times in a row, closing", owner, peer, maxFailures);
+            evict(peer);
+        }
+    }
+
+    /**
+     * Close channel to the peer, in-flight calls are allowed to finish
+     */
+    public void evict(NodeReference peer) {
+        ManagedChannel idle = null;
+        lock.lock();
+        try {
+            PooledChannel pooled = channels.remove(peer);
+            if (pooled != null) {
+                idle = retire(pooled);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (idle != null) {
+            idle.shutdown();
+        }
+    }
+
+    /**
+     * Close all channels that were not used in the last maxIdle
+     */
+    public void evictIdle() {
+        long deadline = System.currentTimeMillis() - maxIdleMillis;
+        List<ManagedChannel> idle = new ArrayList<>();
+        lock.lock();
+        try {
+            Iterator<PooledChannel> it = channels.values().iterator();
+            while (it.hasNext()) {
+                PooledChannel pooled = it.next();
+                if (pooled.lastUsed <= deadline) {
+                    ManagedChannel channel = retire(pooled);
+                    if (channel != null) {
+                        idle.add(channel);
+                    }
+                    it.remove();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (!idle.isEmpty()) {
+            logger.trace("[{}]  Closing {} idle channels", owner, idle.size());
+        }
+        idle.forEach(ManagedChannel::shutdown);
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return channels.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean contains(NodeReference peer) {
+        return get(peer) != null;
+    }
+
+    /**
+     * Close all channels, pool hands out only closed channels afterwards
+     */
+    public void shutdown() {
+        List<PooledChannel> all;
+        lock.lock();
+        try {
+            closed = true;
+            all = new ArrayList<>(channels.values());
+            all.addAll(retired.values());
+            channels.clear();
+            retired.clear();
+        } finally {
+            lock.unlock();
+        }
+        all.forEach(pooled -> pooled.channel.shutdownNow());
+    }
+
+    private PooledChannel get(NodeReference peer) {
+        lock.lock();
+        try {
+            return channels.get(peer);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Guarded by lock. Channel dropped from the pool, returned if it can be shut down right away
+     */
+    private ManagedChannel retire(PooledChannel pooled) {
+        if (pooled.users == 0) {
+            return pooled.channel;
+        }
+        retired.put(pooled.channel, pooled);
+        return null;
+    }
+
+    private ManagedChannel build(NodeReference peer) {
+        ManagedChannelBuilder<?> builder = ManagedChannelBuilder.forTarget(peer.getAddress()).usePlaintext();
+        if (callbackExecutor != null) {
+            builder.executor(callbackExecutor);
+        }
+        return builder.build();
+    }
+
+    private static class PooledChannel {
+        private final ManagedChannel channel;
+        private volatile long lastUsed;
+        private final AtomicInteger failures = new AtomicInteger();
+
+        /**
+         * Acquired and not yet released, guarded by the pool's lock
+         */
+        private int users;
+
+        private PooledChannel(ManagedChannel channel) {
+            this.channel = channel;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package kademlia;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+import proto.Kademlia;
+import proto.KademliaServiceGrpc;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * {@link Transport} over gRPC: a server on the node's port and pooled channels to other nodes, see {@link ChannelPool}
+ */
+public class GrpcTransport implements Transport {
+
+    private final NodeReference self;
+
+    /**
+     * Runs inbound calls and outbound call callbacks in virtual-thread mode, null otherwise (gRPC default executors)
+     */
+    private final ExecutorService rpcExecutor;
+
+    /**
+     * Reusable channels to other nodes, a channel is closed when its node leaves the routing table
+     */
+    private final ChannelPool channelPool;
+
+    private Server server;
+
+    /**
+     * @param virtualThreads run server handlers and client callbacks on virtual threads, see {@link VirtualThreads}
+     */
+    public GrpcTransport(NodeReference self, int maxChannels, Duration channelIdleTimeout, int maxChannelFailures, boolean virtualThreads) {
+        this.self = self;
+        this.rpcExecutor = virtualThreads ? VirtualThreads.newPerTaskExecutor("kademlia-" + self.getPort() + "-rpc") : null;
+        this.channelPool = new ChannelPool(self, maxChannels, channelIdleTimeout, maxChannelFailures, rpcExecutor);
+    }
+
+    public ChannelPool getChannelPool() {
+        return channelPool;
+    }
+
+    @Override
+    public synchronized void startServer(KademliaServiceGrpc.KademliaServiceImplBase handler) throws IOException {
+        ServerBuilder<?> serverBuilder = ServerBuilder.forPort(self.getPort())
+                .addService(handler);
+        if (rpcExecutor != null) {
+            serverBuilder.executor(rpcExecutor);
+        }
+        server = serverBuilder.build();
+        server.start();
+    }
+
+    @Override
+    public synchronized void stopServer() {
+        if (server != null) {
+            server.shutdownNow();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        stopServer();
+        channelPool.shutdown();
+        if (rpcExecutor != null) {
+            rpcExecutor.shutdownNow();
+        }
+    }
+
+    @Override
+    public void promptNodeLookup(NodeReference node, Kademlia.LookupRequest request, long deadlineMillis,
+                                 StreamObserver<Kademlia.LookupResponse> responseObserver) {
+        call(node, deadlineMillis, stub -> stub.promptNodeLookup(request, responseObserver));
+    }
+
+    @Override
+    public void findNode(NodeReference node, Kademlia.FindNodeRequest request, long deadlineMillis,
+                         StreamObserver<Kademlia.FindNodeResponse> responseObserver) {
+        call(node, deadlineMillis, stub -> stub.findNode(request, responseObserver));
+    }
+
+    @Override
+    public void findValue(NodeReference node, Kademlia.FindValueRequest request, long deadlineMillis,
+                          StreamObserver<Kademlia.FindValueResponse> responseObserver) {
+        call(node, deadlineMillis, stub -> stub.findValue(request, responseObserver));
+    }
+
+    @Override
+    public void store(NodeReference node, Kademlia.StoreRequest request, long deadlineMillis,
+                      StreamObserver<Kademlia.StoreResponse> responseObserver) {
+        call(node, deadlineMillis, stub -> stub.store(request, responseObserver));
+    }
+
+    @Override
+    public void storeStream(NodeReference node, long deadlineMillis,
+                            ClientResponseObserver<Kademlia.StoreChunk, Kademlia.StoreResponse> responseObserver) {
+        call(node, deadlineMillis, stub -> stub.storeStream(responseObserver));
+    }
+
+    @Override
+    public void storeBatch(NodeReference node, Kademlia.StoreBatchRequest request, long deadlineMillis,
+                           StreamObserver<Kademlia.StoreBatchResponse> responseObserver) {
+        call(node, deadlineMillis, stub -> stub.storeBatch(request, responseObserver));
+    }
+
+    @Override
+    public void retrieve(NodeReference node, Kademlia.RetrieveRequest request, long deadlineMillis,
+                         StreamObserver<Kademlia.RetrieveResponse> responseObserver) {
+        call(node, deadlineMillis, stub -> stub.retrieve(request, responseObserver));
+    }
+
+    @Override
+    public void retrieveStream(NodeReference node, Kademlia.RetrieveRequest request, long deadlineMillis,
+                               ClientResponseObserver<Kademlia.RetrieveRequest, Kademlia.RetrieveChunk> responseObserver) {
+        call(node, deadlineMillis, stub -> stub.retrieveStream(request, responseObserver));
+    }
+
+    @Override
+    public void delete(NodeReference node, Kademlia.DeleteRequest request, long deadlineMillis,
+                       StreamObserver<Kademlia.DeleteResponse> responseObserver) {
+        call(node, deadlineMillis, stub -> stub.delete(request, responseObserver));
+    }
+
+    @Override
+    public void ping(NodeReference node, Kademlia.PingRequest request, long deadlineMillis,
+                     StreamObserver<Kademlia.PingResponse> responseObserver) {
+        call(node, deadlineMillis, stub -> stub.ping(request, responseObserver));
+    }
+
+    @Override
+    public void reportSuccess(NodeReference node) {
+        channelPool.reportSuccess(node);
+    }
+
+    @Override
+    public void reportFailure(NodeReference node) {
+        channelPool.reportFailure(node);
+    }
+
+    @Override
+    public void forget(NodeReference node) {
+        channelPool.evict(node);
+    }
+
+    @Override
+    public void evictIdle() {
+        channelPool.evictIdle();
+    }
+
+    /**
+     * Start the call on a pooled channel, the channel is not shut down before the call is started
+     */
+    private void call(NodeReference node, long deadlineMillis, Consumer<KademliaServiceGrpc.KademliaServiceStub> call) {
+        ManagedChannel channel = channelPool.acquire(node);
+        try {
+            KademliaServiceGrpc.KademliaServiceStub stub = KademliaServiceGrpc.newStub(channel);
+            call.accept(deadlineMillis > 0 ? stub.withDeadlineAfter(deadlineMillis, TimeUnit.MILLISECONDS) : stub);
+        } finally {
+            channelPool.release(node, channel);
+        }
+    }
+}
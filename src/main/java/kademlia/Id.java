@@ -0,0 +1,231 @@
+package kademlia;
+
+import java.math.BigInteger;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Immutable unsigned 160-bit node ID / key hash backed by three primitive longs <br>
+ * Shorter ID spaces ({@link KademliaNode#getIdLength()}) simply leave the upper bits zero. <br>
+ * XOR distance comparison and bucket index calculation do not allocate, unlike {@link BigInteger#xor(BigInteger)}.
+ */
+public final class Id implements Comparable<Id> {
+
+    public static final int BITS = 160;
+    public static final int BYTES = BITS / 8;
+
+    public static final Id ZERO = new Id(0, 0, 0);
+
+    private static final long HI_MASK = 0xFFFFFFFFL;
+
+    /**
+     * Bits 128-159, only the lower 32 bits are used
+     */
+    private final long hi;
+
+    /**
+     * Bits 64-127
+     */
+    private final long mid;
+
+    /**
+     * Bits 0-63
+     */
+    private final long lo;
+
+    private Id(long hi, long mid, long lo) {
+        this.hi = hi & HI_MASK;
+        this.mid = mid;
+        this.lo = lo;
+    }
+
+    public static Id of(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("ID must not be negative");
+        }
+        return new Id(0, 0, value);
+    }
+
+    public static Id of(BigInteger value) {
+        if (value.signum() < 0 || value.bitLength() > BITS) {
+            throw new IllegalArgumentException("ID must be between 0 and 2^" + BITS + "-1");
+        }
+        return new Id(value.shiftRight(128).longValue(), value.shiftRight(64).longValue(), value.longValue());
+    }
+
+    /**
+     * Inverse of {@link #bits(int, int)} over the three words: bits 128-159, 64-127 and 0-63
+     */
+    static Id fromWords(long hi, long mid, long lo) {
+        return new Id(hi, mid, lo);
+    }
+
+    /**
+     * Unsigned big-endian bytes, at most {@link #BYTES} long
+     */
+    public static Id fromBytes(byte[] bytes) {
+        if (bytes.length > BYTES) {
+            throw new IllegalArgumentException("ID must be at most " + BYTES + " bytes long");
+        }
+        long hi = 0, mid = 0, lo = 0;
+        for (byte b : bytes) {
+            hi = (hi << 8) | (mid >>> 56);
+            mid = (mid << 8) | (lo >>> 56);
+            lo = (lo << 8) | (b & 0xFF);
+        }
+        return new Id(hi, mid, lo);
+    }
+
+    /**
+     * Uniformly random ID with 2^index &lt;= ID &lt; 2^(index+1)
+     */
+    public static Id randomWithHighestBit(int index, Random random) {
+        Id noise = new Id(random.nextLong(), random.nextLong(), random.nextLong());
+        return noise.mask(index).setBit(index);
+    }
+
+    public BigInteger toBigInteger() {
+        return new BigInteger(1, toBytes(BYTES));
+    }
+
+    /**
+     * Unsigned big-endian representation truncated (or padded) to the given number of bytes
+     */
+    public byte[] toBytes(int width) {
+        byte[] bytes = new byte[width];
+        for (int i = 0; i < width && i < BYTES; i++) {
+            bytes[width - 1 - i] = (byte) (word(i / 8) >>> (8 * (i % 8)));
+        }
+        return bytes;
+    }
+
+    public Id xor(Id other) {
+        return new Id(hi ^ other.hi, mid ^ other.mid, lo ^ other.lo);
+    }
+
+    /**
+     * Compare XOR distances of a and b to this ID, without materializing the distances
+     */
+    public int compareDistance(Id a, Id b) {
+        int cmp = Long.compareUnsigned(hi ^ a.hi, hi ^ b.hi);
+        if (cmp != 0) return cmp;
+        cmp = Long.compareUnsigned(mid ^ a.mid, mid ^ b.mid);
+        if (cmp != 0) return cmp;
+        return Long.compareUnsigned(lo ^ a.lo, lo ^ b.lo);
+    }
+
+    /**
+     * Orders IDs by XOR distance to this ID, closest first
+     */
+    public Comparator<Id> distanceComparator() {
+        return this::compareDistance;
+    }
+
+    /**
+     * Index of the highest bit in which the IDs differ (= bit length of the XOR distance minus one), -1 for equal IDs
+     */
+    public int highestDifferingBit(Id other) {
+        long x = hi ^ other.hi;
+        if (x != 0) return 191 - Long.numberOfLeadingZeros(x);
+        x = mid ^ other.mid;
+        if (x != 0) return 127 - Long.numberOfLeadingZeros(x);
+        x = lo ^ other.lo;
+        if (x != 0) return 63 - Long.numberOfLeadingZeros(x);
+        return -1;
+    }
+
+    public int bitLength() {
+        return highestDifferingBit(ZERO) + 1;
+    }
+
+    public boolean testBit(int index) {
+        checkIndex(index);
+        return ((word(index >>> 6) >>> (index & 63)) & 1L) != 0;
+    }
+
+    public Id setBit(int index) {
+        checkIndex(index);
+        long bit = 1L << (index & 63);
+        switch (index >>> 6) {
+            case 0: return new Id(hi, mid, lo | bit);
+            case 1: return new Id(hi, mid | bit, lo);
+            default: return new Id(hi | bit, mid, lo);
+        }
+    }
+
+    /**
+     * Extract count (at most 64) bits starting at bit index low, e.g. prefix of an ID in n-bit space is bits(n-count, count)
+     */
+    public long bits(int low, int count) {
+        if (count < 0 || count > 64 || low < 0 || low + count > BITS) {
+            throw new IllegalArgumentException("Cannot extract " + count + " bits from bit " + low);
+        }
+        if (count == 0) return 0;
+        int wordIndex = low >>> 6;
+        int shift = low & 63;
+        long value = word(wordIndex) >>> shift;
+        if (shift != 0 && wordIndex < 2) {
+            value |= word(wordIndex + 1) << (64 - shift);
+        }
+        return count == 64 ? value : value & ((1L << count) - 1);
+    }
+
+    /**
+     * Keep only bits below the given index
+     */
+    private Id mask(int index) {
+        if (index >= 128) return new Id(hi & lowMask(index - 128), mid, lo);
+        if (index >= 64) return new Id(0, mid & lowMask(index - 64), lo);
+        return new Id(0, 0, lo & lowMask(index));
+    }
+
+    private static long lowMask(int bits) {
+        return bits >= 64 ? -1L : (1L << bits) - 1;
+    }
+
+    private long word(int index) {
+        switch (index) {
+            case 0: return lo;
+            case 1: return mid;
+            default: return hi;
+        }
+    }
+
+    private static void checkIndex(int index) {
+        if (index < 0 || index >= BITS) {
+            throw new IllegalArgumentException("Bit index must be between 0 and " + (BITS - 1));
+        }
+    }
+
+    @Override
+    public int compareTo(Id other) {
+        return ZERO.compareDistance(this, other);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof Id)) return false;
+        Id other = (Id) obj;
+        return hi == other.hi && mid == other.mid && lo == other.lo;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Long.hashCode(hi);
+        result = 31 * result + Long.hashCode(mid);
+        result = 31 * result + Long.hashCode(lo);
+        return result;
+    }
+
+    /**
+     * Decimal, same as the former BigInteger IDs in logs
+     */
+    @Override
+    public String toString() {
+        if (hi == 0 && mid == 0 && lo >= 0) {
+            return Long.toString(lo);
+        }
+        return toBigInteger().toString();
+    }
+}
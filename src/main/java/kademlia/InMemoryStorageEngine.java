@@ -0,0 +1,96 @@
+package kademlia;
+
+import com.google.common.collect.Maps;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Heap {@link StorageEngine} on a {@link ConcurrentHashMap}, deadlines are kept in a {@link TimingWheel} <br>
+ * A key is only removed if the deadline of its current value passed, so a STORE racing with the expiration is never lost.
+ */
+public class InMemoryStorageEngine implements StorageEngine {
+
+    private static final class Stored {
+        final byte[] value;
+        final long expiresAt;
+
+        Stored(byte[] value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Map<Id, Stored> data = new ConcurrentHashMap<>();
+    private final TimingWheel<Id> expirations;
+
+    /**
+     * @param tick resolution of expiration, a key is removed at most one tick after its deadline
+     */
+    public InMemoryStorageEngine(Duration tick, int wheelSlots) {
+        this(tick, wheelSlots, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock time the expiration deadlines are given in
+     */
+    public InMemoryStorageEngine(Duration tick, int wheelSlots, LongSupplier clock) {
+        this.expirations = new TimingWheel<>(tick, wheelSlots, clock.getAsLong());
+    }
+
+    @Override
+    public byte[] get(Id key) {
+        Stored stored = data.get(key);
+        return stored == null ? null : stored.value;
+    }
+
+    @Override
+    public void put(Id key, byte[] value, long expiresAtMillis) {
+        // value first: expiration that already picked the old deadline sees the new one and keeps the key
+        data.put(key, new Stored(value, expiresAtMillis));
+        expirations.schedule(key, expiresAtMillis);
+    }
+
+    @Override
+    public boolean delete(Id key) {
+        expirations.cancel(key);
+        return data.remove(key) != null;
+    }
+
+    @Override
+    public void scan(BiConsumer<Id, byte[]> visitor) {
+        data.forEach((key, stored) -> visitor.accept(key, stored.value));
+    }
+
+    @Override
+    public List<Id> expire(long nowMillis) {
+        List<Id> expired = new ArrayList<>();
+        for (Id key : expirations.advance(nowMillis)) {
+            boolean[] removed = {false};
+            data.computeIfPresent(key, (k, stored) -> {
+                if (stored.expiresAt > nowMillis) return stored;
+                removed[0] = true;
+                return null;
+            });
+            if (removed[0]) {
+                expired.add(key);
+            }
+        }
+        return expired;
+    }
+
+    @Override
+    public int size() {
+        return data.size();
+    }
+
+    @Override
+    public Map<Id, byte[]> asMap() {
+        return Maps.transformValues(data, stored -> stored.value);
+    }
+}
@@ -2,63 +2,156 @@ package kademlia;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Stream;
 
 /**
- * Each KBucket is kept sorted by time last seen: most-recently seen at the tail
+ * Each KBucket is kept sorted by time last seen: most-recently seen at the tail <br>
+ * Contacts are kept in an immutable snapshot that is replaced on every change (copy-on-write):
+ * readers never lock, writers synchronize on the bucket. <br>
+ * New contacts that do not fit into a full bucket wait in a bounded replacement cache, a contact is only
+ * evicted once it fails to respond, its place is then taken by the most recently seen replacement.
  */
 public class KBucket {
     private final int MAX_SIZE;
     private final NodeReference owner;
-    private final ArrayDeque<NodeReference> nodes;
 
+    /**
+     * Current snapshot, head = least-recently seen
+     */
+    private volatile List<NodeReference> nodes = Collections.emptyList();
+
+    /**
+     * Candidates for full bucket, most-recently seen at the tail
+     */
+    private final ArrayDeque<NodeReference> replacements = new ArrayDeque<>();
+
+    /**
+     * Earliest time when the head of this bucket may be pinged again
+     */
+    private long nextPingAllowed = 0;
+
+    /**
+     * Last time a node of this bucket's range was seen, idle buckets are refreshed by the node's sweep
+     */
+    private volatile long lastActivity;
 
-    public KBucket(int k, NodeReference owner) {
+
+    /**
+     * @param createdMillis time of creation, the bucket counts as active since then
+     */
+    public KBucket(int k, NodeReference owner, long createdMillis) {
         this.MAX_SIZE = k;
         this.owner = owner;
-        nodes = new ArrayDeque<>();
+        this.lastActivity = createdMillis;
     }
 
     /**
-     * Insert most recently seen at the tail/end
+     * Insert most recently seen at the tail/end, if the bucket is full the node goes to the replacement cache
+     * @return true if the node was added to the bucket
      */
-    public boolean add(NodeReference newNode) {
+    public synchronized boolean add(NodeReference newNode) {
 
         if (owner.equals(newNode)) return false;
 
-        if (nodes.contains(newNode)) {
-            nodes.remove(newNode);
-            nodes.addLast(newNode);
+        List<NodeReference> updated = new ArrayList<>(nodes);
+
+        if (updated.contains(newNode)) {
+            updated.remove(newNode);
+            updated.add(newNode);
+            publish(updated);
             return false;
         }
 
-        if (nodes.size() == MAX_SIZE)  {
-            nodes.removeFirst();
-            nodes.addLast(newNode);
+        if (updated.size() == MAX_SIZE)  {
+            replacements.remove(newNode);
+            replacements.addLast(newNode);
+            if (replacements.size() > MAX_SIZE) {
+                replacements.removeFirst();
+            }
             return false;
         }
 
-        nodes.addLast(newNode);
+        replacements.remove(newNode);
+        updated.add(newNode);
+        publish(updated);
         return true;
     }
 
-    public boolean addTail(NodeReference node) {
+    public synchronized boolean addTail(NodeReference node) {
         if (nodes.size() < MAX_SIZE) {
-            nodes.addLast(node);
+            List<NodeReference> updated = new ArrayList<>(nodes);
+            updated.add(node);
+            publish(updated);
             return true;
         }
         return false;
     }
 
-    public boolean addHead(NodeReference node) {
+    public synchronized boolean addHead(NodeReference node) {
         if (nodes.size() < MAX_SIZE) {
-            nodes.addFirst(node);
+            List<NodeReference> updated = new ArrayList<>(nodes);
+            updated.add(0, node);
+            publish(updated);
             return true;
         }
         return false;
     }
 
+    /**
+     * Remove unresponsive node, its place is taken by the most recently seen replacement
+     */
+    public synchronized boolean remove(NodeReference toRemove) {
+        List<NodeReference> updated = new ArrayList<>(nodes);
+        if (!updated.remove(toRemove)) {
+            // unresponsive replacement must not be promoted later
+            replacements.remove(toRemove);
+            return false;
+        }
+        NodeReference replacement = replacements.pollLast();
+        if (replacement != null) {
+            updated.add(replacement);
+        }
+        publish(updated);
+        return true;
+    }
+
+    /**
+     * Rate limit for pinging the head of a full bucket
+     * @return true if the head may be pinged now, next ping is then allowed after minInterval
+     */
+    public synchronized boolean tryStartPing(long now, long minInterval) {
+        if (now < nextPingAllowed) {
+            return false;
+        }
+        nextPingAllowed = now + minInterval;
+        return true;
+    }
+
+    public void touch(long now) {
+        lastActivity = now;
+    }
+
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    public synchronized List<NodeReference> getReplacements() {
+        return new ArrayList<>(replacements);
+    }
+
+    private void publish(List<NodeReference> updated) {
+        nodes = Collections.unmodifiableList(updated);
+    }
+
+    /**
+     * Immutable view of the bucket at the time of the call
+     */
+    public List<NodeReference> snapshot() {
+        return nodes;
+    }
+
     public int getSize() {
         return nodes.size();
     }
@@ -80,25 +173,24 @@ public class KBucket {
     }
 
     public boolean isEmpty() {
-        return nodes.size() == 0;
+        return nodes.isEmpty();
     }
 
     public NodeReference getHead() {
-        return nodes.peekFirst();
+        List<NodeReference> snapshot = nodes;
+        return snapshot.isEmpty() ? null : snapshot.get(0);
     }
 
     public NodeReference getTail() {
-        return nodes.peekLast();
-    }
-
-    public boolean remove(NodeReference toRemove) {
-        return nodes.remove(toRemove);
+        List<NodeReference> snapshot = nodes;
+        return snapshot.isEmpty() ? null : snapshot.get(snapshot.size() - 1);
     }
 
     public String toString() {
-        if (nodes.isEmpty()) return "";
+        List<NodeReference> snapshot = nodes;
+        if (snapshot.isEmpty()) return "";
         String r = "";
-        for (NodeReference n : nodes) {
+        for (NodeReference n : snapshot) {
             r += n + " ";
         }
         return r;
@@ -1,7 +1,13 @@
 package kademlia;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
 import io.grpc.*;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,10 +16,15 @@ import proto.KademliaServiceGrpc;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -25,30 +36,64 @@ public class KademliaNode {
 
     private final NodeReference self;
 
-    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Local data storage, thread-safe on its own, see {@link kademlia.StorageEngine}
+     */
+    private final StorageEngine storage;
+
+    /**
+     * Keys this node is the <b>original publisher</b> of, all of them are republished in one sweep every republishInterval
+     */
+    private final Map<Id, byte[]> publishedData = new ConcurrentHashMap<>();
+
+    /**
+     * When a STORE of a published key was last received from another node, a key refreshed within the last
+     * republishInterval is not republished (opt-1). Replicas of keys published elsewhere are not tracked
+     */
+    private final Map<Id, Long> lastStoreReceived = new ConcurrentHashMap<>();
 
     /**
-     * Local data storage
+     * Node lookups and STORE_BATCH calls made by the republish sweeps, keys skipped thanks to opt-1
      */
-    private final Map<BigInteger, String> localData = new HashMap<>();
+    private final AtomicLong republishLookups = new AtomicLong();
+    private final AtomicLong storeBatchCalls = new AtomicLong();
+    private final AtomicLong suppressedRepublishes = new AtomicLong();
 
     /**
-     * Republish task handle for cancellation/rescheduling
+     * Replicas evicted by a bounded storage engine and STOREs it refused
      */
-    private final Map<BigInteger, ScheduledFuture<?>> republishTasks = new HashMap<>();
+    private final AtomicLong evictedReplicas = new AtomicLong();
+    private final AtomicLong rejectedStores = new AtomicLong();
 
     /**
-     * Expiration task handle for cancellation/rescheduling
+     * Lookups started by bucket refreshes (sweeps and join)
      */
-    private final Map<BigInteger, ScheduledFuture<?>> expireTasks = new HashMap<>();
+    private final AtomicLong bucketRefreshes = new AtomicLong();
 
     /**
-     * Refresh k-bucket that have not been queried in the last refreshInterval
+     * Expiration, bucket refresh, republishing and channel eviction, see {@link MaintenanceScheduler}
      */
-    private final Map<Integer, ScheduledFuture<?>> refreshTasks = new HashMap<>();
+    private final MaintenanceScheduler maintenance;
 
-    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
+    /**
+     * Calls to other nodes and dispatch of their calls, gRPC unless a simulation supplies its own, see {@link Transport}
+     */
+    private final Transport transport;
+
+    /**
+     * Time of all timestamps, expirations and bucket activity of this node
+     */
+    private final LongSupplier clock;
+
+    /**
+     * Source of random bucket refresh targets
+     */
+    private final Supplier<Random> random;
 
+    /**
+     * Encoding of IDs on the wire and protocol version negotiated with other nodes
+     */
+    private final WireFormat wireFormat;
 
     /**
      * Contains {@link kademlia.KademliaNode#ID_LENGTH} number of {@link kademlia.KBucket}s
@@ -70,12 +115,20 @@ public class KademliaNode {
      */
     private static int K_PARAMETER = 4;
 
-    private final Server server;
+    /**
+     * Number of nodes that must return the value before get() completes, capped by K
+     */
+    private static int READ_QUORUM = 1;
+
+    /**
+     * Number of nodes that must acknowledge STORE before put() completes, capped by K, 0 for all K (default)
+     */
+    private static int WRITE_QUORUM = 0;
 
     /**
      * Time after which the <b>original publisher</b> must republish a key/value pair <br>
-     * Note: For opt-1, original protocol assumes a certain network delay which results in non-racing intervals between the nodes.
-     * Since this implementation runs mainly locally, we need to 'desynchronize' the republishing intervals
+     * Opt-1: publisher skips keys it received a STORE for from another node within this interval,
+     * i.e. another publisher of the same key already refreshed the replicas
      */
     private static Duration republishInterval = Duration.ofMinutes(15);
 
@@ -85,22 +138,160 @@ public class KademliaNode {
     private static Duration expireInterval = Duration.ofMinutes(15).plus(Duration.ofSeconds(10));
 
     /**
-     * Time after which node should refresh (send random id query) otherwise unqueried k-bucket
+     * Resolution of key expiration, a key expires at most one tick after its expireInterval
+     */
+    private static Duration expireTick = Duration.ofMillis(100);
+
+    private static final int EXPIRE_WHEEL_SLOTS = 512;
+
+    /**
+     * Clock of every new node, the wall clock unless a simulation supplies its virtual one
+     */
+    private static LongSupplier timeSource = System::currentTimeMillis;
+
+    private static final Function<NodeReference, StorageEngine> IN_MEMORY_STORAGE =
+            node -> new InMemoryStorageEngine(expireTick, EXPIRE_WHEEL_SLOTS, timeSource);
+
+    /**
+     * Creates the storage engine of every new node, in-memory by default
+     */
+    private static Function<NodeReference, StorageEngine> storageEngineFactory = IN_MEMORY_STORAGE;
+
+    /**
+     * Bytes of values a node stores at most, its own published values are always kept (unbounded by default) <br>
+     * Replicas of other publishers are evicted least recently used first, see {@link BoundedStorageEngine}
+     */
+    private static long STORAGE_CAPACITY = Long.MAX_VALUE;
+
+    /**
+     * Bytes of replicas a node stores at most for a single sender
+     */
+    private static long SENDER_QUOTA = Long.MAX_VALUE;
+
+    /**
+     * Time after which node should refresh (send random id query) otherwise unqueried k-bucket <br>
+     * Buckets are checked by a sweep every quarter of the interval, so an idle bucket is refreshed within 1.25 intervals
      */
     private static Duration refreshInterval = Duration.ofMinutes(10);
 
+    /**
+     * Max number of channels kept open to other nodes
+     */
+    private static int MAX_CHANNELS = 64;
+
+    /**
+     * Time after which unused channel to other node is closed
+     */
+    private static Duration channelIdleTimeout = Duration.ofMinutes(5);
+
+    /**
+     * Number of consecutive failed calls after which a channel is closed and reopened on next use
+     */
+    private static int MAX_CHANNEL_FAILURES = 3;
+
+    /**
+     * Worker threads of the maintenance scheduler
+     */
+    private static int MAINTENANCE_THREADS = 2;
+
+    /**
+     * Run gRPC server handlers and client callbacks on virtual threads, see {@link VirtualThreads}
+     */
+    private static boolean VIRTUAL_THREADS = false;
+
+    /**
+     * Highest protocol version the node speaks, see {@link kademlia.WireFormat}
+     */
+    private static int PROTOCOL_VERSION = WireFormat.LATEST;
+
+    /**
+     * Values larger than this are transferred to and from v3 nodes in chunks instead of a single message
+     */
+    private static int STREAMING_THRESHOLD = 1 << 20;
+
+    /**
+     * Size of one chunk of a streamed value
+     */
+    private static int STREAM_CHUNK_BYTES = 256 << 10;
+
+    /**
+     * Largest streamed value a node accepts from another node, the size announced by the peer is checked
+     * before anything is allocated
+     */
+    private static int MAX_VALUE_BYTES = 64 << 20;
+
+    /**
+     * Largest message gRPC accepts by default, values sent in a single response to peers that cannot stream
+     * must fit into it
+     */
+    private static final int MAX_MESSAGE_BYTES = 4 << 20;
+
+    /**
+     * Node that does not answer a ping within this time is considered dead and evicted from its k-bucket
+     */
+    private static Duration pingTimeout = Duration.ofSeconds(2);
+
+    /**
+     * Minimal time between two pings of the least-recently seen node of the same k-bucket
+     */
+    private static Duration minPingInterval = Duration.ofSeconds(5);
+
+    /**
+     * Deadline of a single FIND_NODE call, node that does not answer in time is treated as offline
+     */
+    private static Duration rpcTimeout = Duration.ofSeconds(5);
+
+    /**
+     * gRPC with the channel settings above, the default transport
+     */
+    private static final Function<NodeReference, Transport> GRPC_TRANSPORT =
+            node -> new GrpcTransport(node, MAX_CHANNELS, channelIdleTimeout, MAX_CHANNEL_FAILURES, VIRTUAL_THREADS);
+
+    /**
+     * Creates the transport of every new node
+     */
+    private static Function<NodeReference, Transport> transportFactory = GRPC_TRANSPORT;
+
+    /**
+     * Creates the source of maintenance ticks of every new node, null for the scheduler's own timer thread
+     */
+    private static Function<NodeReference, MaintenanceScheduler.Ticker> tickerFactory = null;
+
+    /**
+     * Randomness of every new node
+     */
+    private static Supplier<Random> randomSource = ThreadLocalRandom::current;
+
 
     ///////////////////////////////
     ///  NODE-STATE INITIATION  ///
     ///////////////////////////////
 
     public KademliaNode(String ip, int port) {
-        this.self = new NodeReference(ip, port);
-        this.routingTable = new RoutingTable(ID_LENGTH, ALPHA_PARAMETER, K_PARAMETER, self);
+        this(new NodeReference(ip, port));
+    }
 
-        server = ServerBuilder.forPort(port)
-                .addService(new KademliaNodeServer())
-                .build();
+    private KademliaNode(NodeReference self) {
+        this.self = self;
+        this.clock = timeSource;
+        this.random = randomSource;
+        this.routingTable = new RoutingTable(ID_LENGTH, ALPHA_PARAMETER, K_PARAMETER, self, clock);
+        this.transport = transportFactory.apply(self);
+        this.wireFormat = new WireFormat(self, PROTOCOL_VERSION);
+        StorageEngine engine = storageEngineFactory.apply(self);
+        if (STORAGE_CAPACITY < Long.MAX_VALUE || SENDER_QUOTA < Long.MAX_VALUE) {
+            engine = new BoundedStorageEngine(engine, self, STORAGE_CAPACITY, SENDER_QUOTA, key -> {
+                evictedReplicas.incrementAndGet();
+                lastStoreReceived.remove(key);
+            });
+        }
+        this.storage = engine;
+        this.maintenance = tickerFactory == null
+                ? new MaintenanceScheduler("kademlia-" + self.getPort(), MAINTENANCE_THREADS)
+                : new MaintenanceScheduler("kademlia-" + self.getPort(), tickerFactory.apply(self));
+        routingTable.addRemovalListener(transport::forget);
+        routingTable.addRemovalListener(wireFormat::forget);
+        routingTable.setPingHandler(this::pingLeastRecentlySeen, minPingInterval);
     }
 
     public NodeReference getNodeReference() {
@@ -143,19 +334,134 @@ public class KademliaNode {
         KademliaNode.K_PARAMETER = k;
     }
 
+    public static int getReadQuorum() {
+        return READ_QUORUM;
+    }
+
+    public static void setReadQuorum(int readQuorum) {
+        if (readQuorum < 1 || readQuorum > 20) {
+            throw new IllegalArgumentException("Read quorum must be between 1 and 20");
+        }
+        READ_QUORUM = readQuorum;
+    }
+
+    /**
+     * @return write quorum in effect, capped by K
+     */
+    public static int getWriteQuorum() {
+        return WRITE_QUORUM == 0 ? K_PARAMETER : Math.min(WRITE_QUORUM, K_PARAMETER);
+    }
+
+    /**
+     * @param writeQuorum 0 to wait for all K nodes, which follows later changes of K
+     */
+    public static void setWriteQuorum(int writeQuorum) {
+        if (writeQuorum < 0 || writeQuorum > 20) {
+            throw new IllegalArgumentException("Write quorum must be between 0 and 20");
+        }
+        WRITE_QUORUM = writeQuorum;
+    }
+
     /**
      * There is high probability that new Kad node is inserted in the last KB
      * which means there would be no refresh. <br>
      * We need to set custom id for testing purposes.
      */
+    @VisibleForTesting
+    public KademliaNode(String ip, int port, Id id) {
+        this(new NodeReference(ip, port, id));
+    }
+
     @VisibleForTesting
     public KademliaNode(String ip, int port, BigInteger id) {
-        this.self = new NodeReference(ip, port, id);
-        this.routingTable = new RoutingTable(ID_LENGTH, ALPHA_PARAMETER, K_PARAMETER, self);
+        this(new NodeReference(ip, port, id));
+    }
 
-        server = ServerBuilder.forPort(port)
-                .addService(new KademliaNodeServer())
-                .build();
+    public static void setMaxChannels(int maxChannels) {
+        if (maxChannels < 1) {
+            throw new IllegalArgumentException("Max channels must be at least 1");
+        }
+        MAX_CHANNELS = maxChannels;
+    }
+
+    public static void setMaintenanceThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Maintenance threads must be at least 1");
+        }
+        MAINTENANCE_THREADS = threads;
+    }
+
+    /**
+     * Applies to nodes created afterwards. Needs Java 21+, older JVMs fall back to an unbounded platform thread pool
+     */
+    public static void setVirtualThreads(boolean enabled) {
+        if (enabled && !VirtualThreads.isAvailable()) {
+            logger.warn("Virtual threads need Java 21+, running on {}: using platform threads instead", System.getProperty("java.version"));
+        }
+        VIRTUAL_THREADS = enabled;
+    }
+
+    public static void setChannelIdleTimeout(Duration duration) {
+        channelIdleTimeout = duration;
+    }
+
+    public static int getProtocolVersion() {
+        return PROTOCOL_VERSION;
+    }
+
+    /**
+     * Nodes created afterwards speak at most the given protocol version, v1 is used to emulate old nodes during upgrade
+     */
+    public static void setProtocolVersion(int version) {
+        if (version < WireFormat.V1 || version > WireFormat.LATEST) {
+            throw new IllegalArgumentException("Protocol version must be between " + WireFormat.V1 + " and " + WireFormat.LATEST);
+        }
+        PROTOCOL_VERSION = version;
+    }
+
+    public static void setStreamingThreshold(int bytes) {
+        if (bytes < 1) {
+            throw new IllegalArgumentException("Streaming threshold must be at least 1 byte");
+        }
+        STREAMING_THRESHOLD = bytes;
+    }
+
+    public static void setStreamChunkSize(int bytes) {
+        if (bytes < 1) {
+            throw new IllegalArgumentException("Stream chunk must be at least 1 byte");
+        }
+        STREAM_CHUNK_BYTES = bytes;
+    }
+
+    public static void setMaxValueSize(int bytes) {
+        if (bytes < 1) {
+            throw new IllegalArgumentException("Maximal value size must be at least 1 byte");
+        }
+        MAX_VALUE_BYTES = bytes;
+    }
+
+    public static void setPingTimeout(Duration duration) {
+        pingTimeout = duration;
+    }
+
+    public static Duration getMinPingInterval() {
+        return minPingInterval;
+    }
+
+    public static void setMinPingInterval(Duration duration) {
+        minPingInterval = duration;
+    }
+
+    public static Duration getRpcTimeout() {
+        return rpcTimeout;
+    }
+
+    public static void setRpcTimeout(Duration duration) {
+        rpcTimeout = duration;
+    }
+
+    public static Duration getRepublishInterval() {
+        return republishInterval;
     }
 
     @VisibleForTesting
@@ -163,25 +469,176 @@ public class KademliaNode {
         republishInterval = duration;
     }
 
+    public static Duration getExpireInterval() {
+        return expireInterval;
+    }
+
     @VisibleForTesting
     public static void setExpireInterval(Duration duration) {
         expireInterval = duration;
     }
 
+    public static Duration getExpireTick() {
+        return expireTick;
+    }
+
+    @VisibleForTesting
+    public static void setExpireTick(Duration duration) {
+        expireTick = duration;
+    }
+
+    public static Function<NodeReference, StorageEngine> getStorageEngineFactory() {
+        return storageEngineFactory;
+    }
+
+    /**
+     * Nodes created afterwards keep their data in the engine created by the factory, null restores the in-memory engine
+     */
+    public static void setStorageEngineFactory(Function<NodeReference, StorageEngine> factory) {
+        storageEngineFactory = factory == null ? IN_MEMORY_STORAGE : factory;
+    }
+
+    /**
+     * Applies to nodes created afterwards, Long.MAX_VALUE turns the budget off
+     */
+    public static void setStorageCapacity(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Storage capacity must not be negative");
+        }
+        STORAGE_CAPACITY = bytes;
+    }
+
+    /**
+     * Applies to nodes created afterwards, Long.MAX_VALUE turns the quota off
+     */
+    public static void setSenderQuota(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Sender quota must not be negative");
+        }
+        SENDER_QUOTA = bytes;
+    }
+
+    public static Duration getRefreshInterval() {
+        return refreshInterval;
+    }
+
     @VisibleForTesting
     public static void setRefreshInterval(Duration duration) {
         refreshInterval = duration;
     }
 
+    /**
+     * Nodes created afterwards call other nodes through the transport created by the factory, null restores gRPC
+     */
+    public static void setTransportFactory(Function<NodeReference, Transport> factory) {
+        transportFactory = factory == null ? GRPC_TRANSPORT : factory;
+    }
+
+    /**
+     * Nodes created afterwards read time in milliseconds from the clock, null restores the wall clock <br>
+     * Applies to the default storage engine as well, a custom storage engine factory must use the same clock
+     */
+    public static void setClock(LongSupplier clock) {
+        timeSource = clock == null ? System::currentTimeMillis : clock;
+    }
+
+    /**
+     * Maintenance of nodes created afterwards runs on the ticks of the ticker created by the factory,
+     * null restores the timer and worker threads of {@link MaintenanceScheduler}
+     */
+    public static void setMaintenanceTicker(Function<NodeReference, MaintenanceScheduler.Ticker> factory) {
+        tickerFactory = factory;
+    }
+
+    /**
+     * Nodes created afterwards draw random numbers from the supplied generator, null restores {@link ThreadLocalRandom}
+     */
+    public static void setRandom(Supplier<Random> random) {
+        randomSource = random == null ? ThreadLocalRandom::current : random;
+    }
+
 
     @VisibleForTesting
     public RoutingTable getRoutingTable() {
         return routingTable;
     }
 
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Channels of a node on {@link GrpcTransport}, null for other transports
+     */
+    @VisibleForTesting
+    public ChannelPool getChannelPool() {
+        return transport instanceof GrpcTransport ? ((GrpcTransport) transport).getChannelPool() : null;
+    }
+
+    @VisibleForTesting
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    /**
+     * Live view of the stored values decoded as UTF-8
+     */
     @VisibleForTesting
-    public Map<BigInteger, String> getLocalData() {
-        return localData;
+    public Map<Id, String> getLocalData() {
+        return Maps.transformValues(storage.asMap(), value -> new String(value, StandardCharsets.UTF_8));
+    }
+
+    public StorageEngine getStorage() {
+        return storage;
+    }
+
+    /**
+     * Queue depths and run counts of the maintenance tasks
+     */
+    public MaintenanceScheduler getMaintenance() {
+        return maintenance;
+    }
+
+    /**
+     * Number of node lookups done by republish sweeps, one per key-space region instead of one per key
+     */
+    public long getRepublishLookups() {
+        return republishLookups.get();
+    }
+
+    /**
+     * Number of STORE_BATCH calls sent by republish sweeps, at most one per destination node and sweep
+     */
+    public long getStoreBatchCalls() {
+        return storeBatchCalls.get();
+    }
+
+    /**
+     * Number of keys skipped by republish sweeps because another node stored them recently
+     */
+    public long getSuppressedRepublishes() {
+        return suppressedRepublishes.get();
+    }
+
+    /**
+     * Number of replicas evicted to stay within the storage capacity
+     */
+    public long getEvictedReplicas() {
+        return evictedReplicas.get();
+    }
+
+    /**
+     * Number of received STOREs refused because of the storage capacity or the sender quota
+     */
+    public long getRejectedStores() {
+        return rejectedStores.get();
+    }
+
+    /**
+     * Number of bucket refresh lookups, only idle buckets are refreshed
+     */
+    public long getBucketRefreshes() {
+        return bucketRefreshes.get();
     }
 
 
@@ -194,10 +651,13 @@ public class KademliaNode {
     public void initKademlia() throws IOException {
         startServer();
         startRefreshing();
+        startRepublishing();
+        startExpiring();
+        startChannelEviction();
     }
 
     private void startServer() throws IOException {
-        server.start();
+        transport.startServer(new KademliaNodeServer());
         logger.warn("[{}]  Server started, listening on {}", self, self.port);
     }
 
@@ -210,35 +670,36 @@ public class KademliaNode {
         logger.warn("[{}]  Initiated node shutdown!", self);
         stopServer();
         descheduleAll();
+        transport.shutdown();
+        storage.close();
     }
 
     public void stopServer() {
-        if (server != null) {
-            server.shutdownNow();
-            logger.warn("[{}]  Server stopped, listening on {}", self, self.port);
-        }
+        transport.stopServer();
+        logger.warn("[{}]  Server stopped, listening on {}", self, self.port);
     }
 
     /**
      * Schedule refresh for all K-buckets
      */
     private void startRefreshing() {
-        lockWrapper(() -> {
-            for (int i = 0; i < ID_LENGTH; i++) {
-                final int finalI = i;
-                ScheduledFuture<?> refreshTimer = executor.scheduleAtFixedRate(() -> refreshBucket(finalI), refreshInterval.toMillis(), refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
-                refreshTasks.put(i, refreshTimer);
-            }
-        });
+        maintenance.scheduleAsyncAtFixedRate(MaintenanceScheduler.Kind.REFRESH, this::refreshIdleBuckets, refreshInterval.dividedBy(4));
+    }
+
+    private void startRepublishing() {
+        maintenance.scheduleAsyncAtFixedRate(MaintenanceScheduler.Kind.REPUBLISH, this::republish, republishInterval);
+    }
+
+    private void startExpiring() {
+        maintenance.scheduleAtFixedRate(MaintenanceScheduler.Kind.EXPIRE, this::expireDue, expireTick);
+    }
+
+    private void startChannelEviction() {
+        maintenance.scheduleAtFixedRate(MaintenanceScheduler.Kind.CHANNELS, transport::evictIdle, channelIdleTimeout);
     }
 
     private void descheduleAll() {
-        lockWrapper(() -> {
-            republishTasks.forEach((k, v) -> v.cancel(true));
-            refreshTasks.forEach((k, v) -> v.cancel(true));
-            expireTasks.forEach((k, v) -> v.cancel(true));
-            executor.shutdownNow();
-        });
+        maintenance.shutdownNow();
     }
 
 
@@ -251,6 +712,20 @@ public class KademliaNode {
      * Finally, J will refresh all K-buckets further away than the B's K-bucket
      */
     public void join(NodeReference bootstrap) throws IOException {
+        try {
+            joinAsync(bootstrap).join();
+        } catch (CompletionException e) {
+            // failed prompt surfaces like a blocking call to the bootstrap node
+            if (e.getCause() instanceof StatusRuntimeException) throw (StatusRuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Same as {@link #join(NodeReference)}, but only starts the node and returns, never blocks the caller
+     * @return completes once the bucket refreshes finished
+     */
+    public CompletableFuture<Void> joinAsync(NodeReference bootstrap) throws IOException {
         initKademlia();
 
 //        logger.warn("[{}]  Joining KadNetwork!", self);
@@ -258,374 +733,932 @@ public class KademliaNode {
         insertIntoRoutingTable(bootstrap);
 
         // prompt bootstrap to do lookup for an ID
-        ManagedChannel channel = ManagedChannelBuilder.forTarget(bootstrap.getAddress()).usePlaintext().build();
-        Kademlia.LookupRequest request = Kademlia.LookupRequest.newBuilder()
-                .setTargetId(self.getId().toString())
-                .setJoiningNode(self.toProto())
-                .build();
+        int version = wireFormat.versionFor(bootstrap);
+        Kademlia.LookupRequest.Builder request = Kademlia.LookupRequest.newBuilder()
+                .setJoiningNode(wireFormat.self(version));
+        if (version >= WireFormat.V2)
+            request.setRawTargetId(WireFormat.encodeId(self.getId()));
+        else
+            request.setTargetId(self.getId().toString());
 
         logger.trace("[{}]  JOIN - prompting boostrap node [{}] for myId lookup", self, bootstrap);
-        Kademlia.LookupResponse response = KademliaServiceGrpc.newBlockingStub(channel).promptNodeLookup(request);
-        channel.shutdown();
+        CompletableFuture<Kademlia.LookupResponse> prompted = new CompletableFuture<>();
+        transport.promptNodeLookup(bootstrap, request.build(), 0, new StreamObserver<Kademlia.LookupResponse>() {
+            private Kademlia.LookupResponse response;
 
-        response.getFoundNodesList().forEach(n -> insertIntoRoutingTable(new NodeReference(n)));
+            @Override
+            public void onNext(Kademlia.LookupResponse response) {
+                this.response = response;
+            }
 
-        // refresh all KB further away than the B's KB (refresh = lookup for random id in bucket range)
-        // Note: some sources suggest to refresh all KB
-        int bootstrapIndex = routingTable.getBucketIndex(bootstrap.getId());
-        logger.trace("[{}]  JOIN - initiating refresh from {}th KB", self, bootstrapIndex);
-        for (int i = bootstrapIndex+1; i < ID_LENGTH; i++) {
-            refreshBucket(i);
-        }
-        logger.debug("[{}]  Joined KadNetwork!", self);
-    }
+            @Override
+            public void onError(Throwable throwable) {
+                transport.reportFailure(bootstrap);
+                prompted.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onCompleted() {
+                transport.reportSuccess(bootstrap);
+                prompted.complete(response);
+            }
+        });
+
+        return prompted.thenCompose(response -> {
+            wireFormat.learn(bootstrap, response.getProtocolVersion());
+
+            response.getFoundNodesList().forEach(n -> insertIntoRoutingTable(new NodeReference(n)));
+
+            // refresh all KB further away than the B's KB (refresh = lookup for random id in bucket range)
+            // Note: some sources suggest to refresh all KB
+            int bootstrapIndex = routingTable.getBucketIndex(bootstrap.getId());
+            logger.trace("[{}]  JOIN - initiating refresh from {}th KB", self, bootstrapIndex);
+            List<CompletableFuture<Void>> refreshes = new ArrayList<>();
+            for (int i = bootstrapIndex+1; i < ID_LENGTH; i++) {
+                refreshes.add(refreshBucket(i));
+            }
+            return CompletableFuture.allOf(refreshes.toArray(new CompletableFuture[0]));
+        }).thenRun(() -> logger.debug("[{}]  Joined KadNetwork!", self));
+    }
 
     /**
      * Locate K globally-closest nodes to the targetId <br>
-     * If joiningNode is not null, all nodes found during the lookup are returned
+     * If joiningNode is not null, it is announced to every queried node
      * @param joiningNode - node that is joining the network, null if it's a regular lookup
-     * @return List of nodes that were found during the lookup <br>
+     * @return future of K closest nodes that answered during the lookup, never blocks the caller <br>
      */
-    private List<NodeReference> nodeLookup(BigInteger targetId, Kademlia.NodeReference joiningNode) {
+    private CompletableFuture<List<NodeReference>> nodeLookup(Id targetId, NodeReference joiningNode) {
         logger.trace("[{}]  initiating nodeLookup", self);
 
         if (routingTable.getSize() == 0) {
             logger.trace("[{}]  My routing table is empty", self);
-            return new ArrayList<>();
+            return CompletableFuture.completedFuture(new ArrayList<>());
         }
 
-        Shortlist SL = new Shortlist(routingTable.findAlphaClosest(targetId));
-
-        while (SL.hasUnqueried()) {
-            multicastFindNode(SL, targetId, joiningNode);
-        }
-        SL.getOffline().forEach(routingTable::remove);
-
-        return SL.getKBestQueried(targetId, K_PARAMETER);
+        NodeLookup lookup = new NodeLookup(targetId, K_PARAMETER, ALPHA_PARAMETER, routingTable.findAlphaClosest(targetId),
+                recipient -> findNode(recipient, targetId, joiningNode));
+        return lookup.start();
     }
 
     /**
      *  Return K number of closest nodes to the given ID from the given colletion
      */
-    public List<NodeReference> selectKClosest(Collection<NodeReference> col, BigInteger targetId) {
+    public List<NodeReference> selectKClosest(Collection<NodeReference> col, Id targetId) {
         return col.stream()
-                .sorted(Comparator.comparing(node -> targetId.xor(node.getId())))
+                .sorted(NodeReference.byDistanceTo(targetId))
                 .limit(K_PARAMETER)
                 .collect(Collectors.toList());
     }
 
     /**
-     * Makes at most ALPHA concurrent calls (depends on the size of toQuery)
-     * Returns all nodes found during the lookup
+     * Single asynchronous FIND_NODE call, unresponsive recipient is removed from the routing table
      */
-    private void multicastFindNode(Shortlist SL, BigInteger targetId, Kademlia.NodeReference joiningNode) {
-        List<NodeReference> toQuery = SL.pollAlphaNodesForQuery();
-
-        CountDownLatch latch = new CountDownLatch(toQuery.size());
-        Set<NodeReference> fromRecipient = Collections.synchronizedSet(new HashSet<>());
-
-        for (NodeReference recipient : toQuery) {
-
-            ManagedChannel channel = ManagedChannelBuilder.forTarget(recipient.getAddress()).usePlaintext().build();
-            Kademlia.FindNodeRequest.Builder request = Kademlia.FindNodeRequest.newBuilder()
-                    .setTargetId(targetId.toString())
-                    .setSender(self.toProto());
-            if (joiningNode != null)
-                request.setJoiningNode(joiningNode);
-            KademliaServiceGrpc.newStub(channel).findNode(request.build(), new StreamObserver<Kademlia.FindNodeResponse>() {
-                @Override
-                public void onNext(Kademlia.FindNodeResponse findNodeResponse) {
-                    findNodeResponse.getKClosestList().stream().map(NodeReference::new).forEach(fromRecipient::add);
-                }
+    private CompletableFuture<List<NodeReference>> findNode(NodeReference recipient, Id targetId, NodeReference joiningNode) {
+        CompletableFuture<List<NodeReference>> future = new CompletableFuture<>();
+
+        int version = wireFormat.versionFor(recipient);
+        Kademlia.FindNodeRequest.Builder request = Kademlia.FindNodeRequest.newBuilder()
+                .setSender(wireFormat.self(version));
+        if (version >= WireFormat.V2)
+            request.setRawTargetId(WireFormat.encodeId(targetId));
+        else
+            request.setTargetId(targetId.toString());
+        if (joiningNode != null)
+            request.setJoiningNode(joiningNode.toProto(version));
+
+        List<NodeReference> fromRecipient = new ArrayList<>();
+        cancellable(future, () -> transport.findNode(recipient, request.build(), rpcTimeout.toMillis(), new StreamObserver<Kademlia.FindNodeResponse>() {
+            @Override
+            public void onNext(Kademlia.FindNodeResponse findNodeResponse) {
+                wireFormat.learn(recipient, findNodeResponse.getProtocolVersion());
+                findNodeResponse.getKClosestList().stream().map(NodeReference::new).forEach(fromRecipient::add);
+            }
 
-                @Override
-                public void onError(Throwable throwable) {
-                    if (throwable instanceof StatusRuntimeException) {
-                        StatusRuntimeException e = (StatusRuntimeException) throwable;
-                        if (e.getStatus().getCode() == Status.Code.UNAVAILABLE) {
-                            logger.error("[{}]  asyncFindNode: Node is unresponsive, will delete [{}]", self, recipient);
-                        } else {
-                            logger.error("[{}]  asyncFindNode: Unexpected code when contacting node [{}]: {}", self, recipient, e.getStatus());
-                        }
+            @Override
+            public void onError(Throwable throwable) {
+                if (future.isCancelled()) return;
+                if (throwable instanceof StatusRuntimeException) {
+                    StatusRuntimeException e = (StatusRuntimeException) throwable;
+                    if (e.getStatus().getCode() == Status.Code.UNAVAILABLE) {
+                        logger.error("[{}]  asyncFindNode: Node is unresponsive, will delete [{}]", self, recipient);
                     } else {
-                        logger.error("[{}]  asyncFindNode: Unexpected exception when contacting node [{}]: {}", self, recipient, throwable.toString());
+                        logger.error("[{}]  asyncFindNode: Unexpected code when contacting node [{}]: {}", self, recipient, e.getStatus());
                     }
-                    SL.addOffline(recipient);
-
-                    latch.countDown();
-                    channel.shutdown();
+                } else {
+                    logger.error("[{}]  asyncFindNode: Unexpected exception when contacting node [{}]: {}", self, recipient, throwable.toString());
                 }
+                transport.reportFailure(recipient);
+                routingTable.remove(recipient);
 
-                @Override
-                public void onCompleted() {
-                    insertIntoRoutingTable(recipient);
-
-                    latch.countDown();
-                    channel.shutdown();
-                }
-            });
-        }
+                future.completeExceptionally(throwable);
+            }
 
-        try {
-            latch.await();
-        } catch (InterruptedException e) {
-            logger.error("[{}]  Waiting for async calls interrupted during multiCast", self);
-        }
+            @Override
+            public void onCompleted() {
+                transport.reportSuccess(recipient);
+                insertIntoRoutingTable(recipient);
 
-        fromRecipient.forEach(SL::addToQuery);
+                future.complete(fromRecipient);
+            }
+        }));
+        return future;
     }
 
     /**
-     * Node becomes <b>original publisher</b> of the key. It is responsible for periodical republishing to the K-closest nodes. Nodes on which key was not republished in the last expireInterval will delete the key.
+     * Node becomes <b>original publisher</b> of the key. It is responsible for periodical republishing to the K-closest nodes. Nodes on which key was not republished in the last expireInterval will delete the key. <br>
+     * Blocks until the write quorum acknowledged, see {@link #putAsync(String, byte[])}. The value is stored as UTF-8.
      */
     public void put(String key, String value) {
-        BigInteger keyHash = getId(key);
+        put(key, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Same as {@link #put(String, String)} with a binary value, the array must not be modified afterwards
+     */
+    public void put(String key, byte[] value) {
+        putAsync(key, value).join();
+    }
+
+    /**
+     * Same as {@link #put(String, String)} with the remaining bytes of the buffer, its position is not changed
+     */
+    public void put(String key, ByteBuffer value) {
+        byte[] bytes = new byte[value.remaining()];
+        value.duplicate().get(bytes);
+        put(key, bytes);
+    }
+
+    public CompletableFuture<PutResult> putAsync(String key, String value) {
+        return putAsync(key, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Same as {@link #put(String, byte[])}, but completes once write quorum of the K-closest nodes acknowledged the STORE
+     * (by default all of them). Remaining STOREs continue in the background.
+     */
+    public CompletableFuture<PutResult> putAsync(String key, byte[] value) {
+        Id keyHash = getId(key);
 
         if (routingTable.getSize() == 0) {
-            lockWrapper(() -> {
-                localData.put(keyHash, value);
-                ScheduledFuture<?> expireTimer = executor.schedule(getExpireTask(keyHash), expireInterval.toMillis(), TimeUnit.MILLISECONDS);
-                expireTasks.put(keyHash, expireTimer);
-                ScheduledFuture<?> republishTimer = executor.scheduleAtFixedRate(getRepublishTask(key, keyHash, value), republishInterval.toMillis(), republishInterval.toMillis(), TimeUnit.MILLISECONDS);
-                republishTasks.put(keyHash, republishTimer);
-            });
-            return;
+            storage.put(keyHash, value, clock.getAsLong() + expireInterval.toMillis());
+            publishedData.put(keyHash, value);
+            return CompletableFuture.completedFuture(new PutResult(Collections.singletonList(self), 1));
         }
 
-        lockWrapper(() -> {
-            ScheduledFuture<?> republishTimer = executor.scheduleAtFixedRate(getRepublishTask(key, keyHash, value), republishInterval.toMillis(), republishInterval.toMillis(), TimeUnit.MILLISECONDS);
-            republishTasks.put(keyHash, republishTimer);
-        });
+        publishedData.put(keyHash, value);
 
-        Runnable republishTask = getRepublishTask(key, keyHash, value);
-        republishTask.run();
+        return nodeLookup(keyHash, null).thenCompose(kClosest -> {
+            logger.debug("[{}]  Storing key {} to k-closest: {}", self, key, kClosest);
+            return storeOnAll(kClosest, keyHash, value, getWriteQuorum());
+        });
     }
 
     /**
-     * Retrieve value associated with the key from the K-closest nodes to the keyhash
+     * STORE on every node, completes after writeQuorum (capped by the number of nodes) acknowledged or all of them finished
      */
-    public String get(String key) {
-        BigInteger keyHash = getId(key);
+    private CompletableFuture<PutResult> storeOnAll(List<NodeReference> nodes, Id keyHash, byte[] value, int writeQuorum) {
+        int quorum = Math.min(writeQuorum, nodes.size());
+        CompletableFuture<PutResult> result = new CompletableFuture<>();
+        if (nodes.isEmpty()) {
+            result.complete(new PutResult(new ArrayList<>(), 0));
+            return result;
+        }
 
-        if(routingTable.getSize() == 0) {
-            return lockGetWrapper(() -> localData.get(keyHash));
+        List<NodeReference> acknowledged = new ArrayList<>(nodes.size());
+        AtomicInteger remaining = new AtomicInteger(nodes.size());
+        for (NodeReference node : nodes) {
+            store(node, keyHash, value).whenComplete((ignored, throwable) -> {
+                PutResult done = null;
+                synchronized (acknowledged) {
+                    if (throwable == null) {
+                        acknowledged.add(node);
+                    }
+                    if (remaining.decrementAndGet() == 0 || acknowledged.size() >= quorum) {
+                        done = new PutResult(new ArrayList<>(acknowledged), quorum);
+                    }
+                }
+                if (done != null) {
+                    result.complete(done);
+                }
+            });
         }
+        return result;
+    }
+
+    /**
+     * Single asynchronous STORE call, unresponsive node is removed from the routing table <br>
+     * Values above the streaming threshold are sent to v3 nodes in chunks
+     */
+    private CompletableFuture<Void> store(NodeReference node, Id keyHash, byte[] value) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+
+        int version = wireFormat.versionFor(node);
+        StreamObserver<Kademlia.StoreResponse> responseObserver = new StreamObserver<Kademlia.StoreResponse>() {
+            private boolean rejected;
 
-        List<NodeReference> kClosest = nodeLookup(keyHash, null);
-        CountDownLatch latch = new CountDownLatch(kClosest.size());
-        ArrayList<String> arr = new ArrayList<>(kClosest.size());
-        logger.debug("[{}]  Retrieving key={} from k-closest: {}", self, key, kClosest);
+            @Override
+            public void onNext(Kademlia.StoreResponse storeResponse) {
+                wireFormat.learn(node, storeResponse.getProtocolVersion());
+                rejected = storeResponse.getStatus() == Kademlia.Status.REJECTED;
+            }
 
+            @Override
+            public void onError(Throwable throwable) {
+                logger.error("[{}]  STORE: Error while storing key[{}] on node[{}]: {}", self, keyHash, node, throwable.toString());
+                transport.reportFailure(node);
+                routingTable.remove(node);
+                future.completeExceptionally(throwable);
+            }
 
-        for(NodeReference node : kClosest) {
+            @Override
+            public void onCompleted() {
+                transport.reportSuccess(node);
+                insertIntoRoutingTable(node);
+                if (rejected) {
+                    // node is alive, it only has no room for the key
+                    logger.warn("[{}]  STORE: Node[{}] rejected key[{}]", self, node, keyHash);
+                    future.completeExceptionally(new IllegalStateException("STORE rejected by " + node));
+                } else {
+                    future.complete(null);
+                }
+            }
+        };
 
-            ManagedChannel channel = ManagedChannelBuilder.forTarget(node.getAddress()).usePlaintext().build();
-            Kademlia.RetrieveRequest.Builder request = Kademlia.RetrieveRequest.newBuilder()
-                    .setSender(self.toProto())
-                    .setKey(keyHash.toString());
+        if (version >= WireFormat.V3 && value.length > STREAMING_THRESHOLD) {
+            int chunkCount = (value.length + STREAM_CHUNK_BYTES - 1) / STREAM_CHUNK_BYTES;
+            // every chunk gets the time of a single call
+            transport.storeStream(node, rpcTimeout.toMillis() * chunkCount, new ClientResponseObserver<Kademlia.StoreChunk, Kademlia.StoreResponse>() {
+                private int offset = 0;
 
-            KademliaServiceGrpc.newStub(channel).retrieve(request.build(), new StreamObserver<Kademlia.RetrieveResponse>() {
+                /**
+                 * Chunks are sent only while the transport is ready and wrap slices of the value without copying,
+                 * so gRPC never buffers more than about one chunk of it
+                 */
                 @Override
-                public void onNext(Kademlia.RetrieveResponse response) {
-                    synchronized (arr) {
-                        arr.add(response.getValue());
-                    }
-                    latch.countDown();
+                public void beforeStart(ClientCallStreamObserver<Kademlia.StoreChunk> chunks) {
+                    chunks.setOnReadyHandler(() -> {
+                        while (chunks.isReady() && offset < value.length && !future.isDone()) {
+                            int length = Math.min(STREAM_CHUNK_BYTES, value.length - offset);
+                            Kademlia.StoreChunk.Builder chunk = Kademlia.StoreChunk.newBuilder()
+                                    .setData(UnsafeByteOperations.unsafeWrap(value, offset, length));
+                            if (offset == 0) {
+                                chunk.setRawKey(WireFormat.encodeId(keyHash))
+                                        .setSender(wireFormat.self(version))
+                                        .setTotalSize(value.length);
+                            }
+                            offset += length;
+                            chunks.onNext(chunk.build());
+                            if (offset == value.length) {
+                                chunks.onCompleted();
+                            }
+                        }
+                    });
                 }
 
                 @Override
-                public void onError(Throwable t) {
-                    latch.countDown();
-                    routingTable.remove(node);
-                    logger.error("[{}]  RETRIEVE: Error while finding node[{}]: {}, cause:", self, node, t.toString(), t.getCause());
-                    channel.shutdown();
+                public void onNext(Kademlia.StoreResponse storeResponse) {
+                    responseObserver.onNext(storeResponse);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    responseObserver.onError(throwable);
                 }
 
                 @Override
                 public void onCompleted() {
-                    insertIntoRoutingTable(node);
-                    channel.shutdown();
+                    responseObserver.onCompleted();
                 }
             });
+            return future;
         }
-        try {
-            latch.await();
-        } catch (InterruptedException e) {
-            logger.error("[{}]  Waiting for async calls interrupted", self, e);
-        }
-        return arr.stream().filter(Objects::nonNull).filter(s -> !s.isEmpty()).findFirst().orElse(null);
+
+        Kademlia.StoreRequest.Builder request = Kademlia.StoreRequest.newBuilder()
+                .setSender(wireFormat.self(version));
+        if (version >= WireFormat.V3)
+            request.setRawValue(ByteString.copyFrom(value));
+        else
+            request.setValue(WireFormat.legacyValue(ByteBuffer.wrap(value)));
+        if (version >= WireFormat.V2)
+            request.setRawKey(WireFormat.encodeId(keyHash));
+        else
+            request.setKey(keyHash.toString());
+
+        transport.store(node, request.build(), rpcTimeout.toMillis(), responseObserver);
+        return future;
     }
 
+    /**
+     * Retrieve value associated with the key, decoded as UTF-8, see {@link #getBytes(String)}
+     */
+    public String get(String key) {
+        byte[] value = getBytes(key);
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
 
     /**
-     * Delete key-value pair from the K-closest nodes to the keyhash. <br>
+     * Same as {@link #getBytes(String)}, wrapped in a read-only buffer
      */
-    public void delete(String key) {
-        BigInteger keyHash = getId(key);
+    public ByteBuffer getBuffer(String key) {
+        byte[] value = getBytes(key);
+        return value == null ? null : ByteBuffer.wrap(value).asReadOnlyBuffer();
+    }
+
+    /**
+     * Retrieve value associated with the key <br>
+     * FIND_VALUE lookup towards the keyhash, stops as soon as read quorum of nodes returned the value
+     * (by default the first one), remaining calls are cancelled
+     */
+    public byte[] getBytes(String key) {
+        return getBytesAsync(key).join();
+    }
+
+    /**
+     * Same as {@link #getBytes(String)}, completes with null if none of the nodes holds the key
+     */
+    public CompletableFuture<byte[]> getBytesAsync(String key) {
+        Id keyHash = getId(key);
 
         if(routingTable.getSize() == 0) {
-            lockWrapper(() -> localData.remove(keyHash));
-            return;
+            return CompletableFuture.completedFuture(storage.get(keyHash));
         }
 
-        List<NodeReference> kClosest = nodeLookup(keyHash, null);
-        logger.debug("[{}]  Deleting key={} from k-closest: {}", self, key, kClosest);
-        CountDownLatch latch = new CountDownLatch(kClosest.size());
+        logger.debug("[{}]  Looking up value of key={}", self, key);
+        NodeLookup lookup = NodeLookup.forValue(keyHash, K_PARAMETER, ALPHA_PARAMETER, Math.min(READ_QUORUM, K_PARAMETER), routingTable.findAlphaClosest(keyHash),
+                recipient -> findValue(recipient, keyHash));
+        return lookup.start().thenApply(closest -> lookup.getValue());
+    }
 
-        for (NodeReference node : kClosest) {
+    /**
+     * Single asynchronous FIND_VALUE call <br>
+     * v1 nodes do not know FIND_VALUE, they are asked with RETRIEVE and FIND_NODE instead.
+     * Value above the streaming threshold is fetched with RETRIEVE_STREAM afterwards.
+     */
+    private CompletableFuture<NodeLookup.Reply> findValue(NodeReference recipient, Id keyHash) {
+        int version = wireFormat.versionFor(recipient);
+        CompletableFuture<NodeLookup.Reply> future = new CompletableFuture<>();
+        if (version < WireFormat.V2) {
+            CompletableFuture<byte[]> value = retrieve(recipient, keyHash);
+            future.whenComplete((ignored, throwable) -> {
+                if (future.isCancelled()) value.cancel(true);
+            });
+            value.whenComplete((bytes, throwable) -> {
+                if (throwable != null) {
+                    future.completeExceptionally(throwable);
+                } else if (bytes != null) {
+                    future.complete(NodeLookup.Reply.value(bytes));
+                } else if (!future.isDone()) {
+                    CompletableFuture<List<NodeReference>> closer = findNode(recipient, keyHash, null);
+                    future.whenComplete((ignored, t) -> {
+                        if (future.isCancelled()) closer.cancel(true);
+                    });
+                    closer.whenComplete((nodes, t) -> {
+                        if (t != null) future.completeExceptionally(t);
+                        else future.complete(NodeLookup.Reply.closer(nodes));
+                    });
+                }
+            });
+            return future;
+        }
+
+        Kademlia.FindValueRequest request = Kademlia.FindValueRequest.newBuilder()
+                .setSender(wireFormat.self(version))
+                .setRawKey(WireFormat.encodeId(keyHash))
+                .build();
 
-            if (node.equals(self)){
-                deleteAndDeschedule(keyHash);
-                latch.countDown();
-                continue;
+        cancellable(future, () -> transport.findValue(recipient, request, rpcTimeout.toMillis(), new StreamObserver<Kademlia.FindValueResponse>() {
+            private NodeLookup.Reply reply;
+            private long size;
+
+            @Override
+            public void onNext(Kademlia.FindValueResponse response) {
+                wireFormat.learn(recipient, response.getProtocolVersion());
+                if (response.getStatus() == Kademlia.Status.SUCCESS && response.getStreamedSize() > 0) {
+                    size = response.getStreamedSize();
+                } else if (response.getStatus() == Kademlia.Status.SUCCESS) {
+                    reply = NodeLookup.Reply.value(WireFormat.decodeValue(response.getRawValue(), response.getValueBytes()));
+                } else {
+                    reply = NodeLookup.Reply.closer(response.getKClosestList().stream().map(NodeReference::new).collect(Collectors.toList()));
+                }
             }
 
-            ManagedChannel channel = ManagedChannelBuilder.forTarget(node.getAddress()).usePlaintext().build();
-            Kademlia.DeleteRequest.Builder request = Kademlia.DeleteRequest.newBuilder()
-                    .setKey(keyHash.toString())
-                    .setSender(self.toProto());
-            KademliaServiceGrpc.newStub(channel).delete(request.build(), new StreamObserver<Kademlia.DeleteResponse>() {
-                @Override
-                public void onNext(Kademlia.DeleteResponse deleteResponse) {/*do nothing when response*/}
+            @Override
+            public void onError(Throwable throwable) {
+                if (future.isCancelled()) return;
+                logger.error("[{}]  FIND_VALUE: Error while contacting node [{}]: {}", self, recipient, throwable.toString());
+                if (isTooLarge(throwable)) {
+                    future.completeExceptionally(throwable);
+                    return;
+                }
+                transport.reportFailure(recipient);
+                routingTable.remove(recipient);
+                future.completeExceptionally(throwable);
+            }
 
-                @Override
-                public void onError(Throwable throwable) {
-                    routingTable.remove(node);
-                    logger.error("[{}]  DELETE: Error while finding node[{}]: {}", self, node, throwable.toString());
-                    latch.countDown();
-                    channel.shutdown();
+            @Override
+            public void onCompleted() {
+                transport.reportSuccess(recipient);
+                insertIntoRoutingTable(recipient);
+                if (size == 0) {
+                    future.complete(reply);
+                    return;
                 }
+                CompletableFuture<byte[]> value = retrieveStream(recipient, keyHash, size);
+                future.whenComplete((ignored, throwable) -> {
+                    if (future.isCancelled()) value.cancel(true);
+                });
+                value.whenComplete((bytes, throwable) -> {
+                    if (throwable != null) future.completeExceptionally(throwable);
+                    // expired meanwhile
+                    else if (bytes == null) future.complete(NodeLookup.Reply.closer(Collections.emptyList()));
+                    else future.complete(NodeLookup.Reply.value(bytes));
+                });
+            }
+        }));
+        return future;
+    }
 
-                @Override
-                public void onCompleted() {
-                    insertIntoRoutingTable(node);
-                    latch.countDown();
-                    channel.shutdown();
+    /**
+     * Single asynchronous RETRIEVE_STREAM call (v3), completes with null if the node does not hold the key
+     * @param size value size announced by FIND_VALUE, every chunk gets the time of a single call
+     */
+    private CompletableFuture<byte[]> retrieveStream(NodeReference node, Id keyHash, long size) {
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        int version = wireFormat.versionFor(node);
+        Kademlia.RetrieveRequest request = Kademlia.RetrieveRequest.newBuilder()
+                .setSender(wireFormat.self(version))
+                .setRawKey(WireFormat.encodeId(keyHash))
+                .build();
+
+        long chunkCount = Math.max(1, (size + STREAM_CHUNK_BYTES - 1) / STREAM_CHUNK_BYTES);
+        cancellable(future, () -> transport.retrieveStream(node, request, rpcTimeout.toMillis() * chunkCount, new ClientResponseObserver<Kademlia.RetrieveRequest, Kademlia.RetrieveChunk>() {
+            private ClientCallStreamObserver<Kademlia.RetrieveRequest> call;
+            private boolean first = true;
+            private byte[] value;
+            private int received = 0;
+
+            @Override
+            public void beforeStart(ClientCallStreamObserver<Kademlia.RetrieveRequest> call) {
+                this.call = call;
+            }
+
+            @Override
+            public void onNext(Kademlia.RetrieveChunk chunk) {
+                if (future.isDone()) return;
+                if (first) {
+                    first = false;
+                    wireFormat.learn(node, chunk.getProtocolVersion());
+                    if (chunk.getStatus() != Kademlia.Status.SUCCESS) return;
+                    // size announced by the peer, checked before it is allocated
+                    if (chunk.getTotalSize() < 0 || chunk.getTotalSize() > MAX_VALUE_BYTES) {
+                        abort("announced " + chunk.getTotalSize() + " bytes, at most " + MAX_VALUE_BYTES + " accepted");
+                        return;
+                    }
+                    value = new byte[(int) chunk.getTotalSize()];
                 }
-            });
-        }
+                int size = chunk.getData().size();
+                if (value == null || size > value.length - received) {
+                    abort("sent more than the announced " + (value == null ? 0 : value.length) + " bytes");
+                    return;
+                }
+                chunk.getData().copyTo(value, received);
+                received += size;
+            }
 
-        try {
-            latch.await();
-        } catch (InterruptedException e) {
-            logger.error("[{}]  Waiting for async calls interrupted", self, e);
+            private void abort(String reason) {
+                logger.warn("[{}]  RETRIEVE_STREAM: Node [{}] {}", self, node, reason);
+                future.completeExceptionally(new IllegalStateException("RETRIEVE_STREAM from " + node + " " + reason));
+                call.cancel(reason, null);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                if (future.isDone()) return;
+                logger.error("[{}]  RETRIEVE_STREAM: Error while contacting node [{}]: {}", self, node, throwable.toString());
+                transport.reportFailure(node);
+                future.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onCompleted() {
+                if (future.isDone()) return;
+                transport.reportSuccess(node);
+                if (value != null && received != value.length) {
+                    future.completeExceptionally(new IllegalStateException("Received " + received + " of " + value.length + " bytes"));
+                } else {
+                    future.complete(value);
+                }
+            }
+        }));
+        return future;
+    }
+
+    /**
+     * Run the call in its own cancellable context: cancelling the future (e.g. lookup finished early) cancels the call
+     */
+    private static void cancellable(CompletableFuture<?> future, Runnable call) {
+        Context.CancellableContext context = Context.ROOT.withCancellation();
+        // calls started from callbacks of this one run in its context, so it is only cancelled together with the future
+        future.whenComplete((result, throwable) -> {
+            if (future.isCancelled()) context.cancel(null);
+        });
+        context.run(call);
+    }
+
+    /**
+     * Single asynchronous RETRIEVE call, completes with null if the node does not hold the key
+     */
+    private CompletableFuture<byte[]> retrieve(NodeReference node, Id keyHash) {
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+
+        int version = wireFormat.versionFor(node);
+        Kademlia.RetrieveRequest.Builder request = Kademlia.RetrieveRequest.newBuilder()
+                .setSender(wireFormat.self(version));
+        if (version >= WireFormat.V2)
+            request.setRawKey(WireFormat.encodeId(keyHash));
+        else
+            request.setKey(keyHash.toString());
+
+        cancellable(future, () -> transport.retrieve(node, request.build(), rpcTimeout.toMillis(), new StreamObserver<Kademlia.RetrieveResponse>() {
+            private byte[] value;
+
+            @Override
+            public void onNext(Kademlia.RetrieveResponse response) {
+                wireFormat.learn(node, response.getProtocolVersion());
+                if (response.getStatus() == Kademlia.Status.SUCCESS) {
+                    value = WireFormat.decodeValue(response.getRawValue(), response.getValueBytes());
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                if (future.isCancelled()) return;
+                logger.error("[{}]  RETRIEVE: Error while contacting node[{}]: {}", self, node, t.toString());
+                if (isTooLarge(t)) {
+                    future.completeExceptionally(t);
+                    return;
+                }
+                transport.reportFailure(node);
+                routingTable.remove(node);
+                future.completeExceptionally(t);
+            }
+
+            @Override
+            public void onCompleted() {
+                transport.reportSuccess(node);
+                insertIntoRoutingTable(node);
+                future.complete(value);
+            }
+        }));
+        return future;
+    }
+
+
+    /**
+     * Delete key-value pair from the K-closest nodes to the keyhash. <br>
+     */
+    public void delete(String key) {
+        deleteAsync(key).join();
+    }
+
+    /**
+     * Same as {@link #delete(String)}, completes once every one of the K-closest nodes answered or failed
+     */
+    public CompletableFuture<Void> deleteAsync(String key) {
+        Id keyHash = getId(key);
+        publishedData.remove(keyHash);
+
+        if(routingTable.getSize() == 0) {
+            deleteAndDeschedule(keyHash);
+            return CompletableFuture.completedFuture(null);
         }
+
+        return nodeLookup(keyHash, null).thenCompose(kClosest -> {
+            logger.debug("[{}]  Deleting key={} from k-closest: {}", self, key, kClosest);
+            CompletableFuture<?>[] deletes = kClosest.stream()
+                    // failures are logged and reported to the transport, the other nodes still delete the key
+                    .map(node -> delete(node, keyHash).exceptionally(throwable -> null))
+                    .toArray(CompletableFuture[]::new);
+            return CompletableFuture.allOf(deletes);
+        });
     }
 
+    /**
+     * Single asynchronous DELETE call, unresponsive node is removed from the routing table
+     */
+    private CompletableFuture<Void> delete(NodeReference node, Id keyHash) {
+        if (node.equals(self)) {
+            deleteAndDeschedule(keyHash);
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+
+        int version = wireFormat.versionFor(node);
+        Kademlia.DeleteRequest.Builder request = Kademlia.DeleteRequest.newBuilder()
+                .setSender(wireFormat.self(version));
+        if (version >= WireFormat.V2)
+            request.setRawKey(WireFormat.encodeId(keyHash));
+        else
+            request.setKey(keyHash.toString());
+        transport.delete(node, request.build(), rpcTimeout.toMillis(), new StreamObserver<Kademlia.DeleteResponse>() {
+            @Override
+            public void onNext(Kademlia.DeleteResponse deleteResponse) {
+                wireFormat.learn(node, deleteResponse.getProtocolVersion());
+            }
 
-    ////  Utility methods  ////
+            @Override
+            public void onError(Throwable throwable) {
+                logger.error("[{}]  DELETE: Error while deleting key[{}] on node[{}]: {}", self, keyHash, node, throwable.toString());
+                transport.reportFailure(node);
+                routingTable.remove(node);
+                future.completeExceptionally(throwable);
+            }
 
-    private Runnable getRepublishTask(String key, BigInteger keyHash, String value) {
-        return () -> {
-            List<NodeReference> kClosest = nodeLookup(keyHash, null);
-            CountDownLatch latch = new CountDownLatch(kClosest.size());
+            @Override
+            public void onCompleted() {
+                transport.reportSuccess(node);
+                insertIntoRoutingTable(node);
+                future.complete(null);
+            }
+        });
+        return future;
+    }
 
-            logger.debug("[{}]  Asynchronously republishing key {} to k-closest: {}", self, key, kClosest);
 
-            for (NodeReference node : kClosest) {
-                ManagedChannel channel = ManagedChannelBuilder.forTarget(node.getAddress()).usePlaintext().build();
-                Kademlia.StoreRequest request = Kademlia.StoreRequest.newBuilder()
-                        .setKey(keyHash.toString())
-                        .setValue(value)
-                        .setSender(self.toProto())
-                        .build();
-                KademliaServiceGrpc.newStub(channel).store(request, new StreamObserver<Kademlia.StoreResponse>() {
+    /**
+     * Full k-bucket received a new node: keep its least-recently seen node unless it fails to answer a ping
+     */
+    private void pingLeastRecentlySeen(NodeReference node) {
+        logger.trace("[{}]  Bucket full, pinging least-recently seen [{}]", self, node);
+        int version = wireFormat.versionFor(node);
+        Kademlia.PingRequest request = Kademlia.PingRequest.newBuilder()
+                .setSender(wireFormat.self(version))
+                .build();
+        transport.ping(node, request, pingTimeout.toMillis(), new StreamObserver<Kademlia.PingResponse>() {
                     @Override
-                    public void onNext(Kademlia.StoreResponse storeResponse) {}
+                    public void onNext(Kademlia.PingResponse response) {
+                        wireFormat.learn(node, response.getProtocolVersion());
+                    }
+
                     @Override
                     public void onError(Throwable throwable) {
-                        logger.error("[{}]  republish: Error while storing key[{}] on node[{}]: {}", self, keyHash, node, throwable.toString());
-                        routingTable.remove(node);
-                        latch.countDown();
-                        channel.shutdown();
+                        Status.Code code = Status.fromThrowable(throwable).getCode();
+                        if (code == Status.Code.UNAVAILABLE || code == Status.Code.DEADLINE_EXCEEDED) {
+                            logger.trace("[{}]  Least-recently seen [{}] did not answer ping, evicting", self, node);
+                            transport.reportFailure(node);
+                            routingTable.pingResult(node, false);
+                        } else {
+                            // node answered, although with an error (e.g. v1 node without ping)
+                            routingTable.pingResult(node, true);
+                        }
                     }
+
                     @Override
                     public void onCompleted() {
-                        insertIntoRoutingTable(node);
-                        latch.countDown();
-                        channel.shutdown();
+                        transport.reportSuccess(node);
+                        routingTable.pingResult(node, true);
                     }
                 });
-            }
-
-            try {
-                latch.await();
-            } catch (InterruptedException e) {
-                logger.error("[{}]  Waiting for async calls interrupted", self, e);
-            }
-        };
     }
 
-    private Runnable getExpireTask(BigInteger keyHash) {
-        return () -> {
-            logger.trace("[{}]  Key[{}] expired!", self, keyHash);
-            lockWrapper(() ->localData.remove(keyHash));
-        };
+    ////  Utility methods  ////
+
+    /**
+     * Republish every published key in one sweep, except keys another node stored recently <br>
+     * Keys are visited in ID order, one lookup serves all keys of its key-space region (see {@link #collectRegions}),
+     * all keys headed to the same node are then sent in a single STORE_BATCH.
+     * Traffic of a sweep grows with the number of regions and destination nodes, not with the number of keys.
+     * @return completes once every batch was answered
+     */
+    @VisibleForTesting
+    public CompletableFuture<Void> republish() {
+        long refreshedAfter = clock.getAsLong() - republishInterval.toMillis();
+        TreeMap<Id, byte[]> keys = new TreeMap<>();
+        publishedData.forEach((key, value) -> {
+            Long received = lastStoreReceived.get(key);
+            if (received != null && received > refreshedAfter) {
+                suppressedRepublishes.incrementAndGet();
+            } else {
+                keys.put(key, value);
+            }
+        });
+        Map<NodeReference, Map<Id, byte[]>> batches = new HashMap<>();
+
+        return collectRegions(keys, batches).thenCompose(ignored -> {
+            logger.debug("[{}]  Republishing {} keys in {} batches", self, keys.size(), batches.size());
+            CompletableFuture<?>[] sent = batches.entrySet().stream()
+                    .map(batch -> storeBatch(batch.getKey(), batch.getValue()).handle((result, throwable) -> null))
+                    .toArray(CompletableFuture[]::new);
+            return CompletableFuture.allOf(sent);
+        });
     }
 
-    private void deleteAndDeschedule(BigInteger keyhash) {
-        lockWrapper(() -> {
-            localData.remove(keyhash);
-            expireTasks.get(keyhash).cancel(true);
+    /**
+     * Look up the first remaining key and assign the K closest nodes to every key of its region <br>
+     * The region is the part of the key space that shares the prefix of the looked up key above the highest bit
+     * in which the key differs from the farthest node found. All nodes closer to such keys than that bit
+     * were found by the lookup, the routing table completes the candidates. Repeats until no key is left.
+     */
+    private CompletableFuture<Void> collectRegions(NavigableMap<Id, byte[]> remaining, Map<NodeReference, Map<Id, byte[]>> batches) {
+        if (remaining.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Id target = remaining.firstKey();
+        republishLookups.incrementAndGet();
+
+        return nodeLookup(target, null).thenCompose(found -> {
+            // fewer than K nodes found: they are all there is, every key belongs to the region
+            int radius = found.size() < K_PARAMETER
+                    ? ID_LENGTH
+                    : Math.max(0, target.highestDifferingBit(found.get(found.size() - 1).getId()));
+
+            Iterator<Map.Entry<Id, byte[]>> it = remaining.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Id, byte[]> entry = it.next();
+                // keys are sorted, the region is contiguous
+                if (target.highestDifferingBit(entry.getKey()) >= radius) break;
+
+                // the publisher may be among the closest as well, it is returned by other nodes but is not in its own table
+                Set<NodeReference> candidates = new HashSet<>(found);
+                candidates.addAll(routingTable.findKClosest(entry.getKey()));
+                candidates.add(self);
+                for (NodeReference node : selectKClosest(candidates, entry.getKey())) {
+                    batches.computeIfAbsent(node, n -> new HashMap<>()).put(entry.getKey(), entry.getValue());
+                }
+                it.remove();
+            }
+            return collectRegions(remaining, batches);
         });
     }
 
     /**
-     * Insert into K-bucket, postpone its refresh task
+     * Single asynchronous STORE_BATCH call, v1 nodes receive one STORE per key instead,
+     * values above the streaming threshold are streamed on their own
      */
-    private void insertIntoRoutingTable(NodeReference node) {
-        int bucketIndex = routingTable.getBucketIndex(node.getId());
-        routingTable.insert(node);
+    private CompletableFuture<Void> storeBatch(NodeReference node, Map<Id, byte[]> entries) {
+        int version = wireFormat.versionFor(node);
+        if (version < WireFormat.V2) {
+            return CompletableFuture.allOf(entries.entrySet().stream()
+                    .map(entry -> store(node, entry.getKey(), entry.getValue()))
+                    .toArray(CompletableFuture[]::new));
+        }
+
+        List<CompletableFuture<Void>> streamed = new ArrayList<>();
+        Kademlia.StoreBatchRequest.Builder request = Kademlia.StoreBatchRequest.newBuilder()
+                .setSender(wireFormat.self(version));
+        entries.forEach((key, value) -> {
+            if (version >= WireFormat.V3 && value.length > STREAMING_THRESHOLD) {
+                streamed.add(store(node, key, value));
+                return;
+            }
+            Kademlia.Entry.Builder entry = Kademlia.Entry.newBuilder().setRawKey(WireFormat.encodeId(key));
+            if (version >= WireFormat.V3)
+                entry.setRawValue(ByteString.copyFrom(value));
+            else
+                entry.setValue(WireFormat.legacyValue(ByteBuffer.wrap(value)));
+            request.addEntries(entry);
+        });
+        if (request.getEntriesCount() == 0) {
+            return CompletableFuture.allOf(streamed.toArray(new CompletableFuture[0]));
+        }
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        streamed.add(future);
+        storeBatchCalls.incrementAndGet();
 
-        lockWrapper(() -> {
-            refreshTasks.get(bucketIndex).cancel(false);
-            try {
-                ScheduledFuture<?> refreshTimer = executor.scheduleAtFixedRate(() -> refreshBucket(bucketIndex), refreshInterval.toMillis(), refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
-                refreshTasks.replace(bucketIndex, refreshTimer);
-            } catch (RejectedExecutionException e) {
-                if (executor.isShutdown()) {
-                    logger.error("[{}]  Cannot schedule bucket refresh, node seems to be shut-down: {}", self, e.toString());
+        transport.storeBatch(node, request.build(), rpcTimeout.toMillis(), new StreamObserver<Kademlia.StoreBatchResponse>() {
+            private int rejected;
+
+            @Override
+            public void onNext(Kademlia.StoreBatchResponse response) {
+                wireFormat.learn(node, response.getProtocolVersion());
+                if (response.getStatus() == Kademlia.Status.REJECTED) {
+                    rejected = request.getEntriesCount() - response.getStored();
                 }
-                if (executor.isTerminated()) {
-                    logger.error("[{}]  Cannot schedule bucket refresh, node seems to be terminated: {}", self, e.toString());
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                logger.error("[{}]  STORE_BATCH: Error while storing {} keys on node[{}]: {}", self, entries.size(), node, throwable.toString());
+                transport.reportFailure(node);
+                routingTable.remove(node);
+                future.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onCompleted() {
+                transport.reportSuccess(node);
+                insertIntoRoutingTable(node);
+                if (rejected > 0) {
+                    logger.warn("[{}]  STORE_BATCH: Node[{}] rejected {} of {} keys", self, node, rejected, request.getEntriesCount());
+                    future.completeExceptionally(new IllegalStateException("STORE_BATCH rejected by " + node));
+                } else {
+                    future.complete(null);
                 }
             }
         });
+        return CompletableFuture.allOf(streamed.toArray(new CompletableFuture[0]));
     }
 
     /**
-     * Just a wrapper to avoid retyping annoying reentrant lock block
+     * Store a value received in STORE, STORE_BATCH or STORE_STREAM, the storage engine may refuse it
+     * @return false if the value was refused
      */
-    private void lockWrapper(Runnable action) {
-        lock.lock();
-        try {
-            action.run();
-        } finally {
-            lock.unlock();
+    private boolean storeReceived(Id key, byte[] value, NodeReference sender, long now) {
+        // new -> schedule, already contains -> reschedule
+        if (!storage.put(key, value, now + expireInterval.toMillis(), sender)) {
+            rejectedStores.incrementAndGet();
+            logger.debug("[{}]  STORE of key {} ({} bytes) from [{}] rejected", self, key, value.length, sender);
+            return false;
+        }
+        if (!sender.equals(self) && publishedData.containsKey(key)) {
+            lastStoreReceived.put(key, now);
         }
+        return true;
     }
 
-    private String lockGetWrapper(Supplier<String> supplier) {
-        lock.lock();
-        try {
-            return supplier.get();
-        } finally {
-            lock.unlock();
+    /**
+     * Drop all keys whose expiration came due, the storage engine keeps keys that were stored again meanwhile
+     */
+    private void expireDue() {
+        List<Id> expired = storage.expire(clock.getAsLong());
+        if (!expired.isEmpty()) {
+            expired.forEach(lastStoreReceived::remove);
+            logger.trace("[{}]  Keys {} expired!", self, expired);
+        }
+    }
+
+    /**
+     * @return true if the key was stored
+     */
+    private boolean deleteAndDeschedule(Id keyhash) {
+        lastStoreReceived.remove(keyhash);
+        return storage.delete(keyhash);
+    }
+
+    /**
+     * Insert into K-bucket, the bucket records the contact and postpones its refresh <br>
+     * Takes no node-wide lock and touches no scheduler, the routing table only locks the bucket
+     */
+    private void insertIntoRoutingTable(NodeReference node) {
+        routingTable.insert(node);
+    }
+
+    /**
+     * Refresh every bucket without contact in the last refreshInterval, the lookups run in parallel <br>
+     * A refreshed bucket counts as active from the start of its lookup, so the next sweep does not repeat it.
+     * @return completes with the number of refreshed buckets once all lookups finished
+     */
+    @VisibleForTesting
+    public CompletableFuture<Integer> refreshIdleBuckets() {
+        long now = clock.getAsLong();
+        List<CompletableFuture<Void>> refreshes = new ArrayList<>();
+        for (int i = 0; i < ID_LENGTH; i++) {
+            KBucket bucket = routingTable.getKBucket(i);
+            if (now - bucket.getLastActivity() >= refreshInterval.toMillis()) {
+                bucket.touch(now);
+                refreshes.add(refreshBucket(i).exceptionally(throwable -> {
+                    logger.warn("[{}]  Bucket refresh failed: {}", self, throwable.toString());
+                    return null;
+                }));
+            }
+        }
+        if (!refreshes.isEmpty()) {
+            logger.trace("[{}]  Refreshing {} idle buckets", self, refreshes.size());
         }
+        int count = refreshes.size();
+        return CompletableFuture.allOf(refreshes.toArray(new CompletableFuture[0])).thenApply(ignored -> count);
     }
 
-    private void refreshBucket(int index) {
+    private CompletableFuture<Void> refreshBucket(int index) {
         logger.trace("[{}]  Refreshing bucket {}", self, index);
-        nodeLookup(randomWithinBucket(index), null).forEach(this::insertIntoRoutingTable);
+        bucketRefreshes.incrementAndGet();
+        return nodeLookup(randomWithinBucket(self.getId(), index, random.get()), null).thenAccept(found -> found.forEach(this::insertIntoRoutingTable));
     }
 
-    private BigInteger getBestDistance(Collection<NodeReference> collection, BigInteger targetId) {
+    private Id getBestDistance(Collection<NodeReference> collection, Id targetId) {
         return collection.stream()
                 .map(n -> targetId.xor(n.getId()))
                 .min(Comparator.naturalOrder())
                 .orElse(null);
     }
 
+    /**
+     * Value does not fit into a single response message, only RETRIEVE_STREAM of v3 nodes can transfer it
+     */
+    private static StatusRuntimeException valueTooLarge(int bytes) {
+        return Status.RESOURCE_EXHAUSTED
+                .withDescription("Value of " + bytes + " bytes exceeds the message limit of " + MAX_MESSAGE_BYTES + " bytes")
+                .asRuntimeException();
+    }
+
+    /**
+     * Node answered, but the value was too large for a single message, it must stay in the routing table
+     */
+    private static boolean isTooLarge(Throwable throwable) {
+        return Status.fromThrowable(throwable).getCode() == Status.Code.RESOURCE_EXHAUSTED;
+    }
+
     ////////////////////////////////
     ///  SERVER-SIDE PROCESSING  ///
     ////////////////////////////////
@@ -641,16 +1674,26 @@ public class KademliaNode {
         @Override
         public void promptNodeLookup(Kademlia.LookupRequest request, StreamObserver<Kademlia.LookupResponse> responseObserver) {
             NodeReference joiningNode = new NodeReference(request.getJoiningNode());
+            wireFormat.learn(joiningNode, request.getJoiningNode().getProtocolVersion());
+            int version = wireFormat.versionFor(request.getJoiningNode());
             logger.trace("[{}]  Node lookup initiated from [{}]", self, joiningNode);
 
-            List<NodeReference> kClosest = nodeLookup(new BigInteger(request.getTargetId()), request.getJoiningNode());
-            insertIntoRoutingTable(joiningNode); // break the "insert most recently contacted" rule to not query the joining node
+            Id targetId = WireFormat.decodeId(request.getRawTargetId(), request.getTargetId());
+            nodeLookup(targetId, joiningNode).whenComplete((kClosest, throwable) -> {
+                if (throwable != null) {
+                    logger.error("[{}]  Node lookup for [{}] failed: {}", self, joiningNode, throwable.toString());
+                    responseObserver.onError(Status.INTERNAL.withCause(throwable).asRuntimeException());
+                    return;
+                }
+                insertIntoRoutingTable(joiningNode); // break the "insert most recently contacted" rule to not query the joining node
 
-            Kademlia.LookupResponse.Builder response = Kademlia.LookupResponse.newBuilder()
-                    .addAllFoundNodes(kClosest.stream().map(NodeReference::toProto).collect(Collectors.toList()));
+                Kademlia.LookupResponse.Builder response = Kademlia.LookupResponse.newBuilder()
+                        .setProtocolVersion(wireFormat.getLocalVersion())
+                        .addAllFoundNodes(kClosest.stream().map(n -> n.toProto(version)).collect(Collectors.toList()));
 
-            responseObserver.onNext(response.build());
-            responseObserver.onCompleted();
+                responseObserver.onNext(response.build());
+                responseObserver.onCompleted();
+            });
         }
 
         /**
@@ -658,32 +1701,149 @@ public class KademliaNode {
          */
         @Override
         public void store(Kademlia.StoreRequest request, StreamObserver<Kademlia.StoreResponse> responseObserver) {
-            insertIntoRoutingTable(new NodeReference(request.getSender()));
-            logger.trace("[{}]  Received STORE rpc from {}", self, request.getSender().getPort());
-
-            BigInteger key = new BigInteger(request.getKey());
-            String value = request.getValue();
-
-            lockWrapper(() -> {
-                if (!localData.containsKey(key)) {
-                    // new -> schedule
-                    localData.put(key, value);
-                    ScheduledFuture<?> expireTimer = executor.schedule(getExpireTask(key), expireInterval.toMillis(), TimeUnit.MILLISECONDS);
-                    expireTasks.put(key, expireTimer);
+            NodeReference sender = new NodeReference(request.getSender());
+            wireFormat.learn(sender, request.getSender().getProtocolVersion());
+            insertIntoRoutingTable(sender);
+            logger.trace("[{}]  Received STORE rpc from {}", self, sender.getPort());
+
+            Id key = WireFormat.decodeId(request.getRawKey(), request.getKey());
+            byte[] value = WireFormat.decodeValue(request.getRawValue(), request.getValueBytes());
+
+            boolean stored = storeReceived(key, value, sender, clock.getAsLong());
+
+            responseObserver.onNext(Kademlia.StoreResponse.newBuilder()
+                    .setStatus(stored ? Kademlia.Status.SUCCESS : Kademlia.Status.REJECTED)
+                    .setProtocolVersion(wireFormat.getLocalVersion())
+                    .build());
+            responseObserver.onCompleted();
+        }
+
+        /**
+         * Several STOREs in one call, every key gets a new expiration
+         */
+        @Override
+        public void storeBatch(Kademlia.StoreBatchRequest request, StreamObserver<Kademlia.StoreBatchResponse> responseObserver) {
+            NodeReference sender = new NodeReference(request.getSender());
+            wireFormat.learn(sender, request.getSender().getProtocolVersion());
+            insertIntoRoutingTable(sender);
+            logger.trace("[{}]  Received STORE_BATCH rpc with {} keys from {}", self, request.getEntriesCount(), sender.getPort());
+
+            long now = clock.getAsLong();
+            int stored = 0;
+            for (Kademlia.Entry entry : request.getEntriesList()) {
+                Id key = WireFormat.decodeId(entry.getRawKey(), entry.getKey());
+                if (storeReceived(key, WireFormat.decodeValue(entry.getRawValue(), entry.getValueBytes()), sender, now)) {
+                    stored++;
                 }
-                else {
-                    // already contains -> reschedule
-                    if (!localData.get(key).equals(value)) {
-                        localData.replace(key, value);
+            }
+
+            responseObserver.onNext(Kademlia.StoreBatchResponse.newBuilder()
+                    .setStatus(stored == request.getEntriesCount() ? Kademlia.Status.SUCCESS : Kademlia.Status.REJECTED)
+                    .setStored(stored)
+                    .setProtocolVersion(wireFormat.getLocalVersion())
+                    .build());
+            responseObserver.onCompleted();
+        }
+
+        /**
+         * STORE of a value above the streaming threshold, the first chunk carries key, sender and total size
+         */
+        @Override
+        public StreamObserver<Kademlia.StoreChunk> storeStream(StreamObserver<Kademlia.StoreResponse> responseObserver) {
+            return new StreamObserver<Kademlia.StoreChunk>() {
+                private NodeReference sender;
+                private Id key;
+                private byte[] value;
+                private int received = 0;
+
+                /**
+                 * Response was sent (error or rejection), the rest of the stream is ignored
+                 */
+                private boolean finished = false;
+
+                @Override
+                public void onNext(Kademlia.StoreChunk chunk) {
+                    if (finished) return;
+                    if (value == null && !accept(chunk)) return;
+                    if (chunk.getData().size() > value.length - received) {
+                        fail("Chunks exceed the total size");
+                        return;
                     }
-                    expireTasks.get(key).cancel(true);
-                    ScheduledFuture<?> expireTimer = executor.schedule(getExpireTask(key), expireInterval.toMillis(), TimeUnit.MILLISECONDS);
-                    expireTasks.replace(key, expireTimer);
+                    chunk.getData().copyTo(value, received);
+                    received += chunk.getData().size();
                 }
-            });
 
-            responseObserver.onNext(Kademlia.StoreResponse.newBuilder().setStatus(Kademlia.Status.SUCCESS).build());
-            responseObserver.onCompleted();
+                /**
+                 * Validate the first chunk, check capacity and sender quota before the value is allocated
+                 * @return false if the response was already sent
+                 */
+                private boolean accept(Kademlia.StoreChunk first) {
+                    long totalSize = first.getTotalSize();
+                    if (first.getRawKey().isEmpty() || !first.hasSender()) {
+                        fail("First chunk must carry key and sender");
+                        return false;
+                    }
+                    if (totalSize <= 0 || totalSize > MAX_VALUE_BYTES) {
+                        fail("Total size must be between 1 and " + MAX_VALUE_BYTES + " bytes");
+                        return false;
+                    }
+                    try {
+                        sender = new NodeReference(first.getSender());
+                        key = WireFormat.decodeId(first.getRawKey(), "");
+                    } catch (RuntimeException e) {
+                        fail("Malformed first chunk: " + e);
+                        return false;
+                    }
+                    wireFormat.learn(sender, first.getSender().getProtocolVersion());
+                    if (!storage.accepts(key, totalSize, sender)) {
+                        rejectedStores.incrementAndGet();
+                        logger.debug("[{}]  STORE_STREAM of key {} ({} bytes) from [{}] rejected", self, key, totalSize, sender);
+                        finished = true;
+                        responseObserver.onNext(Kademlia.StoreResponse.newBuilder()
+                                .setStatus(Kademlia.Status.REJECTED)
+                                .setProtocolVersion(wireFormat.getLocalVersion())
+                                .build());
+                        responseObserver.onCompleted();
+                        return false;
+                    }
+                    value = new byte[(int) totalSize];
+                    return true;
+                }
+
+                private void fail(String description) {
+                    finished = true;
+                    value = null;
+                    logger.warn("[{}]  STORE_STREAM from [{}] refused: {}", self, sender, description);
+                    responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(description).asRuntimeException());
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    finished = true;
+                    value = null;
+                    logger.warn("[{}]  STORE_STREAM from [{}] aborted: {}", self, sender, throwable.toString());
+                }
+
+                @Override
+                public void onCompleted() {
+                    if (finished) return;
+                    if (value == null || received != value.length) {
+                        fail("Incomplete value");
+                        return;
+                    }
+                    finished = true;
+                    insertIntoRoutingTable(sender);
+                    logger.trace("[{}]  Received STORE_STREAM of {} bytes from {}", self, value.length, sender.getPort());
+
+                    boolean stored = storeReceived(key, value, sender, clock.getAsLong());
+
+                    responseObserver.onNext(Kademlia.StoreResponse.newBuilder()
+                            .setStatus(stored ? Kademlia.Status.SUCCESS : Kademlia.Status.REJECTED)
+                            .setProtocolVersion(wireFormat.getLocalVersion())
+                            .build());
+                    responseObserver.onCompleted();
+                }
+            };
         }
 
         /**
@@ -691,24 +1851,40 @@ public class KademliaNode {
          */
         @Override
         public void retrieve(Kademlia.RetrieveRequest request, StreamObserver<Kademlia.RetrieveResponse> responseObserver) {
-            insertIntoRoutingTable(new NodeReference(request.getSender()));
+            NodeReference sender = new NodeReference(request.getSender());
+            wireFormat.learn(sender, request.getSender().getProtocolVersion());
+            insertIntoRoutingTable(sender);
+            int version = wireFormat.versionFor(request.getSender());
 
-            BigInteger key = new BigInteger(request.getKey());
-            String value = lockGetWrapper(() ->localData.get(key));
+            Id key = WireFormat.decodeId(request.getRawKey(), request.getKey());
 
-            Kademlia.RetrieveResponse response;
-            if (value == null) {
-                response = Kademlia.RetrieveResponse.newBuilder()
-                        .setStatus(Kademlia.Status.NOT_FOUND)
-                        .build();
-            } else {
-                response = Kademlia.RetrieveResponse.newBuilder()
+            // sent while the engine holds the value, it is serialized straight from the engine's memory
+            int[] tooLarge = {0};
+            boolean found = storage.read(key, value -> {
+                Kademlia.RetrieveResponse.Builder response = Kademlia.RetrieveResponse.newBuilder()
                         .setStatus(Kademlia.Status.SUCCESS)
-                        .setValue(value)
-                        .build();
+                        .setProtocolVersion(wireFormat.getLocalVersion());
+                if (version >= WireFormat.V3)
+                    response.setRawValue(UnsafeByteOperations.unsafeWrap(value));
+                else
+                    response.setValue(WireFormat.legacyValue(value));
+                Kademlia.RetrieveResponse built = response.build();
+                if (built.getSerializedSize() > MAX_MESSAGE_BYTES) {
+                    tooLarge[0] = value.remaining();
+                    return;
+                }
+                responseObserver.onNext(built);
+            });
+            if (tooLarge[0] > 0) {
+                responseObserver.onError(valueTooLarge(tooLarge[0]));
+                return;
+            }
+            if (!found) {
+                responseObserver.onNext(Kademlia.RetrieveResponse.newBuilder()
+                        .setStatus(Kademlia.Status.NOT_FOUND)
+                        .setProtocolVersion(wireFormat.getLocalVersion())
+                        .build());
             }
-
-            responseObserver.onNext(response);
             responseObserver.onCompleted();
         }
 
@@ -720,23 +1896,21 @@ public class KademliaNode {
 //            logger.trace("[{}]  Received FIND_NODE rpc", self);
 //            insertIntoRoutingTable(new NodeReference(request.getSender()));
 
-            BigInteger targetId = new BigInteger(request.getTargetId());
+            int version = wireFormat.versionFor(request.getSender());
+            Id targetId = WireFormat.decodeId(request.getRawTargetId(), request.getTargetId());
             List<NodeReference> kClosest = routingTable.findKClosest(targetId);
 //            logger.trace("[{}]  Out of all my nodes {}, returning k closest: {} nodes to {}", self, routingTable.buckets, kClosest, targetId);
 
-            insertIntoRoutingTable(new NodeReference(request.getSender()));
+            NodeReference sender = new NodeReference(request.getSender());
+            wireFormat.learn(sender, request.getSender().getProtocolVersion());
+            insertIntoRoutingTable(sender);
             if (request.hasJoiningNode()) {
                 insertIntoRoutingTable(new NodeReference(request.getJoiningNode()));
             }
 
-            Kademlia.FindNodeResponse.Builder response = Kademlia.FindNodeResponse.newBuilder();
-            kClosest.forEach(node -> {
-                Kademlia.NodeReference.Builder nodeBuilder = Kademlia.NodeReference.newBuilder()
-                        .setIp(node.getIp())
-                        .setPort(node.getPort())
-                        .setId(node.getId().toString());
-                response.addKClosest(nodeBuilder);
-            });
+            Kademlia.FindNodeResponse.Builder response = Kademlia.FindNodeResponse.newBuilder()
+                    .setProtocolVersion(wireFormat.getLocalVersion());
+            kClosest.forEach(node -> response.addKClosest(node.toProto(version)));
 
 //            logger.trace("[{}]  Sending FIND_NODE response", self);
 
@@ -744,22 +1918,121 @@ public class KademliaNode {
             responseObserver.onCompleted();
         }
 
+        /**
+         * Recipient returns the value if it holds the key, k nodes it knows about closest to the key otherwise
+         */
+        @Override
+        public void findValue(Kademlia.FindValueRequest request, StreamObserver<Kademlia.FindValueResponse> responseObserver) {
+            NodeReference sender = new NodeReference(request.getSender());
+            wireFormat.learn(sender, request.getSender().getProtocolVersion());
+            int version = wireFormat.versionFor(request.getSender());
+
+            Id key = WireFormat.decodeId(request.getRawKey(), "");
+
+            int[] tooLarge = {0};
+            boolean found = storage.read(key, value -> {
+                Kademlia.FindValueResponse.Builder response = Kademlia.FindValueResponse.newBuilder()
+                        .setStatus(Kademlia.Status.SUCCESS)
+                        .setProtocolVersion(wireFormat.getLocalVersion());
+                if (version < WireFormat.V3)
+                    response.setValue(WireFormat.legacyValue(value));
+                else if (value.remaining() > STREAMING_THRESHOLD)
+                    response.setStreamedSize(value.remaining());
+                else
+                    response.setRawValue(UnsafeByteOperations.unsafeWrap(value));
+                Kademlia.FindValueResponse built = response.build();
+                if (built.getSerializedSize() > MAX_MESSAGE_BYTES) {
+                    tooLarge[0] = value.remaining();
+                    return;
+                }
+                responseObserver.onNext(built);
+            });
+            if (tooLarge[0] > 0) {
+                insertIntoRoutingTable(sender);
+                responseObserver.onError(valueTooLarge(tooLarge[0]));
+                return;
+            }
+            if (!found) {
+                Kademlia.FindValueResponse.Builder response = Kademlia.FindValueResponse.newBuilder()
+                        .setStatus(Kademlia.Status.NOT_FOUND)
+                        .setProtocolVersion(wireFormat.getLocalVersion());
+                routingTable.findKClosest(key).forEach(node -> response.addKClosest(node.toProto(version)));
+                responseObserver.onNext(response.build());
+            }
+            insertIntoRoutingTable(sender);
+            responseObserver.onCompleted();
+        }
+
+        /**
+         * Value in chunks of the configured size, a single NOT_FOUND chunk if the key is not stored <br>
+         * The value is copied out of the engine at once, so that no engine lock is held while a slow reader receives it.
+         * Chunks are sent only while the transport is ready, like STORE_STREAM on the client side,
+         * so gRPC never buffers more than about one chunk of it.
+         */
+        @Override
+        public void retrieveStream(Kademlia.RetrieveRequest request, StreamObserver<Kademlia.RetrieveChunk> responseObserver) {
+            NodeReference sender = new NodeReference(request.getSender());
+            wireFormat.learn(sender, request.getSender().getProtocolVersion());
+            insertIntoRoutingTable(sender);
+
+            Id key = WireFormat.decodeId(request.getRawKey(), request.getKey());
+
+            byte[] value = storage.get(key);
+            if (value == null) {
+                responseObserver.onNext(Kademlia.RetrieveChunk.newBuilder()
+                        .setStatus(Kademlia.Status.NOT_FOUND)
+                        .setProtocolVersion(wireFormat.getLocalVersion())
+                        .build());
+                responseObserver.onCompleted();
+                return;
+            }
+
+            ServerCallStreamObserver<Kademlia.RetrieveChunk> chunks = (ServerCallStreamObserver<Kademlia.RetrieveChunk>) responseObserver;
+            chunks.setOnCancelHandler(() -> logger.debug("[{}]  RETRIEVE_STREAM to [{}] cancelled", self, sender));
+            chunks.setOnReadyHandler(new Runnable() {
+                private int offset = 0;
+                private boolean done = false;
+
+                @Override
+                public void run() {
+                    while (!done && chunks.isReady() && !chunks.isCancelled()) {
+                        int length = Math.min(STREAM_CHUNK_BYTES, value.length - offset);
+                        Kademlia.RetrieveChunk.Builder chunk = Kademlia.RetrieveChunk.newBuilder()
+                                .setData(UnsafeByteOperations.unsafeWrap(value, offset, length));
+                        if (offset == 0) {
+                            chunk.setStatus(Kademlia.Status.SUCCESS)
+                                    .setTotalSize(value.length)
+                                    .setProtocolVersion(wireFormat.getLocalVersion());
+                        }
+                        offset += length;
+                        chunks.onNext(chunk.build());
+                        if (offset == value.length) {
+                            done = true;
+                            chunks.onCompleted();
+                        }
+                    }
+                }
+            });
+        }
+
         @Override
         public void delete(Kademlia.DeleteRequest request, StreamObserver<Kademlia.DeleteResponse> responseObserver) {
-            insertIntoRoutingTable(new NodeReference(request.getSender()));
+            NodeReference sender = new NodeReference(request.getSender());
+            wireFormat.learn(sender, request.getSender().getProtocolVersion());
+            insertIntoRoutingTable(sender);
 
-            BigInteger key = new BigInteger(request.getKey());
-            String value = lockGetWrapper(() -> localData.get(key));
+            Id key = WireFormat.decodeId(request.getRawKey(), request.getKey());
 
             Kademlia.DeleteResponse response;
-            if (value == null) {
+            if (!deleteAndDeschedule(key)) {
                 response = Kademlia.DeleteResponse.newBuilder()
                         .setStatus(Kademlia.Status.NOT_FOUND)
+                        .setProtocolVersion(wireFormat.getLocalVersion())
                         .build();
             } else {
-                deleteAndDeschedule(key);
                 response = Kademlia.DeleteResponse.newBuilder()
                         .setStatus(Kademlia.Status.SUCCESS)
+                        .setProtocolVersion(wireFormat.getLocalVersion())
                         .build();
             }
 
@@ -768,8 +2041,17 @@ public class KademliaNode {
         }
 
         @Override
-        public void ping(Kademlia.Empty request, StreamObserver<Kademlia.Empty> responseObserver) {
-            super.ping(request, responseObserver);
+        public void ping(Kademlia.PingRequest request, StreamObserver<Kademlia.PingResponse> responseObserver) {
+            if (request.hasSender()) {
+                NodeReference sender = new NodeReference(request.getSender());
+                wireFormat.learn(sender, request.getSender().getProtocolVersion());
+                insertIntoRoutingTable(sender);
+            }
+
+            responseObserver.onNext(Kademlia.PingResponse.newBuilder()
+                    .setProtocolVersion(wireFormat.getLocalVersion())
+                    .build());
+            responseObserver.onCompleted();
         }
     }
 
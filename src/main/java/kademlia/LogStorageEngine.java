@@ -0,0 +1,496 @@
+package kademlia;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Durable {@link StorageEngine} on an append-only log <br>
+ * Every PUT and DELETE is appended to the active segment file, an in-memory index points to the latest record of every key,
+ * values are read from the file. The active segment is sealed once it exceeds segmentBytes. <br>
+ * Compaction (in the background every compactionInterval) copies the live records of all sealed segments to the log tail
+ * once at least half of their bytes are garbage, then deletes the sealed segments oldest first, together with their tombstones. <br>
+ * On open, segments are replayed oldest first: keys come back with their original deadline, i.e. with their remaining TTL,
+ * keys that expired meanwhile are skipped. A torn record at the end of a segment (crash during append) is truncated. <br>
+ * Appends reach the OS immediately, segments are forced to disk when sealed and on {@link #close()}. <br>
+ * A thread interrupted during file I/O makes the JDK close the segment's shared channel, the channel is then reopened
+ * and the operation retried with the interrupt flag restored afterwards.
+ */
+public class LogStorageEngine implements StorageEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogStorageEngine.class);
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+
+    /**
+     * crc(4) type(1) key(20) expiresAt(8) valueLength(4), followed by the value
+     */
+    private static final int HEADER_BYTES = 4 + 1 + Id.BYTES + 8 + 4;
+
+    private static final String SUFFIX = ".log";
+
+    private static final double MAX_GARBAGE_RATIO = 0.5;
+
+    private static final class Segment {
+        final long id;
+        final Path path;
+
+        /**
+         * Replaced under the engine lock when an interrupt closed it
+         */
+        volatile FileChannel channel;
+
+        /**
+         * Guarded by the engine
+         */
+        long size;
+        long liveBytes;
+
+        Segment(long id, Path path, FileChannel channel) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+        }
+    }
+
+    private static final class Location {
+        final Segment segment;
+        final long offset;
+        final int length;
+        final long expiresAt;
+
+        Location(Segment segment, long offset, int length, long expiresAt) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final Map<Id, Location> index = new ConcurrentHashMap<>();
+    private final TimingWheel<Id> expirations;
+    private final ScheduledExecutorService compactor;
+
+    /**
+     * Held by a running compaction, background and explicit compactions do not overlap
+     */
+    private final Object compaction = new Object();
+
+    private interface ChannelOperation<T> {
+        T apply(FileChannel channel) throws IOException;
+    }
+
+    /**
+     * Guarded by this, ordered oldest first
+     */
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private Segment active;
+    private boolean closed = false;
+
+    /**
+     * 4 MB segments, compaction every minute
+     */
+    public LogStorageEngine(Path directory, Duration expireTick, int wheelSlots) throws IOException {
+        this(directory, expireTick, wheelSlots, 4 << 20, Duration.ofMinutes(1));
+    }
+
+    /**
+     * Open the log in the directory (created if missing) and recover its keys
+     */
+    public LogStorageEngine(Path directory, Duration expireTick, int wheelSlots, long segmentBytes, Duration compactionInterval) throws IOException {
+        this(directory, expireTick, wheelSlots, segmentBytes, compactionInterval, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock time the expiration deadlines are given in, records expired by now are dropped during recovery
+     */
+    public LogStorageEngine(Path directory, Duration expireTick, int wheelSlots, long segmentBytes, Duration compactionInterval,
+                            LongSupplier clock) throws IOException {
+        if (segmentBytes < HEADER_BYTES) {
+            throw new IllegalArgumentException("Segment must hold at least one record header of " + HEADER_BYTES + " bytes");
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        long now = clock.getAsLong();
+        this.expirations = new TimingWheel<>(expireTick, wheelSlots, now);
+
+        Files.createDirectories(directory);
+        recover(now);
+
+        this.compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "log-compactor-" + directory.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = compactionInterval.toMillis();
+        compactor.scheduleWithFixedDelay(this::compactInBackground, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public byte[] get(Id key) {
+        while (true) {
+            Location location = index.get(key);
+            if (location == null) return null;
+            try {
+                return readValue(location);
+            } catch (ClosedChannelException e) {
+                // segment was compacted away meanwhile, the index already points to the copy
+                if (index.get(key) == location) throw new UncheckedIOException("Storage is closed", e);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Override
+    public void put(Id key, byte[] value, long expiresAtMillis) {
+        synchronized (this) {
+            replace(key, append(PUT, key, expiresAtMillis, value));
+        }
+        expirations.schedule(key, expiresAtMillis);
+    }
+
+    @Override
+    public synchronized boolean delete(Id key) {
+        expirations.cancel(key);
+        Location previous = index.remove(key);
+        if (previous == null) return false;
+        previous.segment.liveBytes -= previous.length;
+        // tombstone shadows the previous record until compaction drops both
+        append(DELETE, key, 0, new byte[0]);
+        return true;
+    }
+
+    @Override
+    public void scan(BiConsumer<Id, byte[]> visitor) {
+        for (Id key : index.keySet()) {
+            byte[] value = get(key);
+            if (value != null) visitor.accept(key, value);
+        }
+    }
+
+    /**
+     * Expired keys are only dropped from the index, their records become garbage for compaction
+     */
+    @Override
+    public List<Id> expire(long nowMillis) {
+        List<Id> expired = new ArrayList<>();
+        for (Id key : expirations.advance(nowMillis)) {
+            synchronized (this) {
+                Location location = index.get(key);
+                if (location != null && location.expiresAt <= nowMillis) {
+                    index.remove(key);
+                    location.segment.liveBytes -= location.length;
+                    expired.add(key);
+                }
+            }
+        }
+        return expired;
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public Map<Id, byte[]> asMap() {
+        return new StorageMapView(this, () -> index.keySet().iterator());
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Copy live records of all sealed segments to the log tail and delete the sealed segments,
+     * unless less than half of their bytes are garbage
+     * @return true if the segments were compacted
+     */
+    public boolean compact() throws IOException {
+        synchronized (compaction) {
+            return compactSealed();
+        }
+    }
+
+    private boolean compactSealed() throws IOException {
+        List<Segment> sealed;
+        synchronized (this) {
+            sealed = new ArrayList<>(segments.headMap(active.id).values());
+            long size = 0, live = 0;
+            for (Segment segment : sealed) {
+                size += segment.size;
+                live += segment.liveBytes;
+            }
+            if (sealed.isEmpty() || size - live < size * MAX_GARBAGE_RATIO) return false;
+        }
+
+        Set<Segment> compacted = Collections.newSetFromMap(new IdentityHashMap<>());
+        compacted.addAll(sealed);
+        for (Map.Entry<Id, Location> entry : index.entrySet()) {
+            Location location = entry.getValue();
+            if (!compacted.contains(location.segment)) continue;
+            byte[] value = readValue(location);
+            synchronized (this) {
+                // skip keys overwritten or removed while the value was read
+                if (index.get(entry.getKey()) == location) {
+                    replace(entry.getKey(), append(PUT, entry.getKey(), location.expiresAt, value));
+                }
+            }
+        }
+
+        synchronized (this) {
+            io(active, channel -> {
+                channel.force(false);
+                return null;
+            });
+            // oldest first, a crash in between never leaves a record without the tombstone that shadows it
+            for (Segment segment : sealed) {
+                segments.remove(segment.id);
+                segment.channel.close();
+                Files.delete(segment.path);
+            }
+        }
+        logger.debug("Compacted {} segments in {}", sealed.size(), directory);
+        return true;
+    }
+
+    @Override
+    public void close() {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            closed = true;
+            for (Segment segment : segments.values()) {
+                try {
+                    if (segment == active) segment.channel.force(false);
+                    segment.channel.close();
+                } catch (IOException e) {
+                    logger.error("Cannot close segment {}: {}", segment.path, e.toString());
+                }
+            }
+        }
+    }
+
+    private void compactInBackground() {
+        try {
+            compact();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Compaction of {} failed: {}", directory, e.toString());
+        }
+    }
+
+    ////  Log  ////
+
+    /**
+     * Replay all segments oldest first, the newest one becomes the active segment
+     */
+    private synchronized void recover(long now) throws IOException {
+        List<Long> ids = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.matches("\\d+" + SUFFIX))
+                    .forEach(name -> ids.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length()))));
+        }
+        ids.sort(Long::compare);
+
+        for (long id : ids) {
+            Segment segment = openSegment(id);
+            replay(segment, now);
+        }
+        if (segments.isEmpty()) {
+            active = openSegment(0);
+        } else {
+            active = segments.lastEntry().getValue();
+        }
+        index.forEach((key, location) -> expirations.schedule(key, location.expiresAt));
+        logger.debug("Recovered {} keys from {} segments in {}", index.size(), segments.size(), directory);
+    }
+
+    private void replay(Segment segment, long now) throws IOException {
+        FileChannel channel = segment.channel;
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        byte[] keyBytes = new byte[Id.BYTES];
+
+        while (position + HEADER_BYTES <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            header.flip();
+            int crc = header.getInt();
+            byte type = header.get();
+            header.get(keyBytes);
+            long expiresAt = header.getLong();
+            int valueLength = header.getInt();
+            if ((type != PUT && type != DELETE) || valueLength < 0 || position + HEADER_BYTES + valueLength > size) break;
+
+            ByteBuffer value = ByteBuffer.allocate(valueLength);
+            readFully(channel, value, position + HEADER_BYTES);
+            CRC32 check = new CRC32();
+            check.update(header.array(), 4, HEADER_BYTES - 4);
+            check.update(value.array(), 0, valueLength);
+            if ((int) check.getValue() != crc) break;
+
+            Id key = Id.fromBytes(keyBytes);
+            int length = HEADER_BYTES + valueLength;
+            Location previous = index.remove(key);
+            if (previous != null) {
+                previous.segment.liveBytes -= previous.length;
+            }
+            if (type == PUT && expiresAt > now) {
+                index.put(key, new Location(segment, position, length, expiresAt));
+                segment.liveBytes += length;
+            }
+            position += length;
+        }
+
+        if (position < size) {
+            logger.warn("Truncating torn record at {} of {}", position, segment.path);
+            channel.truncate(position);
+        }
+        segment.size = position;
+    }
+
+    /**
+     * Guarded by this
+     */
+    private Location append(byte type, Id key, long expiresAt, byte[] value) {
+        try {
+            if (active.size >= segmentBytes) {
+                io(active, channel -> {
+                    channel.force(false);
+                    return null;
+                });
+                active = openSegment(active.id + 1);
+            }
+            ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + value.length);
+            record.putInt(0).put(type).put(key.toBytes(Id.BYTES)).putLong(expiresAt).putInt(value.length).put(value);
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 4, record.capacity() - 4);
+            record.putInt(0, (int) crc.getValue());
+            record.flip();
+
+            long offset = active.size;
+            io(active, channel -> {
+                // a retry writes the whole record again at the same offset
+                record.rewind();
+                while (record.hasRemaining()) {
+                    channel.write(record, offset + record.position());
+                }
+                return null;
+            });
+            active.size += record.capacity();
+            return new Location(active, offset, record.capacity(), expiresAt);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Guarded by this
+     */
+    private void replace(Id key, Location location) {
+        Location previous = index.put(key, location);
+        if (previous != null) {
+            previous.segment.liveBytes -= previous.length;
+        }
+        location.segment.liveBytes += location.length;
+    }
+
+    private Segment openSegment(long id) throws IOException {
+        Path path = directory.resolve(id + SUFFIX);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(id, path, channel);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private byte[] readValue(Location location) throws IOException {
+        return io(location.segment, channel -> {
+            ByteBuffer value = ByteBuffer.allocate(location.length - HEADER_BYTES);
+            readFully(channel, value, location.offset + HEADER_BYTES);
+            return value.array();
+        });
+    }
+
+    /**
+     * Run the operation on the segment's channel, reopen the channel and retry if an interrupt closed it <br>
+     * The interrupt flag is cleared for the retry and restored before returning.
+     * @throws ClosedChannelException if the segment was compacted away or the engine is closed
+     */
+    private <T> T io(Segment segment, ChannelOperation<T> operation) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                FileChannel channel = segment.channel;
+                try {
+                    return operation.apply(channel);
+                } catch (ClosedChannelException e) {
+                    // ClosedByInterruptException in the interrupted thread, AsynchronousCloseException in the others
+                    if (e instanceof ClosedByInterruptException) {
+                        interrupted |= Thread.interrupted();
+                    }
+                    if (!reopen(segment, channel)) throw e;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Replace the channel closed by an interrupt, unless another thread did so already
+     * @return false if the segment is gone, its channel was closed on purpose
+     */
+    private synchronized boolean reopen(Segment segment, FileChannel broken) throws IOException {
+        if (closed || segments.get(segment.id) != segment) return false;
+        if (segment.channel == broken) {
+            logger.warn("Reopening {} closed by an interrupted thread", segment.path);
+            segment.channel = FileChannel.open(segment.path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        return true;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of segment");
+            }
+        }
+    }
+}
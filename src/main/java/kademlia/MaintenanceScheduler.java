@@ -0,0 +1,307 @@
+package kademlia;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Periodic maintenance of a node: a single timer thread only enqueues runs, a bounded pool of workers executes them <br>
+ * Queued runs are ordered by {@link Kind} (expiration first, republishing last), then by the time they were queued. <br>
+ * Runs of one kind never overlap: a task returning a future counts as running until the future completes,
+ * a tick that comes while the previous run is still queued or running is skipped.
+ * So a slow republish sweep delays neither expirations nor bucket refreshes, and does not pile up behind itself. <br>
+ * A run still going after its run timeout is abandoned: the next tick starts a new run and the late completion
+ * of the old one is ignored, so a future that never completes cannot stop its kind for good. <br>
+ * A scheduler created with a {@link Ticker} has no threads: runs execute on the thread that ticks, e.g. a simulation.
+ */
+public class MaintenanceScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(MaintenanceScheduler.class);
+
+    /**
+     * Declaration order is the priority
+     */
+    public enum Kind {
+        EXPIRE,
+        CHANNELS,
+        REFRESH,
+        REPUBLISH
+    }
+
+    /**
+     * Source of the ticks, a timer thread of the scheduler by default
+     */
+    public interface Ticker {
+
+        /**
+         * Call the tick every period, the first time one period from now
+         */
+        void scheduleAtFixedRate(Runnable tick, long periodMillis);
+
+        /**
+         * No tick is called afterwards
+         */
+        void stop();
+    }
+
+    /**
+     * Run timeout of tasks scheduled without one: four periods, at least a minute
+     */
+    private static final int DEFAULT_TIMEOUT_PERIODS = 4;
+    private static final Duration MIN_DEFAULT_TIMEOUT = Duration.ofMinutes(1);
+
+    private final class Run implements Runnable, Comparable<Run> {
+        final Kind kind;
+        final long sequence;
+        final Supplier<? extends CompletionStage<?>> task;
+        final AtomicBoolean finished = new AtomicBoolean();
+        volatile boolean started = false;
+
+        /**
+         * Ticks of the kind since the run started, only touched by the ticking thread
+         */
+        int ticks = 0;
+
+        Run(Kind kind, long sequence, Supplier<? extends CompletionStage<?>> task) {
+            this.kind = kind;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            queued.get(kind).decrementAndGet();
+            running.get(kind).incrementAndGet();
+            started = true;
+            CompletionStage<?> stage;
+            try {
+                stage = task.get();
+            } catch (RuntimeException e) {
+                stage = failed(e);
+            }
+            stage.whenComplete((result, throwable) -> {
+                if (!finished.compareAndSet(false, true)) {
+                    logger.warn("[{}]  {} run completed after its timeout", name, kind);
+                    return;
+                }
+                if (throwable != null) {
+                    logger.warn("[{}]  {} run failed: {}", name, kind, throwable.toString());
+                }
+                completed.get(kind).incrementAndGet();
+                running.get(kind).decrementAndGet();
+                busy.get(kind).set(false);
+            });
+        }
+
+        /**
+         * Count a tick, abandon the run once it has been running for the given number of ticks
+         * @return true if the run was abandoned and its kind is free again
+         */
+        boolean timeOut(long timeoutTicks) {
+            if (!started || ++ticks < timeoutTicks || !finished.compareAndSet(false, true)) {
+                return false;
+            }
+            logger.warn("[{}]  {} run timed out, starting a new one", name, kind);
+            timedOut.get(kind).incrementAndGet();
+            running.get(kind).decrementAndGet();
+            busy.get(kind).set(false);
+            return true;
+        }
+
+        @Override
+        public int compareTo(Run other) {
+            int byKind = kind.compareTo(other.kind);
+            return byKind != 0 ? byKind : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final String name;
+    private final Ticker ticker;
+
+    /**
+     * Executes the runs, null if they execute on the ticking thread
+     */
+    private final ThreadPoolExecutor workers;
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Map<Kind, AtomicBoolean> busy = new EnumMap<>(Kind.class);
+    private final Map<Kind, AtomicReference<Run>> current = new EnumMap<>(Kind.class);
+    private final Map<Kind, AtomicInteger> queued = new EnumMap<>(Kind.class);
+    private final Map<Kind, AtomicInteger> running = new EnumMap<>(Kind.class);
+    private final Map<Kind, AtomicLong> completed = new EnumMap<>(Kind.class);
+    private final Map<Kind, AtomicLong> skipped = new EnumMap<>(Kind.class);
+    private final Map<Kind, AtomicLong> timedOut = new EnumMap<>(Kind.class);
+
+    /**
+     * @param name prefix of the thread names
+     * @param workerThreads size of the worker pool
+     */
+    public MaintenanceScheduler(String name, int workerThreads) {
+        this(name, timerThread(name), workers(name, workerThreads));
+    }
+
+    /**
+     * Runs execute on the ticking thread, one after another
+     */
+    public MaintenanceScheduler(String name, Ticker ticker) {
+        this(name, ticker, null);
+    }
+
+    private MaintenanceScheduler(String name, Ticker ticker, ThreadPoolExecutor workers) {
+        this.name = name;
+        this.ticker = ticker;
+        this.workers = workers;
+        for (Kind kind : Kind.values()) {
+            busy.put(kind, new AtomicBoolean());
+            current.put(kind, new AtomicReference<>());
+            queued.put(kind, new AtomicInteger());
+            running.put(kind, new AtomicInteger());
+            completed.put(kind, new AtomicLong());
+            skipped.put(kind, new AtomicLong());
+            timedOut.put(kind, new AtomicLong());
+        }
+    }
+
+    public void scheduleAtFixedRate(Kind kind, Runnable task, Duration period) {
+        scheduleAsyncAtFixedRate(kind, () -> {
+            task.run();
+            return CompletableFuture.completedFuture(null);
+        }, period);
+    }
+
+    /**
+     * The run lasts until the returned stage completes, no other run of the kind starts meanwhile <br>
+     * Run timeout is four periods, at least a minute
+     */
+    public void scheduleAsyncAtFixedRate(Kind kind, Supplier<? extends CompletionStage<?>> task, Duration period) {
+        Duration timeout = period.multipliedBy(DEFAULT_TIMEOUT_PERIODS);
+        scheduleAsyncAtFixedRate(kind, task, period, timeout.compareTo(MIN_DEFAULT_TIMEOUT) < 0 ? MIN_DEFAULT_TIMEOUT : timeout);
+    }
+
+    /**
+     * @param runTimeout a run is abandoned at the first tick after it has been running this long
+     */
+    public void scheduleAsyncAtFixedRate(Kind kind, Supplier<? extends CompletionStage<?>> task, Duration period, Duration runTimeout) {
+        long millis = Math.max(1, period.toMillis());
+        long timeoutTicks = Math.max(1, (runTimeout.toMillis() + millis - 1) / millis);
+        ticker.scheduleAtFixedRate(() -> enqueue(kind, task, timeoutTicks), millis);
+    }
+
+    private void enqueue(Kind kind, Supplier<? extends CompletionStage<?>> task, long timeoutTicks) {
+        Run previous = current.get(kind).get();
+        if (previous != null) {
+            previous.timeOut(timeoutTicks);
+        }
+        if (!busy.get(kind).compareAndSet(false, true)) {
+            skipped.get(kind).incrementAndGet();
+            return;
+        }
+        queued.get(kind).incrementAndGet();
+        Run run = new Run(kind, sequence.incrementAndGet(), task);
+        current.get(kind).set(run);
+        if (workers == null) {
+            run.run();
+            return;
+        }
+        try {
+            workers.execute(run);
+        } catch (RuntimeException e) {
+            // rejected after shutdown
+            queued.get(kind).decrementAndGet();
+            busy.get(kind).set(false);
+        }
+    }
+
+    /**
+     * Runs of the kind waiting for a worker, at most one
+     */
+    public int getQueueDepth(Kind kind) {
+        return queued.get(kind).get();
+    }
+
+    /**
+     * Runs waiting for a worker, all kinds together
+     */
+    public int getQueueDepth() {
+        return workers == null ? 0 : workers.getQueue().size();
+    }
+
+    public int getRunning(Kind kind) {
+        return running.get(kind).get();
+    }
+
+    public long getCompleted(Kind kind) {
+        return completed.get(kind).get();
+    }
+
+    /**
+     * Ticks dropped because the previous run of the kind had not finished yet
+     */
+    public long getSkipped(Kind kind) {
+        return skipped.get(kind).get();
+    }
+
+    /**
+     * Runs abandoned because they were still going after their run timeout
+     */
+    public long getTimedOut(Kind kind) {
+        return timedOut.get(kind).get();
+    }
+
+    public void shutdownNow() {
+        ticker.stop();
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+    }
+
+    private static CompletableFuture<Void> failed(Throwable throwable) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+
+    private static Ticker timerThread(String name) {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(threads(name + "-timer"));
+        return new Ticker() {
+            @Override
+            public void scheduleAtFixedRate(Runnable tick, long periodMillis) {
+                timer.scheduleAtFixedRate(tick, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public void stop() {
+                timer.shutdownNow();
+            }
+        };
+    }
+
+    private static ThreadPoolExecutor workers(String name, int workerThreads) {
+        if (workerThreads < 1) {
+            throw new IllegalArgumentException("At least one worker thread is required");
+        }
+        return new ThreadPoolExecutor(workerThreads, workerThreads, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), threads(name + "-maintenance"));
+    }
+
+    private static ThreadFactory threads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+    }
+}
@@ -0,0 +1,199 @@
+package kademlia;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Iterative node lookup driven by responses instead of rounds <br>
+ * Up to alpha FIND_NODE requests are in flight at any time, a new one is sent as soon as any of them completes,
+ * so a slow node only holds up its own slot. <br>
+ * The lookup ends as soon as the k closest nodes seen so far have all responded (see {@link Shortlist}),
+ * requests still in flight are then cancelled. A value lookup ({@link #forValue}) ends as soon as the read quorum of nodes
+ * returned the value. <br>
+ * Transport is supplied by the caller: no thread is ever blocked by the lookup itself.
+ */
+public class NodeLookup {
+
+    /**
+     * Sends FIND_NODE to the recipient, completes with the nodes it returned or exceptionally when the call failed
+     */
+    public interface FindNodeCall {
+        CompletableFuture<List<NodeReference>> findNode(NodeReference recipient);
+    }
+
+    /**
+     * Sends FIND_VALUE to the recipient, completes with the value or closer nodes, exceptionally when the call failed
+     */
+    public interface FindValueCall {
+        CompletableFuture<Reply> findValue(NodeReference recipient);
+    }
+
+    /**
+     * Answer to FIND_VALUE: either the value or nodes closer to the key
+     */
+    public static final class Reply {
+        private final byte[] value;
+        private final List<NodeReference> closer;
+
+        private Reply(byte[] value, List<NodeReference> closer) {
+            this.value = value;
+            this.closer = closer;
+        }
+
+        public static Reply value(byte[] value) {
+            return new Reply(value, Collections.emptyList());
+        }
+
+        public static Reply closer(List<NodeReference> closer) {
+            return new Reply(null, closer);
+        }
+
+        public byte[] getValue() {
+            return value;
+        }
+
+        public List<NodeReference> getCloser() {
+            return closer;
+        }
+    }
+
+    private final int alpha;
+    private final int readQuorum;
+    private final FindValueCall call;
+    private final Shortlist shortlist;
+    private final CompletableFuture<List<NodeReference>> result = new CompletableFuture<>();
+
+    /**
+     * Guarded by this
+     */
+    private int inFlight = 0;
+    private final Map<NodeReference, CompletableFuture<Reply>> calls = new HashMap<>();
+    private final List<byte[]> values = new ArrayList<>();
+    private int rpcCount = 0;
+
+    public NodeLookup(Id targetId, int k, int alpha, List<NodeReference> initial, FindNodeCall call) {
+        this(targetId, k, alpha, Integer.MAX_VALUE, initial, recipient -> call.findNode(recipient).thenApply(Reply::closer));
+    }
+
+    private NodeLookup(Id targetId, int k, int alpha, int readQuorum, List<NodeReference> initial, FindValueCall call) {
+        this.alpha = alpha;
+        this.readQuorum = readQuorum;
+        this.call = call;
+        this.shortlist = new Shortlist(targetId, k, initial);
+    }
+
+    /**
+     * Lookup of the value stored under the key, ends once readQuorum nodes returned it, see {@link #getValue()}
+     */
+    public static NodeLookup forValue(Id key, int k, int alpha, int readQuorum, List<NodeReference> initial, FindValueCall call) {
+        if (readQuorum < 1) {
+            throw new IllegalArgumentException("Read quorum must be at least 1");
+        }
+        return new NodeLookup(key, k, alpha, readQuorum, initial, call);
+    }
+
+    /**
+     * @return k closest nodes that answered, sorted by distance to the target
+     */
+    public CompletableFuture<List<NodeReference>> start() {
+        dispatch();
+        return result;
+    }
+
+    /**
+     * Value found by a value lookup (first one returned), null if no node returned it
+     */
+    public synchronized byte[] getValue() {
+        return values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * Values returned by the nodes that hold the key, in the order of arrival
+     */
+    public synchronized List<byte[]> getValues() {
+        return new ArrayList<>(values);
+    }
+
+    /**
+     * Number of FIND_NODE/FIND_VALUE requests sent so far
+     */
+    public synchronized int getRpcCount() {
+        return rpcCount;
+    }
+
+    /**
+     * Fill free slots with the closest unqueried nodes, complete the lookup when there is nothing left to do <br>
+     * Requests are sent and cancelled outside of the lock, a call may complete on the calling thread.
+     */
+    private void dispatch() {
+        List<NodeReference> toQuery = new ArrayList<>(alpha);
+        List<NodeReference> found = null;
+        List<CompletableFuture<Reply>> toCancel = null;
+
+        synchronized (this) {
+            if (result.isDone()) return;
+            while (values.size() < readQuorum && inFlight < alpha) {
+                NodeReference next = shortlist.pollClosest();
+                if (next == null) break;
+                toQuery.add(next);
+                inFlight++;
+                rpcCount++;
+            }
+            if (values.size() >= readQuorum || inFlight == 0 || shortlist.isConverged()) {
+                found = shortlist.getKBestResponded();
+                toCancel = new ArrayList<>(calls.values());
+                calls.clear();
+            }
+        }
+
+        if (found != null) {
+            result.complete(found);
+            toCancel.forEach(pending -> pending.cancel(true));
+            return;
+        }
+        toQuery.forEach(this::send);
+    }
+
+    private void send(NodeReference recipient) {
+        CompletableFuture<Reply> response;
+        try {
+            response = call.findValue(recipient);
+        } catch (RuntimeException e) {
+            response = new CompletableFuture<>();
+            response.completeExceptionally(e);
+        }
+        boolean late;
+        synchronized (this) {
+            late = result.isDone();
+            if (!late) {
+                calls.put(recipient, response);
+            }
+        }
+        if (late) {
+            response.cancel(true);
+            return;
+        }
+
+        response.whenComplete((reply, throwable) -> {
+            synchronized (this) {
+                inFlight--;
+                calls.remove(recipient);
+                if (result.isDone()) return;
+                if (throwable != null) {
+                    shortlist.markFailed(recipient);
+                } else {
+                    shortlist.markResponded(recipient);
+                    if (reply.getValue() != null) {
+                        values.add(reply.getValue());
+                    }
+                    reply.getCloser().forEach(shortlist::addToQuery);
+                }
+            }
+            dispatch();
+        });
+    }
+}
@@ -5,7 +5,7 @@ import com.google.common.annotations.VisibleForTesting;
 import proto.Kademlia;
 
 import java.math.BigInteger;
-import java.time.Instant;
+import java.util.Comparator;
 
 /**
  * Reference to a PastryNode from the point of view of current node
@@ -13,7 +13,7 @@ import java.time.Instant;
 public class NodeReference {
     public final String ip;
     public final int port;
-    private final BigInteger id;
+    private final Id id;
 
     public NodeReference(String ip, int port) {
         this.ip = ip;
@@ -21,30 +21,65 @@ public class NodeReference {
         this.id = Util.getId(getAddress());
     }
 
-    @VisibleForTesting
-    public NodeReference(String ip, int port, BigInteger id) {
+    public NodeReference(String ip, int port, Id id) {
         this.ip = ip;
         this.port = port;
         this.id = id;
     }
 
+    @VisibleForTesting
+    public NodeReference(String ip, int port, BigInteger id) {
+        this(ip, port, Id.of(id));
+    }
+
+    /**
+     * Accepts both v1 and v2 encoding, see {@link WireFormat}
+     */
     public NodeReference(Kademlia.NodeReference nodeReference) {
-        this.ip = nodeReference.getIp();
-        this.port = nodeReference.getPort();
-        this.id = new BigInteger(nodeReference.getId());
+        long packed = nodeReference.getPackedAddress();
+        if (packed != 0) {
+            this.ip = WireFormat.unpackIp(packed);
+            this.port = WireFormat.unpackPort(packed);
+        } else {
+            this.ip = nodeReference.getIp();
+            this.port = nodeReference.getPort();
+        }
+        this.id = WireFormat.decodeId(nodeReference.getRawId(), nodeReference.getId());
     }
 
     public Kademlia.NodeReference toProto() {
-        return Kademlia.NodeReference.newBuilder()
-                .setIp(ip)
-                .setPort(port)
-                .setId(id.toString()).build();
+        return toProto(WireFormat.V1);
     }
 
-    public BigInteger getId() {
+    public Kademlia.NodeReference toProto(int version) {
+        if (version < WireFormat.V2) {
+            return Kademlia.NodeReference.newBuilder()
+                    .setIp(ip)
+                    .setPort(port)
+                    .setId(id.toString()).build();
+        }
+        Kademlia.NodeReference.Builder builder = Kademlia.NodeReference.newBuilder()
+                .setRawId(WireFormat.encodeId(id));
+        long packed = WireFormat.packAddress(ip, port);
+        if (packed != 0) {
+            builder.setPackedAddress(packed);
+        } else {
+            builder.setIp(ip).setPort(port);
+        }
+        return builder.build();
+    }
+
+    public Id getId() {
         return id;
     }
 
+    /**
+     * Orders nodes by XOR distance of their IDs to the target, closest first
+     */
+    public static Comparator<NodeReference> byDistanceTo(Id targetId) {
+        return (a, b) -> targetId.compareDistance(a.id, b.id);
+    }
+
     public String getAddress() {
         return ip + ":" + port;
     }
@@ -0,0 +1,412 @@
+package kademlia;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * {@link StorageEngine} keeping values in direct buffers outside of the Java heap <br>
+ * Index: open addressing with linear probing over primitive arrays, a key is stored as the three words of its 160-bit hash,
+ * so the garbage collector sees a handful of arrays regardless of the number of keys. <br>
+ * Values: slab allocator over direct chunks of chunkBytes. Size classes grow by 25 %, a freed slot goes to the free list
+ * of its class and is reused by the next value of that class. The tail of a chunk too short for the next slot is split
+ * into slots of the smaller classes. <br>
+ * {@link #read} hands out a read-only view of the slot, so that Retrieve is served without copying the value onto the heap.
+ */
+public class OffHeapStorageEngine implements StorageEngine {
+
+    private static final byte FREE = 0;
+    private static final byte USED = 1;
+    private static final byte DELETED = 2;
+
+    private static final double MAX_LOAD = 0.7;
+    private static final int MIN_SLOT_BYTES = 16;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TimingWheel<Id> expirations;
+
+    /**
+     * Index, guarded by lock
+     */
+    private long[] keyHi;
+    private long[] keyMid;
+    private long[] keyLo;
+    private long[] addresses;
+    private int[] lengths;
+    private long[] deadlines;
+    private byte[] states;
+    private int size = 0;
+    private int occupied = 0;
+
+    /**
+     * Arena, guarded by lock. Address of a slot = chunk index in the upper, offset in the lower 32 bits
+     */
+    private final int chunkBytes;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private int chunkOffset;
+    private final int[] classSizes;
+    private final long[][] freeSlots;
+    private final int[] freeCounts;
+    private long allocatedBytes = 0;
+
+    /**
+     * 64 MB chunks, index for 1024 keys to start with
+     */
+    public OffHeapStorageEngine(Duration expireTick, int wheelSlots) {
+        this(expireTick, wheelSlots, 64 << 20, 1024);
+    }
+
+    /**
+     * @param chunkBytes size of a direct buffer, also the largest value
+     */
+    public OffHeapStorageEngine(Duration expireTick, int wheelSlots, int chunkBytes, int initialCapacity) {
+        this(expireTick, wheelSlots, chunkBytes, initialCapacity, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock time the expiration deadlines are given in
+     */
+    public OffHeapStorageEngine(Duration expireTick, int wheelSlots, int chunkBytes, int initialCapacity, LongSupplier clock) {
+        if (chunkBytes < MIN_SLOT_BYTES) {
+            throw new IllegalArgumentException("Chunk must be at least " + MIN_SLOT_BYTES + " bytes");
+        }
+        this.expirations = new TimingWheel<>(expireTick, wheelSlots, clock.getAsLong());
+        this.chunkBytes = chunkBytes;
+        this.chunkOffset = chunkBytes;
+
+        List<Integer> sizes = new ArrayList<>();
+        for (long slot = MIN_SLOT_BYTES; slot < chunkBytes; slot = (slot * 5 / 4 + 7) & ~7L) {
+            sizes.add((int) slot);
+        }
+        sizes.add(chunkBytes);
+        this.classSizes = sizes.stream().mapToInt(Integer::intValue).toArray();
+        this.freeSlots = new long[classSizes.length][];
+        this.freeCounts = new int[classSizes.length];
+        Arrays.fill(freeSlots, new long[0]);
+
+        allocateIndex(Integer.highestOneBit(Math.max(initialCapacity, 8) * 2 - 1));
+    }
+
+    @Override
+    public byte[] get(Id key) {
+        lock.readLock().lock();
+        try {
+            int slot = find(key);
+            if (slot < 0) return null;
+            return copy(slot);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The buffer is a read-only view of the off-heap slot, held under the read lock: the reader must not write to the engine
+     */
+    @Override
+    public boolean read(Id key, Consumer<ByteBuffer> reader) {
+        lock.readLock().lock();
+        try {
+            int slot = find(key);
+            if (slot < 0) return false;
+            reader.accept(view(slot));
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value is larger than a chunk
+     */
+    @Override
+    public void put(Id key, byte[] bytes, long expiresAtMillis) {
+        if (bytes.length > chunkBytes) {
+            throw new IllegalArgumentException("Value of " + bytes.length + " bytes exceeds the chunk size of " + chunkBytes);
+        }
+        lock.writeLock().lock();
+        try {
+            int slot = find(key);
+            if (slot >= 0) {
+                release(addresses[slot], lengths[slot]);
+            } else {
+                if (occupied + 1 > keyLo.length * MAX_LOAD) {
+                    // grow when full of live keys, otherwise only clear tombstones
+                    rehash(size + 1 > keyLo.length * MAX_LOAD / 2 ? keyLo.length * 2 : keyLo.length);
+                }
+                slot = insertionSlot(key);
+                if (states[slot] == FREE) occupied++;
+                states[slot] = USED;
+                keyHi[slot] = key.bits(128, 32);
+                keyMid[slot] = key.bits(64, 64);
+                keyLo[slot] = key.bits(0, 64);
+                size++;
+            }
+            long address = allocate(bytes.length);
+            ByteBuffer target = chunks.get((int) (address >>> 32)).duplicate();
+            target.position((int) address);
+            target.put(bytes);
+            addresses[slot] = address;
+            lengths[slot] = bytes.length;
+            deadlines[slot] = expiresAtMillis;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        expirations.schedule(key, expiresAtMillis);
+    }
+
+    /**
+     * Values larger than a chunk are refused
+     */
+    @Override
+    public boolean put(Id key, byte[] value, long expiresAtMillis, NodeReference sender) {
+        if (value.length > chunkBytes) return false;
+        put(key, value, expiresAtMillis);
+        return true;
+    }
+
+    @Override
+    public boolean accepts(Id key, long bytes, NodeReference sender) {
+        return bytes <= chunkBytes;
+    }
+
+    @Override
+    public boolean delete(Id key) {
+        expirations.cancel(key);
+        lock.writeLock().lock();
+        try {
+            int slot = find(key);
+            if (slot < 0) return false;
+            remove(slot);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void scan(BiConsumer<Id, byte[]> visitor) {
+        lock.readLock().lock();
+        try {
+            for (int slot = 0; slot < states.length; slot++) {
+                if (states[slot] == USED) {
+                    visitor.accept(keyAt(slot), copy(slot));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Id> expire(long nowMillis) {
+        List<Id> expired = new ArrayList<>();
+        List<Id> due = expirations.advance(nowMillis);
+        if (due.isEmpty()) return expired;
+        lock.writeLock().lock();
+        try {
+            for (Id key : due) {
+                int slot = find(key);
+                // stored again meanwhile, keep it
+                if (slot >= 0 && deadlines[slot] <= nowMillis) {
+                    remove(slot);
+                    expired.add(key);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return expired;
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Key iteration works on a snapshot of the keys
+     */
+    @Override
+    public Map<Id, byte[]> asMap() {
+        return new StorageMapView(this, () -> {
+            List<Id> keys = new ArrayList<>();
+            scan((key, value) -> keys.add(key));
+            return keys.iterator();
+        });
+    }
+
+    /**
+     * Bytes of all slots handed out to values (including slot padding), freed slots are not counted
+     */
+    public long getAllocatedBytes() {
+        lock.readLock().lock();
+        try {
+            return allocatedBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Direct memory reserved so far
+     */
+    public long getReservedBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) chunks.size() * chunkBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    ////  Index  ////
+
+    private void allocateIndex(int capacity) {
+        keyHi = new long[capacity];
+        keyMid = new long[capacity];
+        keyLo = new long[capacity];
+        addresses = new long[capacity];
+        lengths = new int[capacity];
+        deadlines = new long[capacity];
+        states = new byte[capacity];
+        size = 0;
+        occupied = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] hi = keyHi, mid = keyMid, lo = keyLo, address = addresses, deadline = deadlines;
+        int[] length = lengths;
+        byte[] state = states;
+        allocateIndex(capacity);
+        for (int old = 0; old < state.length; old++) {
+            if (state[old] != USED) continue;
+            int slot = probeStart(lo[old], mid[old], hi[old]);
+            while (states[slot] != FREE) slot = (slot + 1) & (states.length - 1);
+            states[slot] = USED;
+            keyHi[slot] = hi[old];
+            keyMid[slot] = mid[old];
+            keyLo[slot] = lo[old];
+            addresses[slot] = address[old];
+            lengths[slot] = length[old];
+            deadlines[slot] = deadline[old];
+            size++;
+            occupied++;
+        }
+    }
+
+    /**
+     * @return slot holding the key, -1 if it is not stored
+     */
+    private int find(Id key) {
+        long hi = key.bits(128, 32), mid = key.bits(64, 64), lo = key.bits(0, 64);
+        int mask = states.length - 1;
+        for (int slot = probeStart(lo, mid, hi); ; slot = (slot + 1) & mask) {
+            byte state = states[slot];
+            if (state == FREE) return -1;
+            if (state == USED && keyLo[slot] == lo && keyMid[slot] == mid && keyHi[slot] == hi) return slot;
+        }
+    }
+
+    /**
+     * First tombstone or free slot on the probe sequence of a key that is not stored
+     */
+    private int insertionSlot(Id key) {
+        int mask = states.length - 1;
+        int slot = probeStart(key.bits(0, 64), key.bits(64, 64), key.bits(128, 32));
+        while (states[slot] == USED) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private int probeStart(long lo, long mid, long hi) {
+        // key hashes are uniform already, mixing only guards against structured test keys
+        long h = (lo ^ mid ^ hi) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & (states.length - 1);
+    }
+
+    private void remove(int slot) {
+        release(addresses[slot], lengths[slot]);
+        states[slot] = DELETED;
+        size--;
+    }
+
+    private Id keyAt(int slot) {
+        return Id.fromWords(keyHi[slot], keyMid[slot], keyLo[slot]);
+    }
+
+    ////  Arena  ////
+
+    private ByteBuffer view(int slot) {
+        long address = addresses[slot];
+        ByteBuffer value = chunks.get((int) (address >>> 32)).asReadOnlyBuffer();
+        value.position((int) address);
+        value.limit((int) address + lengths[slot]);
+        return value.slice();
+    }
+
+    private byte[] copy(int slot) {
+        byte[] value = new byte[lengths[slot]];
+        view(slot).get(value);
+        return value;
+    }
+
+    private long allocate(int length) {
+        int sizeClass = sizeClass(length);
+        allocatedBytes += classSizes[sizeClass];
+        if (freeCounts[sizeClass] > 0) {
+            return freeSlots[sizeClass][--freeCounts[sizeClass]];
+        }
+        int slotBytes = classSizes[sizeClass];
+        if (chunkOffset + slotBytes > chunkBytes) {
+            freeTail();
+            chunks.add(ByteBuffer.allocateDirect(chunkBytes));
+            chunkOffset = 0;
+        }
+        long address = ((long) (chunks.size() - 1) << 32) | chunkOffset;
+        chunkOffset += slotBytes;
+        return address;
+    }
+
+    private void release(long address, int length) {
+        int sizeClass = sizeClass(length);
+        allocatedBytes -= classSizes[sizeClass];
+        free(sizeClass, address);
+    }
+
+    /**
+     * Split the rest of the current chunk into the largest slots that fit, less than the smallest slot is lost
+     */
+    private void freeTail() {
+        if (chunks.isEmpty()) return;
+        long chunk = (long) (chunks.size() - 1) << 32;
+        for (int sizeClass = classSizes.length - 1; sizeClass >= 0; sizeClass--) {
+            while (chunkOffset + classSizes[sizeClass] <= chunkBytes) {
+                free(sizeClass, chunk | chunkOffset);
+                chunkOffset += classSizes[sizeClass];
+            }
+        }
+    }
+
+    private void free(int sizeClass, long address) {
+        if (freeCounts[sizeClass] == freeSlots[sizeClass].length) {
+            freeSlots[sizeClass] = Arrays.copyOf(freeSlots[sizeClass], Math.max(16, freeCounts[sizeClass] * 2));
+        }
+        freeSlots[sizeClass][freeCounts[sizeClass]++] = address;
+    }
+
+    private int sizeClass(int length) {
+        int index = Arrays.binarySearch(classSizes, length);
+        return index >= 0 ? index : -index - 1;
+    }
+}
@@ -0,0 +1,36 @@
+package kademlia;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of {@link KademliaNode#putAsync(String, String)} <br>
+ * Replicas that acknowledged the STORE by the time the write quorum was reached, or by the time all STOREs finished
+ * if it could not be reached. Stores still in progress continue in the background.
+ */
+public class PutResult {
+    private final List<NodeReference> acknowledged;
+    private final int writeQuorum;
+
+    public PutResult(List<NodeReference> acknowledged, int writeQuorum) {
+        this.acknowledged = Collections.unmodifiableList(acknowledged);
+        this.writeQuorum = writeQuorum;
+    }
+
+    public List<NodeReference> getAcknowledged() {
+        return acknowledged;
+    }
+
+    public int getWriteQuorum() {
+        return writeQuorum;
+    }
+
+    public boolean isQuorumReached() {
+        return acknowledged.size() >= writeQuorum;
+    }
+
+    @Override
+    public String toString() {
+        return acknowledged.size() + "/" + writeQuorum + " acknowledged " + acknowledged;
+    }
+}
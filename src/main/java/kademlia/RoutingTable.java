@@ -4,161 +4,243 @@ import com.google.common.annotations.VisibleForTesting;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.math.BigInteger;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.stream.Collectors;
-
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Reads (lookups, size) take no lock: every {@link KBucket} publishes an immutable snapshot of its contacts.
+ * Writers only synchronize on the single bucket they modify.
+ */
 public class RoutingTable {
     private static final Logger logger = LoggerFactory.getLogger(RoutingTable.class);
     private final int MAX_SIZE;
     private final int ALPHA_PARAMETER;
     private final int K_PARAMETER;
     private final NodeReference owner;
-    List<KBucket> buckets = new ArrayList<>();
-    private final ReentrantLock lock = new ReentrantLock();
-    private int size; // TODO: decrement
+    final List<KBucket> buckets;
+
+    /**
+     * Adjusted by the actual change of bucket size on every write
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Notified about every node that leaves the table
+     */
+    private final List<Consumer<NodeReference>> removalListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Asked to check whether the least-recently seen node of a full bucket is still alive,
+     * must report back through {@link #pingResult(NodeReference, boolean)}. Without it, full buckets keep their nodes.
+     */
+    private volatile Consumer<NodeReference> pingHandler;
+    private volatile long minPingIntervalMillis;
+
+    /**
+     * Time for bucket activity and ping rate limits, the wall clock unless a simulation supplies its virtual one
+     */
+    private final LongSupplier clock;
 
     public RoutingTable(int maxSize, int alpha, int k, NodeReference owner) {
+        this(maxSize, alpha, k, owner, System::currentTimeMillis);
+    }
+
+    public RoutingTable(int maxSize, int alpha, int k, NodeReference owner, LongSupplier clock) {
         this.MAX_SIZE = maxSize;
         this.ALPHA_PARAMETER = alpha;
         this.K_PARAMETER = k;
-        this.size = 0;
 
         this.owner = owner;
+        this.clock = clock;
 
+        long now = clock.getAsLong();
+        List<KBucket> list = new ArrayList<>(MAX_SIZE);
         for (int i = 0; i < MAX_SIZE; i++) {
-            buckets.add(new KBucket(K_PARAMETER, owner));
+            list.add(new KBucket(K_PARAMETER, owner, now));
         }
+        this.buckets = Collections.unmodifiableList(list);
     }
 
     public int getSize() {
-        lock.lock();
-        try {
-            return size;
-        } finally {
-            lock.unlock();
-        }
+        return size.get();
     }
 
     /**
      * Response to FIND_NODE RPC <br>
      * Recipient returns k nodes it knows about closest to the target ID <br>
      * <a href="https://stackoverflow.com/questions/30654398/implementing-find-node-on-torrent-kademlia-routing-table/30655403#30655403">Link:</a>
-     * TL;DR: "just look one bucket left, one bucket right" is not sufficient. The correct algorithm is fairly involved, a linear scan over the whole table is easier to implement
+     * TL;DR: "just look one bucket left, one bucket right" is not sufficient. Buckets are instead visited in XOR order, see {@link #selectClosest(Id, int)}
      */
-    public List<NodeReference> findKClosest(BigInteger targetId) {
-        lock.lock();
-        try {
-            if (buckets.get(getBucketIndex(targetId)).isFull()) {
-                return buckets.get(getBucketIndex(targetId)).toList();
-            }
-            return buckets.stream()
-                    .filter(b -> !b.isEmpty())
-                    .flatMap(KBucket::toStream)
-                    .sorted(Comparator.comparing(node -> targetId.xor(node.getId())))
-                    .limit(K_PARAMETER)
-                    .collect(Collectors.toList());
-        } finally {
-            lock.unlock();
-        }
-
+    public List<NodeReference> findKClosest(Id targetId) {
+        return selectClosest(targetId, K_PARAMETER);
     }
 
 
     /**
      * Pick ALPHA nodes from closest non-empty k-bucket (or, if that bucket has fewer than ALPHA entries, just take the ALPHA closest nodes you know of)
      */
-    public List<NodeReference> findAlphaClosest(BigInteger targetId) {
-        lock.lock();
-        try {
-            if (buckets.get(getBucketIndex(targetId)).isFull()) {
-                return buckets.get(getBucketIndex(targetId)).toStream()
-                        .sorted(Comparator.comparing(node -> targetId.xor(node.getId())))
-                        .limit(ALPHA_PARAMETER)
-                        .collect(Collectors.toList());
+    public List<NodeReference> findAlphaClosest(Id targetId) {
+        return selectClosest(targetId, ALPHA_PARAMETER);
+    }
+
+    /**
+     * Select count closest contacts to the target, sorted by XOR distance <br>
+     * Contacts of bucket i share their bits above i with the owner, so relative to the target every bucket covers
+     * a distinct, contiguous range of distances. With d = owner XOR target and b = highest bit of d, the buckets ordered
+     * from closest to farthest are: <br>
+     * 1. bucket b (distance &lt; 2^b) <br>
+     * 2. buckets i &lt; b where bit i of d is 1, descending <br>
+     * 3. buckets i &lt; b where bit i of d is 0, ascending <br>
+     * 4. buckets i &gt; b, ascending <br>
+     * The walk stops as soon as count contacts are collected, only the last visited bucket needs to be partially selected.
+     */
+    private List<NodeReference> selectClosest(Id targetId, int count) {
+        List<NodeReference> result = new ArrayList<>(count);
+        Id ownerId = owner.getId();
+        int b = getBucketIndex(targetId);
+
+        if (collect(b, targetId, count, result)) return result;
+        for (int i = b - 1; i >= 0; i--) {
+            if (ownerId.testBit(i) != targetId.testBit(i) && collect(i, targetId, count, result)) return result;
+        }
+        for (int i = 0; i < b; i++) {
+            if (ownerId.testBit(i) == targetId.testBit(i) && collect(i, targetId, count, result)) return result;
+        }
+        for (int i = b + 1; i < MAX_SIZE; i++) {
+            if (collect(i, targetId, count, result)) return result;
+        }
+        return result;
+    }
+
+    /**
+     * Append closest contacts of the bucket (sorted) until result has count contacts
+     * @return true if result is complete
+     */
+    private boolean collect(int index, Id targetId, int count, List<NodeReference> result) {
+        List<NodeReference> bucket = buckets.get(index).snapshot();
+        if (bucket.isEmpty()) {
+            return result.size() >= count;
+        }
+        int missing = count - result.size();
+        Comparator<NodeReference> byDistance = NodeReference.byDistanceTo(targetId);
+
+        // bounded max-heap: keeps the missing closest, farthest of them on top
+        PriorityQueue<NodeReference> heap = new PriorityQueue<>(missing + 1, byDistance.reversed());
+        for (NodeReference node : bucket) {
+            heap.add(node);
+            if (heap.size() > missing) {
+                heap.poll();
             }
-            return buckets.stream()
-                    .filter(b -> !b.isEmpty())
-                    .flatMap(KBucket::toStream)
-                    .sorted(Comparator.comparing(node -> targetId.xor(node.getId())))
-                    .limit(ALPHA_PARAMETER)
-                    .collect(Collectors.toList());
-        } finally {
-            lock.unlock();
         }
+
+        NodeReference[] closest = new NodeReference[heap.size()];
+        for (int i = closest.length - 1; i >= 0; i--) {
+            closest[i] = heap.poll();
+        }
+        result.addAll(Arrays.asList(closest));
+        return result.size() >= count;
     }
 
     /**
-     * Insert or updateIfPresent
+     * Insert or updateIfPresent, marks the bucket as active
      * @param newNode
      */
     public void insert(NodeReference newNode) {
-        lock.lock();
-        try {
-            if (owner.equals(newNode)) return;
-            int index = getBucketIndex(newNode.getId());
-            KBucket bucket = buckets.get(index);
-
-            boolean inserted = bucket.add(newNode);
-
-            if (inserted) {
-                size++;
+        if (owner.equals(newNode)) return;
+        NodeReference toPing = null;
+        KBucket bucket = buckets.get(getBucketIndex(newNode.getId()));
+        Consumer<NodeReference> handler = pingHandler;
+        long now = clock.getAsLong();
+        bucket.touch(now);
+
+        synchronized (bucket) {
+            boolean replacement = bucket.isFull() && !bucket.contains(newNode);
+            if (bucket.add(newNode)) {
+                size.incrementAndGet();
             }
-        } finally {
-            lock.unlock();
+            if (replacement && handler != null && bucket.tryStartPing(now, minPingIntervalMillis)) {
+                toPing = bucket.getHead();
+            }
+        }
+        if (toPing != null) {
+            handler.accept(toPing);
         }
     }
 
+    /**
+     * Remove unresponsive node, most recently seen replacement takes its place
+     */
     public void remove(NodeReference toRemove) {
-        lock.lock();
-        try {
-            if (owner.equals(toRemove))
-                return;
-            int index = getBucketIndex(toRemove.getId());
-            KBucket bucket = buckets.get(index);
-
-            boolean removed = bucket.remove(toRemove);
-
-            if (removed)
-                size--;
-        } finally {
-            lock.unlock();
+        if (owner.equals(toRemove))
+            return;
+        KBucket bucket = buckets.get(getBucketIndex(toRemove.getId()));
+
+        boolean removed;
+        synchronized (bucket) {
+            int before = bucket.getSize();
+            removed = bucket.remove(toRemove);
+            size.addAndGet(bucket.getSize() - before);
+        }
+        if (removed) {
+            notifyRemoved(toRemove);
         }
     }
 
-    public KBucket getKBucket(int index) {
-        lock.lock();
-        try {
-            return buckets.get(index);
-        } finally {
-            lock.unlock();
+    /**
+     * Outcome of the ping requested from the ping handler: live node is moved to the tail, dead node is replaced
+     */
+    public void pingResult(NodeReference node, boolean alive) {
+        if (alive) {
+            insert(node);
+        } else {
+            remove(node);
         }
     }
 
-    public int getBucketIndex(BigInteger targetId) {
-        if (owner.getId().compareTo(targetId) == 0)
-            return 0;
+    /**
+     * Enable ping-before-evict, each bucket pings its head at most once per minInterval
+     */
+    public void setPingHandler(Consumer<NodeReference> handler, Duration minInterval) {
+        this.minPingIntervalMillis = minInterval.toMillis();
+        this.pingHandler = handler;
+    }
+
+    /**
+     * Listener is called outside of the bucket lock
+     */
+    public void addRemovalListener(Consumer<NodeReference> listener) {
+        removalListeners.add(listener);
+    }
+
+    private void notifyRemoved(NodeReference node) {
+        removalListeners.forEach(l -> l.accept(node));
+    }
 
-        BigInteger distance = owner.getId().xor(targetId);
+    public KBucket getKBucket(int index) {
+        return buckets.get(index);
+    }
 
-        // returns the index of highest non-zero bit of binary representation
-        return distance.bitLength() - 1;
+    public int getBucketIndex(Id targetId) {
+        // index of highest non-zero bit of the XOR distance, own ID falls into the first bucket
+        return Math.max(0, owner.getId().highestDifferingBit(targetId));
     }
 
     @VisibleForTesting
     public void print() {
-        lock.lock();
-        try {
-            logger.info("[{}]  Routing table: ", owner);
-            for (int i = 0; i < MAX_SIZE; i++) {
-                if (buckets.get(i).getSize() == 0) continue;
-                logger.info("   Bucket " + i + ": " + buckets.get(i).toList());
-            }
-        } finally {
-            lock.unlock();
+        logger.info("[{}]  Routing table: ", owner);
+        for (int i = 0; i < MAX_SIZE; i++) {
+            List<NodeReference> snapshot = buckets.get(i).snapshot();
+            if (snapshot.isEmpty()) continue;
+            logger.info("   Bucket " + i + ": " + snapshot);
         }
     }
 
@@ -1,78 +1,115 @@
 package kademlia;
 
-import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
-
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Nodes seen during a lookup, ordered by XOR distance to the target <br>
+ * Every node is PENDING until it is picked for a query, then IN_FLIGHT until it either RESPONDED or FAILED. <br>
+ * Only the k closest nodes that have not failed are worth querying: the lookup has converged once all of them responded.
+ */
 public class Shortlist {
 
-    /**
-     * Nodes onto which RPC has <B>not</B> been sent yet
-     */
-    private final HashSet<NodeReference> shortlist;
+    public enum State {
+        PENDING, IN_FLIGHT, RESPONDED, FAILED
+    }
 
-    /**
-     * Nodes onto which RPC has been sent
-     */
-    private final HashSet<NodeReference> queried;
+    private final int k;
 
     /**
-     * Nodes that are offline
+     * All nodes seen, closest first
      */
-    private final HashSet<NodeReference> offline;
-
-    private final int ALPHA;
-
+    private final TreeSet<NodeReference> ordered;
 
+    private final Map<NodeReference, State> states = new HashMap<>();
 
     /**
      * Initialize shortlist from the alfa closest
      */
-    public Shortlist(List<NodeReference> alphaFromRoutingTable) {
-        ALPHA = alphaFromRoutingTable.size();
-        shortlist = new HashSet<>(alphaFromRoutingTable);
-        queried = new HashSet<>();
-        offline = new HashSet<>();
+    public Shortlist(Id targetId, int k, List<NodeReference> alphaFromRoutingTable) {
+        this.k = k;
+        // addresses break ties, so that the order is consistent with NodeReference.equals
+        this.ordered = new TreeSet<>(NodeReference.byDistanceTo(targetId)
+                .thenComparing(NodeReference::getIp)
+                .thenComparingInt(NodeReference::getPort));
+        alphaFromRoutingTable.forEach(this::addToQuery);
+    }
+
+    /**
+     * Node learned from a response, ignored if it was seen before
+     */
+    public void addToQuery(NodeReference node) {
+        if (states.putIfAbsent(node, State.PENDING) == null) {
+            ordered.add(node);
+        }
     }
 
-    public boolean hasUnqueried() {
-        return !shortlist.isEmpty();
+    /**
+     * Closest pending node among the k closest that have not failed, marked IN_FLIGHT <br>
+     * null when all of those are already in flight or responded
+     */
+    public NodeReference pollClosest() {
+        int alive = 0;
+        for (NodeReference node : ordered) {
+            State state = states.get(node);
+            if (state == State.FAILED) continue;
+            if (state == State.PENDING) {
+                states.put(node, State.IN_FLIGHT);
+                return node;
+            }
+            if (++alive == k) break;
+        }
+        return null;
     }
 
-    public List<NodeReference> pollAlphaNodesForQuery() {
-        List<NodeReference> ret = shortlist.stream().limit(ALPHA).collect(Collectors.toList());
-        queried.addAll(ret);
-        ret.forEach(shortlist::remove);
-        return ret;
+    public void markResponded(NodeReference node) {
+        states.replace(node, State.RESPONDED);
     }
 
-    public void addToQuery(NodeReference node) {
-        if (queried.contains(node))
-            return;
-        shortlist.add(node);
+    public void markFailed(NodeReference node) {
+        states.replace(node, State.FAILED);
     }
 
-    public void addQueried(NodeReference node) {
-        queried.add(node);
+    /**
+     * True once the k closest nodes that have not failed have all responded
+     */
+    public boolean isConverged() {
+        int responded = 0;
+        for (NodeReference node : ordered) {
+            State state = states.get(node);
+            if (state == State.FAILED) continue;
+            if (state != State.RESPONDED) return false;
+            if (++responded == k) return true;
+        }
+        return true;
     }
 
-    public void addOffline(NodeReference node) {
-        offline.add(node);
+    public State getState(NodeReference node) {
+        return states.get(node);
     }
 
-    public List<NodeReference> getOffline() {
-        return new ArrayList<>(offline);
+    public List<NodeReference> getFailed() {
+        List<NodeReference> failed = new ArrayList<>();
+        states.forEach((node, state) -> {
+            if (state == State.FAILED) failed.add(node);
+        });
+        return failed;
     }
 
-    public List<NodeReference> getKBestQueried(BigInteger targetId, int k) {
-        return queried.stream()
-                .filter(node -> !offline.contains(node))
-                .sorted(Comparator.comparing(node -> targetId.xor(node.getId())))
-                .limit(k)
-                .collect(Collectors.toList());
+    /**
+     * Up to k closest nodes that responded, closest first
+     */
+    public List<NodeReference> getKBestResponded() {
+        List<NodeReference> best = new ArrayList<>(k);
+        for (NodeReference node : ordered) {
+            if (states.get(node) != State.RESPONDED) continue;
+            best.add(node);
+            if (best.size() == k) break;
+        }
+        return best;
     }
 
 }
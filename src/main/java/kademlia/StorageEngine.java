@@ -0,0 +1,83 @@
+package kademlia;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Local key/value store of a node, values are opaque bytes <br>
+ * Every key carries an expiration deadline, {@link #expire(long)} drops the keys whose deadline passed. <br>
+ * Server handlers call the engine concurrently and without the node lock, implementations must be thread-safe.
+ * Arrays passed in or handed out may be shared with the engine and must not be modified.
+ */
+public interface StorageEngine {
+
+    /**
+     * @return value of the key, null if it is not stored
+     */
+    byte[] get(Id key);
+
+    /**
+     * Pass the value to the reader, the buffer is only valid during the call <br>
+     * Engines keeping values off-heap hand out their own memory, so that a response can be sent without a heap copy.
+     * @return false if the key is not stored
+     */
+    default boolean read(Id key, Consumer<ByteBuffer> reader) {
+        byte[] value = get(key);
+        if (value == null) return false;
+        reader.accept(ByteBuffer.wrap(value).asReadOnlyBuffer());
+        return true;
+    }
+
+    /**
+     * Store the value, replaces previous value and deadline of the key
+     */
+    void put(Id key, byte[] value, long expiresAtMillis);
+
+    /**
+     * Store a value received from the sender, engines enforcing a capacity may refuse it
+     * @return false if the value was not stored
+     */
+    default boolean put(Id key, byte[] value, long expiresAtMillis, NodeReference sender) {
+        put(key, value, expiresAtMillis);
+        return true;
+    }
+
+    /**
+     * Whether a value of the given size from the sender would be stored now, checked before a streamed value is received
+     */
+    default boolean accepts(Id key, long bytes, NodeReference sender) {
+        return true;
+    }
+
+    /**
+     * @return true if the key was stored
+     */
+    boolean delete(Id key);
+
+    /**
+     * Visit every stored key/value pair, concurrent updates may or may not be seen
+     */
+    void scan(BiConsumer<Id, byte[]> visitor);
+
+    /**
+     * Remove all keys whose deadline is not after now
+     * @return removed keys
+     */
+    List<Id> expire(long nowMillis);
+
+    int size();
+
+    /**
+     * Live map view of the stored values
+     */
+    Map<Id, byte[]> asMap();
+
+    /**
+     * Release resources held by the engine, called on node shutdown
+     */
+    default void close() {
+    }
+}
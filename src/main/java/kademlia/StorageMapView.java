@@ -0,0 +1,78 @@
+package kademlia;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Live {@link java.util.Map} view of a {@link StorageEngine} that does not keep value arrays on its own <br>
+ * Values are looked up on access, removal goes through {@link StorageEngine#delete(Id)}.
+ */
+class StorageMapView extends AbstractMap<Id, byte[]> {
+
+    private final StorageEngine engine;
+    private final Supplier<Iterator<Id>> keys;
+
+    StorageMapView(StorageEngine engine, Supplier<Iterator<Id>> keys) {
+        this.engine = engine;
+        this.keys = keys;
+    }
+
+    @Override
+    public byte[] get(Object key) {
+        return key instanceof Id ? engine.get((Id) key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public byte[] remove(Object key) {
+        byte[] value = get(key);
+        if (value != null) engine.delete((Id) key);
+        return value;
+    }
+
+    @Override
+    public int size() {
+        return engine.size();
+    }
+
+    @Override
+    public Set<Entry<Id, byte[]>> entrySet() {
+        return new AbstractSet<Entry<Id, byte[]>>() {
+            @Override
+            public Iterator<Entry<Id, byte[]>> iterator() {
+                Iterator<Id> it = keys.get();
+                return new Iterator<Entry<Id, byte[]>>() {
+                    private Id current;
+
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public Entry<Id, byte[]> next() {
+                        current = it.next();
+                        return new SimpleImmutableEntry<>(current, engine.get(current));
+                    }
+
+                    @Override
+                    public void remove() {
+                        engine.delete(current);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return engine.size();
+            }
+        };
+    }
+}
@@ -0,0 +1,142 @@
+package kademlia;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hashed timing wheel of key deadlines <br>
+ * Time is split into ticks, tick t maps to slot t mod slots. A key only keeps its deadline and the slot it hashes to,
+ * (re)scheduling is O(1): the key is added to its new slot, the entry left in the old slot is dropped lazily. <br>
+ * {@link #advance(long)} visits the slots of all ticks passed since the last call and returns due keys in bulk.
+ * Keys are due at most one tick after their deadline.
+ */
+public class TimingWheel<K> {
+
+    private static final class Entry {
+        final long deadline;
+        final long tick;
+
+        Entry(long deadline, long tick) {
+            this.deadline = deadline;
+            this.tick = tick;
+        }
+    }
+
+    private final long tickMillis;
+    private final int mask;
+    private final List<Set<K>> slots;
+    private final Map<K, Entry> entries = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Last tick that was processed
+     */
+    private long currentTick;
+
+    /**
+     * @param slots rounded up to a power of two
+     */
+    public TimingWheel(Duration tick, int slots, long nowMillis) {
+        if (tick.toMillis() < 1 || slots < 1) {
+            throw new IllegalArgumentException("Tick must be at least 1 ms and wheel must have at least one slot");
+        }
+        this.tickMillis = tick.toMillis();
+        int size = Integer.highestOneBit(slots) == slots ? slots : Integer.highestOneBit(slots) << 1;
+        this.mask = size - 1;
+        this.slots = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            this.slots.add(new HashSet<>());
+        }
+        this.currentTick = nowMillis / tickMillis;
+    }
+
+    /**
+     * Schedule key to be due at the deadline, replaces previous deadline of the key
+     */
+    public void schedule(K key, long deadlineMillis) {
+        lock.lock();
+        try {
+            // round up, so that the key is never due before its deadline
+            long tick = Math.max((deadlineMillis + tickMillis - 1) / tickMillis, currentTick + 1);
+            entries.put(key, new Entry(deadlineMillis, tick));
+            slots.get((int) (tick & mask)).add(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void cancel(K key) {
+        lock.lock();
+        try {
+            Entry entry = entries.remove(key);
+            if (entry != null) {
+                slots.get((int) (entry.tick & mask)).remove(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return deadline of the key, null if it is not scheduled
+     */
+    public Long getDeadline(K key) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            return entry == null ? null : entry.deadline;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Process all ticks up to now
+     * @return keys that became due, they are no longer scheduled
+     */
+    public List<K> advance(long nowMillis) {
+        List<K> due = new ArrayList<>();
+        lock.lock();
+        try {
+            long nowTick = nowMillis / tickMillis;
+            // after a long pause every slot is visited once
+            long from = Math.max(currentTick + 1, nowTick - mask);
+            for (long tick = from; tick <= nowTick; tick++) {
+                int slot = (int) (tick & mask);
+                Iterator<K> it = slots.get(slot).iterator();
+                while (it.hasNext()) {
+                    K key = it.next();
+                    Entry entry = entries.get(key);
+                    if (entry == null || (entry.tick & mask) != slot) {
+                        // cancelled or rescheduled into another slot
+                        it.remove();
+                    } else if (entry.tick <= nowTick) {
+                        it.remove();
+                        entries.remove(key);
+                        due.add(key);
+                    }
+                }
+            }
+            currentTick = Math.max(currentTick, nowTick);
+        } finally {
+            lock.unlock();
+        }
+        return due;
+    }
+}
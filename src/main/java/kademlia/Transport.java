@@ -0,0 +1,91 @@
+package kademlia;
+
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+import proto.Kademlia;
+import proto.KademliaServiceGrpc;
+
+import java.io.IOException;
+
+/**
+ * How a {@link KademliaNode} calls other nodes and receives their calls <br>
+ * Client calls mirror the asynchronous gRPC stub: responses, error and completion arrive at the observer,
+ * a call started within a cancellable {@link io.grpc.Context} is cancelled together with the context.
+ * deadlineMillis of 0 means no deadline. <br>
+ * Received calls are dispatched to the handler given to {@link #startServer}. {@link GrpcTransport} serves them
+ * over the network, a simulation delivers them in virtual time, see {@link kademlia.simulation.SimulatedNetwork}.
+ */
+public interface Transport {
+
+    /**
+     * Start receiving calls, every call is dispatched to the handler
+     */
+    void startServer(KademliaServiceGrpc.KademliaServiceImplBase handler) throws IOException;
+
+    /**
+     * Stop receiving calls, calls to other nodes keep working
+     */
+    void stopServer();
+
+    /**
+     * Stop receiving calls and fail every further call to other nodes
+     */
+    void shutdown();
+
+    void promptNodeLookup(NodeReference node, Kademlia.LookupRequest request, long deadlineMillis,
+                          StreamObserver<Kademlia.LookupResponse> responseObserver);
+
+    void findNode(NodeReference node, Kademlia.FindNodeRequest request, long deadlineMillis,
+                  StreamObserver<Kademlia.FindNodeResponse> responseObserver);
+
+    void findValue(NodeReference node, Kademlia.FindValueRequest request, long deadlineMillis,
+                   StreamObserver<Kademlia.FindValueResponse> responseObserver);
+
+    void store(NodeReference node, Kademlia.StoreRequest request, long deadlineMillis,
+               StreamObserver<Kademlia.StoreResponse> responseObserver);
+
+    /**
+     * Chunks are sent through the call observer handed to {@link ClientResponseObserver#beforeStart}
+     */
+    void storeStream(NodeReference node, long deadlineMillis,
+                     ClientResponseObserver<Kademlia.StoreChunk, Kademlia.StoreResponse> responseObserver);
+
+    void storeBatch(NodeReference node, Kademlia.StoreBatchRequest request, long deadlineMillis,
+                    StreamObserver<Kademlia.StoreBatchResponse> responseObserver);
+
+    void retrieve(NodeReference node, Kademlia.RetrieveRequest request, long deadlineMillis,
+                  StreamObserver<Kademlia.RetrieveResponse> responseObserver);
+
+    void retrieveStream(NodeReference node, Kademlia.RetrieveRequest request, long deadlineMillis,
+                        ClientResponseObserver<Kademlia.RetrieveRequest, Kademlia.RetrieveChunk> responseObserver);
+
+    void delete(NodeReference node, Kademlia.DeleteRequest request, long deadlineMillis,
+                StreamObserver<Kademlia.DeleteResponse> responseObserver);
+
+    void ping(NodeReference node, Kademlia.PingRequest request, long deadlineMillis,
+              StreamObserver<Kademlia.PingResponse> responseObserver);
+
+    /**
+     * Call to the node succeeded, its connection is healthy
+     */
+    default void reportSuccess(NodeReference node) {
+    }
+
+    /**
+     * Call to the node failed, the transport may drop its connection
+     */
+    default void reportFailure(NodeReference node) {
+    }
+
+    /**
+     * Node left the routing table, its connection is no longer needed
+     */
+    default void forget(NodeReference node) {
+    }
+
+    /**
+     * Close connections that were not used for a while, run periodically by the node's maintenance
+     */
+    default void evictIdle() {
+    }
+}
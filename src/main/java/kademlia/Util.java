@@ -5,39 +5,44 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class Util {
 
     /**
-     * Calculate the SHA-1 hash of the input string and return the result as a BigInteger
+     * Calculate the SHA-1 hash of the input string and return the result as an {@link Id}
      */
-    private static BigInteger calculateSHA1(String input) {
+    private static Id calculateSHA1(String input) {
         MessageDigest md = null;
         try {
             md = MessageDigest.getInstance("SHA-1");
         } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace(System.err);
-            return BigInteger.ONE.negate();
+            throw new IllegalStateException("SHA-1 is not available", e);
         }
 
         int bits = KademliaNode.getIdLength();
         BigInteger lastId = BigInteger.valueOf(2L).pow(bits).add(BigInteger.ONE.negate()); // [0, 2^x-1]
         BigInteger hashedString = new BigInteger(1, md.digest(input.getBytes(StandardCharsets.UTF_8)));
 
-        return hashedString.mod(lastId);
+        return Id.of(hashedString.mod(lastId));
     }
 
-    public static String decToBin(BigInteger input) {
-        return input.toString(2);
+    public static String decToBin(Id input) {
+        return input.toBigInteger().toString(2);
     }
 
-    public static BigInteger randomWithinBucket(int bucketIndex) {
-        BigInteger number = new BigInteger(bucketIndex+1, new Random());
-        number = number.setBit(bucketIndex);
-        return number;
+    /**
+     * Random ID whose distance from the owner has its highest bit at bucketIndex, i.e. an ID falling into the owner's bucket
+     */
+    public static Id randomWithinBucket(Id owner, int bucketIndex) {
+        return randomWithinBucket(owner, bucketIndex, ThreadLocalRandom.current());
+    }
+
+    public static Id randomWithinBucket(Id owner, int bucketIndex, Random random) {
+        return owner.xor(Id.randomWithHighestBit(bucketIndex, random));
     }
 
-    public static BigInteger getId(String address) {
+    public static Id getId(String address) {
         return calculateSHA1(address);
     }
 
@@ -0,0 +1,158 @@
+package kademlia;
+
+import com.google.protobuf.ByteString;
+import proto.Kademlia;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encoding of IDs and addresses on the wire and negotiation of the protocol version with other nodes <br>
+ * <b>v1</b>: IDs and key hashes are decimal strings <br>
+ * <b>v2</b>: IDs and key hashes are fixed-width big-endian bytes, IPv4 address and port are packed into one fixed64 <br>
+ * <b>v3</b>: values are bytes, large values are streamed in chunks; older peers get values as UTF-8 strings <br>
+ * Requests to a peer are encoded in v1 until the peer advertises v2, either in a request it sent us or in its response.
+ * Responses are encoded in the version advertised by the sender of the request.
+ */
+public class WireFormat {
+
+    public static final int V1 = 1;
+    public static final int V2 = 2;
+    public static final int V3 = 3;
+
+    /**
+     * Highest version this implementation speaks
+     */
+    public static final int LATEST = V3;
+
+    private final NodeReference self;
+    private final int localVersion;
+
+    /**
+     * Version negotiated with each peer, missing peer is treated as v1
+     */
+    private final Map<NodeReference, Integer> peerVersions = new ConcurrentHashMap<>();
+
+    public WireFormat(NodeReference self, int localVersion) {
+        if (localVersion < V1 || localVersion > LATEST) {
+            throw new IllegalArgumentException("Protocol version must be between " + V1 + " and " + LATEST);
+        }
+        this.self = self;
+        this.localVersion = localVersion;
+    }
+
+    public int getLocalVersion() {
+        return localVersion;
+    }
+
+    /**
+     * Version in which requests to the peer are encoded
+     */
+    public int versionFor(NodeReference peer) {
+        return Math.min(localVersion, peerVersions.getOrDefault(peer, V1));
+    }
+
+    /**
+     * Version in which the response to a request from the sender is encoded
+     */
+    public int versionFor(Kademlia.NodeReference sender) {
+        return Math.min(localVersion, normalize(sender.getProtocolVersion()));
+    }
+
+    /**
+     * Remember version advertised by the peer (in its request or in its response)
+     */
+    public void learn(NodeReference peer, int advertisedVersion) {
+        int version = normalize(advertisedVersion);
+        if (version == V1) {
+            peerVersions.remove(peer);
+        } else {
+            peerVersions.put(peer, version);
+        }
+    }
+
+    public void forget(NodeReference peer) {
+        peerVersions.remove(peer);
+    }
+
+    /**
+     * Reference of this node, advertising its protocol version
+     */
+    public Kademlia.NodeReference self(int version) {
+        return self.toProto(version).toBuilder().setProtocolVersion(localVersion).build();
+    }
+
+    private static int normalize(int advertisedVersion) {
+        // v1 nodes do not set the field at all
+        return Math.max(V1, Math.min(advertisedVersion, LATEST));
+    }
+
+    ////  Encoding  ////
+
+    /**
+     * Unsigned big-endian ID padded to the byte length of the ID space
+     */
+    public static ByteString encodeId(Id id) {
+        int width = (KademliaNode.getIdLength() + 7) / 8;
+        return ByteString.copyFrom(id.toBytes(width));
+    }
+
+    /**
+     * Read v2 raw bytes if present, v1 decimal string otherwise
+     */
+    public static Id decodeId(ByteString raw, String legacy) {
+        if (!raw.isEmpty()) {
+            return Id.fromBytes(raw.toByteArray());
+        }
+        return Id.of(new BigInteger(legacy));
+    }
+
+    /**
+     * Read v3 raw value if present, UTF-8 bytes of the legacy string otherwise
+     */
+    public static byte[] decodeValue(ByteString raw, ByteString legacy) {
+        return raw.isEmpty() ? legacy.toByteArray() : raw.toByteArray();
+    }
+
+    /**
+     * Value as a string for peers older than v3, bytes that are not valid UTF-8 are replaced
+     */
+    public static String legacyValue(ByteBuffer value) {
+        return StandardCharsets.UTF_8.decode(value.duplicate()).toString();
+    }
+
+    /**
+     * Pack IPv4 literal with port, 0 when the address is not an IPv4 literal (e.g. hostname)
+     */
+    public static long packAddress(String ip, int port) {
+        String[] octets = ip.split("\\.", -1);
+        if (octets.length != 4) {
+            return 0;
+        }
+        long packed = 0;
+        for (String octet : octets) {
+            if (octet.isEmpty() || octet.length() > 3 || !octet.chars().allMatch(Character::isDigit)) {
+                return 0;
+            }
+            int value = Integer.parseInt(octet);
+            if (value > 255) {
+                return 0;
+            }
+            packed = (packed << 8) | value;
+        }
+        // bit 48 marks the field as set, so that 0.0.0.0:0 is not confused with an unset field
+        return (1L << 48) | (packed << 16) | (port & 0xFFFF);
+    }
+
+    public static String unpackIp(long packed) {
+        long ip = (packed >>> 16) & 0xFFFFFFFFL;
+        return ((ip >>> 24) & 0xFF) + "." + ((ip >>> 16) & 0xFF) + "." + ((ip >>> 8) & 0xFF) + "." + (ip & 0xFF);
+    }
+
+    public static int unpackPort(long packed) {
+        return (int) (packed & 0xFFFF);
+    }
+}
@@ -0,0 +1,32 @@
+package kademlia.simulation;
+
+import java.time.Duration;
+import java.util.Random;
+
+/**
+ * Session length of a node: how long it stays online after joining <br>
+ * A node leaving the network takes its data with it and is replaced by a fresh node with a new ID,
+ * so the size of the network stays constant.
+ */
+public interface ChurnModel {
+
+    /**
+     * @return session length in milliseconds, Long.MAX_VALUE for a node that never leaves
+     */
+    long sessionMillis(Random random);
+
+    static ChurnModel none() {
+        return random -> Long.MAX_VALUE;
+    }
+
+    /**
+     * Exponentially distributed sessions (nodes leave at a constant rate) with the given mean
+     */
+    static ChurnModel exponential(Duration meanSession) {
+        double mean = meanSession.toMillis();
+        if (mean <= 0) {
+            throw new IllegalArgumentException("Mean session length must be positive");
+        }
+        return random -> (long) (-mean * Math.log(1 - random.nextDouble()));
+    }
+}
@@ -0,0 +1,31 @@
+package kademlia.simulation;
+
+import kademlia.NodeReference;
+
+import java.time.Duration;
+import java.util.Random;
+
+/**
+ * One-way delay of a message between two nodes
+ */
+public interface LatencyModel {
+
+    long latencyMillis(NodeReference from, NodeReference to, Random random);
+
+    static LatencyModel constant(Duration latency) {
+        long millis = latency.toMillis();
+        return (from, to, random) -> millis;
+    }
+
+    /**
+     * Every message independently delayed by a uniformly distributed time in [min, max]
+     */
+    static LatencyModel uniform(Duration min, Duration max) {
+        long low = min.toMillis();
+        long spread = max.toMillis() - low;
+        if (spread < 0) {
+            throw new IllegalArgumentException("Maximum latency must not be lower than minimum latency");
+        }
+        return (from, to, random) -> low + (long) (random.nextDouble() * (spread + 1));
+    }
+}
@@ -0,0 +1,27 @@
+package kademlia.simulation;
+
+import kademlia.NodeReference;
+
+import java.util.Random;
+
+/**
+ * Decides whether a message between two nodes is dropped, the sender then waits for the RPC timeout
+ */
+public interface LossModel {
+
+    boolean isLost(NodeReference from, NodeReference to, Random random);
+
+    static LossModel none() {
+        return (from, to, random) -> false;
+    }
+
+    /**
+     * Every message independently dropped with the given probability
+     */
+    static LossModel uniform(double probability) {
+        if (probability < 0 || probability > 1) {
+            throw new IllegalArgumentException("Loss probability must be between 0 and 1");
+        }
+        return (from, to, random) -> random.nextDouble() < probability;
+    }
+}
@@ -0,0 +1,523 @@
+package kademlia.simulation;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import io.grpc.Context;
+import io.grpc.Status;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import kademlia.NodeReference;
+import kademlia.Transport;
+import proto.Kademlia;
+import proto.KademliaServiceGrpc.KademliaServiceImplBase;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * Network between the {@link kademlia.KademliaNode}s of a simulation, a replacement of gRPC driven by the
+ * {@link Simulator}'s clock <br>
+ * Every node calls the others through its {@link #transport(NodeReference)}. A call reaches the recipient's handler
+ * after the model latency, the responses travel back together after another latency. Messages are serialized and
+ * parsed like on the wire, so caller and recipient never share a buffer. <br>
+ * A call to an offline node or a lost message fails at the call's deadline with DEADLINE_EXCEEDED, like a gRPC
+ * deadline; a call without deadline fails after the RPC timeout with UNAVAILABLE, like a connection to a vanished host.
+ * Cancelling the {@link Context} the call was started in fails the call at once with CANCELLED.
+ */
+public class SimulatedNetwork {
+
+    /**
+     * Sees every call, e.g. to measure lookups
+     */
+    public interface Listener {
+
+        /**
+         * The caller finished sending its requests
+         */
+        default void sent(NodeReference from, NodeReference to, List<? extends MessageLite> requests) {
+        }
+
+        /**
+         * The call ended, responses are empty if it failed
+         */
+        default void completed(NodeReference from, NodeReference to, List<? extends MessageLite> requests,
+                               List<? extends MessageLite> responses) {
+        }
+    }
+
+    private interface Method<Req, Resp> {
+        void invoke(KademliaServiceImplBase handler, Req request, StreamObserver<Resp> responseObserver);
+    }
+
+    private final Simulator simulator;
+    private final LatencyModel latency;
+    private final LossModel loss;
+    private final long rpcTimeoutMillis;
+    private Listener listener = new Listener() {
+    };
+
+    private final Map<NodeReference, KademliaServiceImplBase> online = new HashMap<>();
+
+    /**
+     * Same nodes as online, indexed so that picking a random node is O(1) and deterministic
+     */
+    private final List<NodeReference> onlineList = new ArrayList<>();
+    private final Map<NodeReference, Integer> onlineIndex = new HashMap<>();
+
+    private long rpcs = 0;
+    private long failedRpcs = 0;
+
+    /**
+     * @param rpcTimeout time after which a call without deadline fails when it gets no response
+     */
+    public SimulatedNetwork(Simulator simulator, LatencyModel latency, LossModel loss, Duration rpcTimeout) {
+        this.simulator = simulator;
+        this.latency = latency;
+        this.loss = loss;
+        this.rpcTimeoutMillis = rpcTimeout.toMillis();
+    }
+
+    public Simulator getSimulator() {
+        return simulator;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Transport of the node, it is online from {@link Transport#startServer} until {@link Transport#stopServer}
+     */
+    public Transport transport(NodeReference node) {
+        return new Endpoint(node);
+    }
+
+    public boolean isOnline(NodeReference node) {
+        return online.containsKey(node);
+    }
+
+    /**
+     * Uniformly random online node, null if there is none
+     */
+    public NodeReference randomOnline() {
+        if (onlineList.isEmpty()) return null;
+        return onlineList.get(simulator.random().nextInt(onlineList.size()));
+    }
+
+    public List<NodeReference> getOnline() {
+        return Collections.unmodifiableList(onlineList);
+    }
+
+    public int getOnlineCount() {
+        return onlineList.size();
+    }
+
+    /**
+     * Calls made so far, including the failed ones
+     */
+    public long getRpcs() {
+        return rpcs;
+    }
+
+    /**
+     * Calls that timed out because of loss, an offline recipient or latency
+     */
+    public long getFailedRpcs() {
+        return failedRpcs;
+    }
+
+    private void goOnline(NodeReference node, KademliaServiceImplBase handler) {
+        if (online.putIfAbsent(node, handler) == null) {
+            onlineIndex.put(node, onlineList.size());
+            onlineList.add(node);
+        }
+    }
+
+    private void goOffline(NodeReference node) {
+        if (online.remove(node) == null) return;
+        // swap with the last one, so that removal is O(1)
+        int index = onlineIndex.remove(node);
+        NodeReference last = onlineList.remove(onlineList.size() - 1);
+        if (!last.equals(node)) {
+            onlineList.set(index, last);
+            onlineIndex.put(last, index);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends MessageLite> T copy(T message) {
+        try {
+            return (T) message.getParserForType().parseFrom(message.toByteString());
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalStateException("Message does not parse back", e);
+        }
+    }
+
+    /**
+     * Client side of a call: collects the requests until the caller closes its side, then sends them all at once
+     */
+    private final class Call<Req extends MessageLite, Resp extends MessageLite> extends ClientCallStreamObserver<Req>
+            implements Context.CancellationListener {
+
+        private final NodeReference from;
+        private final NodeReference to;
+        private final long deadlineMillis;
+        private final StreamObserver<Resp> responseObserver;
+        private final BiFunction<KademliaServiceImplBase, StreamObserver<Resp>, StreamObserver<Req>> dispatch;
+        private final Context context = Context.current();
+        private final List<Req> requests = new ArrayList<>();
+        private Runnable onReady;
+        private boolean halfClosed = false;
+        private boolean aborted = false;
+        private boolean finished = false;
+
+        Call(NodeReference from, NodeReference to, long deadlineMillis, StreamObserver<Resp> responseObserver,
+             BiFunction<KademliaServiceImplBase, StreamObserver<Resp>, StreamObserver<Req>> dispatch) {
+            this.from = from;
+            this.to = to;
+            this.deadlineMillis = deadlineMillis;
+            this.responseObserver = responseObserver;
+            this.dispatch = dispatch;
+        }
+
+        @SuppressWarnings("unchecked")
+        void start() {
+            rpcs++;
+            if (responseObserver instanceof ClientResponseObserver) {
+                ((ClientResponseObserver<Req, Resp>) responseObserver).beforeStart(this);
+            }
+            if (context.isCancelled()) {
+                cancelled(context);
+                return;
+            }
+            context.addListener(this, Runnable::run);
+            if (deadlineMillis > 0) {
+                simulator.schedule(deadlineMillis, () -> timeout(Status.DEADLINE_EXCEEDED));
+            }
+            if (onReady != null) {
+                simulator.schedule(0, () -> {
+                    if (isReady()) context.run(onReady);
+                });
+            }
+        }
+
+        @Override
+        public void onNext(Req request) {
+            if (halfClosed || aborted) return;
+            requests.add(copy(request));
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            cancel("Cancelled by the client", throwable);
+        }
+
+        @Override
+        public void onCompleted() {
+            if (halfClosed || aborted) return;
+            halfClosed = true;
+            listener.sent(from, to, requests);
+            if (loss.isLost(from, to, simulator.random())) {
+                drop();
+                return;
+            }
+            simulator.schedule(latency.latencyMillis(from, to, simulator.random()), this::deliver);
+        }
+
+        @Override
+        public boolean isReady() {
+            return !halfClosed && !aborted;
+        }
+
+        @Override
+        public void setOnReadyHandler(Runnable onReady) {
+            this.onReady = onReady;
+        }
+
+        @Override
+        public void disableAutoInboundFlowControl() {
+        }
+
+        @Override
+        public void request(int count) {
+        }
+
+        @Override
+        public void setMessageCompression(boolean enable) {
+        }
+
+        @Override
+        public void cancel(String message, Throwable cause) {
+            abort(Status.CANCELLED.withDescription(message).withCause(cause));
+        }
+
+        @Override
+        public void cancelled(Context context) {
+            abort(Status.CANCELLED.withDescription("Context cancelled").withCause(context.cancellationCause()));
+        }
+
+        /**
+         * Fail the call right after the current event, nothing is sent or delivered afterwards
+         */
+        void abort(Status status) {
+            if (aborted || finished) return;
+            aborted = true;
+            simulator.schedule(0, () -> finish(Collections.emptyList(), status));
+        }
+
+        /**
+         * Requests arrived at the recipient, the handler answers now or later
+         */
+        private void deliver() {
+            // past its deadline or cancelled, the recipient drops the call
+            if (aborted || finished) return;
+            KademliaServiceImplBase handler = online.get(to);
+            if (handler == null) {
+                drop();
+                return;
+            }
+            // handlers see a server call, its responses travel back together once it is completed
+            ServerCallStreamObserver<Resp> responses = new ServerCallStreamObserver<Resp>() {
+                private final List<Resp> sent = new ArrayList<>();
+                private boolean done = false;
+
+                @Override
+                public boolean isCancelled() {
+                    return aborted || finished;
+                }
+
+                @Override
+                public void setOnCancelHandler(Runnable onCancel) {
+                }
+
+                @Override
+                public void setCompression(String compression) {
+                }
+
+                @Override
+                public boolean isReady() {
+                    return !done && !isCancelled();
+                }
+
+                @Override
+                public void setOnReadyHandler(Runnable onReady) {
+                    simulator.schedule(0, () -> {
+                        if (isReady()) onReady.run();
+                    });
+                }
+
+                @Override
+                public void disableAutoInboundFlowControl() {
+                }
+
+                @Override
+                public void request(int count) {
+                }
+
+                @Override
+                public void setMessageCompression(boolean enable) {
+                }
+
+                @Override
+                public void onNext(Resp response) {
+                    if (!done) sent.add(copy(response));
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    if (done) return;
+                    done = true;
+                    respond(Collections.emptyList(), Status.fromThrowable(throwable));
+                }
+
+                @Override
+                public void onCompleted() {
+                    if (done) return;
+                    done = true;
+                    respond(sent, null);
+                }
+            };
+            try {
+                StreamObserver<Req> requestObserver = dispatch.apply(handler, responses);
+                requests.forEach(requestObserver::onNext);
+                requestObserver.onCompleted();
+            } catch (RuntimeException e) {
+                responses.onError(Status.UNKNOWN.withCause(e).asRuntimeException());
+            }
+        }
+
+        private void respond(List<Resp> responses, Status status) {
+            if (loss.isLost(to, from, simulator.random())) {
+                drop();
+                return;
+            }
+            simulator.schedule(latency.latencyMillis(to, from, simulator.random()), () -> finish(responses, status));
+        }
+
+        /**
+         * Request or response did not arrive, the call fails at its deadline or after the RPC timeout
+         */
+        private void drop() {
+            if (deadlineMillis == 0) {
+                simulator.schedule(rpcTimeoutMillis, () -> timeout(Status.UNAVAILABLE));
+            }
+        }
+
+        private void timeout(Status status) {
+            if (finished) return;
+            failedRpcs++;
+            finish(Collections.emptyList(), status.withDescription("Simulated call to " + to + " timed out"));
+        }
+
+        /**
+         * @param status null if the call succeeded
+         */
+        private void finish(List<Resp> responses, Status status) {
+            if (finished) return;
+            finished = true;
+            context.removeListener(this);
+            listener.completed(from, to, requests, responses);
+            // callbacks run in the context of the call, like the ones of gRPC
+            context.run(() -> {
+                responses.forEach(responseObserver::onNext);
+                if (status == null) {
+                    responseObserver.onCompleted();
+                } else {
+                    responseObserver.onError(status.asRuntimeException());
+                }
+            });
+        }
+    }
+
+    /**
+     * Transport of a single node
+     */
+    private final class Endpoint implements Transport {
+
+        private final NodeReference self;
+        private boolean closed = false;
+
+        Endpoint(NodeReference self) {
+            this.self = self;
+        }
+
+        @Override
+        public void startServer(KademliaServiceImplBase handler) {
+            goOnline(self, handler);
+        }
+
+        @Override
+        public void stopServer() {
+            goOffline(self);
+        }
+
+        @Override
+        public void shutdown() {
+            closed = true;
+            goOffline(self);
+        }
+
+        @Override
+        public void promptNodeLookup(NodeReference node, Kademlia.LookupRequest request, long deadlineMillis,
+                                     StreamObserver<Kademlia.LookupResponse> responseObserver) {
+            unary(node, request, deadlineMillis, responseObserver, KademliaServiceImplBase::promptNodeLookup);
+        }
+
+        @Override
+        public void findNode(NodeReference node, Kademlia.FindNodeRequest request, long deadlineMillis,
+                             StreamObserver<Kademlia.FindNodeResponse> responseObserver) {
+            unary(node, request, deadlineMillis, responseObserver, KademliaServiceImplBase::findNode);
+        }
+
+        @Override
+        public void findValue(NodeReference node, Kademlia.FindValueRequest request, long deadlineMillis,
+                              StreamObserver<Kademlia.FindValueResponse> responseObserver) {
+            unary(node, request, deadlineMillis, responseObserver, KademliaServiceImplBase::findValue);
+        }
+
+        @Override
+        public void store(NodeReference node, Kademlia.StoreRequest request, long deadlineMillis,
+                          StreamObserver<Kademlia.StoreResponse> responseObserver) {
+            unary(node, request, deadlineMillis, responseObserver, KademliaServiceImplBase::store);
+        }
+
+        @Override
+        public void storeStream(NodeReference node, long deadlineMillis,
+                                ClientResponseObserver<Kademlia.StoreChunk, Kademlia.StoreResponse> responseObserver) {
+            open(node, deadlineMillis, responseObserver, KademliaServiceImplBase::storeStream);
+        }
+
+        @Override
+        public void storeBatch(NodeReference node, Kademlia.StoreBatchRequest request, long deadlineMillis,
+                               StreamObserver<Kademlia.StoreBatchResponse> responseObserver) {
+            unary(node, request, deadlineMillis, responseObserver, KademliaServiceImplBase::storeBatch);
+        }
+
+        @Override
+        public void retrieve(NodeReference node, Kademlia.RetrieveRequest request, long deadlineMillis,
+                             StreamObserver<Kademlia.RetrieveResponse> responseObserver) {
+            unary(node, request, deadlineMillis, responseObserver, KademliaServiceImplBase::retrieve);
+        }
+
+        @Override
+        public void retrieveStream(NodeReference node, Kademlia.RetrieveRequest request, long deadlineMillis,
+                                   ClientResponseObserver<Kademlia.RetrieveRequest, Kademlia.RetrieveChunk> responseObserver) {
+            unary(node, request, deadlineMillis, responseObserver, KademliaServiceImplBase::retrieveStream);
+        }
+
+        @Override
+        public void delete(NodeReference node, Kademlia.DeleteRequest request, long deadlineMillis,
+                           StreamObserver<Kademlia.DeleteResponse> responseObserver) {
+            unary(node, request, deadlineMillis, responseObserver, KademliaServiceImplBase::delete);
+        }
+
+        @Override
+        public void ping(NodeReference node, Kademlia.PingRequest request, long deadlineMillis,
+                         StreamObserver<Kademlia.PingResponse> responseObserver) {
+            unary(node, request, deadlineMillis, responseObserver, KademliaServiceImplBase::ping);
+        }
+
+        /**
+         * Single request, the handler is invoked with it once it arrived
+         */
+        private <Req extends MessageLite, Resp extends MessageLite> void unary(NodeReference node, Req request, long deadlineMillis,
+                                                                             StreamObserver<Resp> responseObserver,
+                                                                             Method<Req, Resp> method) {
+            Call<Req, Resp> call = open(node, deadlineMillis, responseObserver, (handler, responses) -> new StreamObserver<Req>() {
+                @Override
+                public void onNext(Req received) {
+                    method.invoke(handler, received, responses);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                }
+
+                @Override
+                public void onCompleted() {
+                }
+            });
+            call.onNext(request);
+            call.onCompleted();
+        }
+
+        private <Req extends MessageLite, Resp extends MessageLite> Call<Req, Resp> open(
+                NodeReference node, long deadlineMillis, StreamObserver<Resp> responseObserver,
+                BiFunction<KademliaServiceImplBase, StreamObserver<Resp>, StreamObserver<Req>> dispatch) {
+            Call<Req, Resp> call = new Call<>(self, node, deadlineMillis, responseObserver, dispatch);
+            if (closed) {
+                // like a call on a shut down channel
+                call.abort(Status.UNAVAILABLE.withDescription("Transport of " + self + " is shut down"));
+            }
+            call.start();
+            return call;
+        }
+    }
+}
@@ -0,0 +1,513 @@
+package kademlia.simulation;
+
+import com.google.protobuf.MessageLite;
+import kademlia.Id;
+import kademlia.KademliaNode;
+import kademlia.NodeReference;
+import kademlia.StorageEngine;
+import kademlia.Util;
+import kademlia.WireFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import proto.Kademlia;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Deterministic simulation of a whole Kademlia network in one JVM, see {@link Simulator} and {@link SimulatedNetwork} <br>
+ * Every node is a {@link KademliaNode}: calls go through the simulated network instead of gRPC, the node reads the
+ * virtual clock and the seeded random, its maintenance (refresh, republish, expiration) runs on virtual-time ticks. <br>
+ * Setup: nodes join one by one through a random online node, then random nodes publish the keys. <br>
+ * Measurement: a random online node looks up a random published key every lookup interval, nodes leave and are
+ * replaced according to the churn model, publishers republish their keys. Every sample interval adds a
+ * {@link SimulationReport.Sample}. <br>
+ * Runs with the same seed and settings produce the same report. The run configures the static settings of
+ * {@link KademliaNode} for the nodes it creates and restores all of them afterwards.
+ * <pre>mvn compile exec:java -Dexec.mainClass=kademlia.simulation.Simulation -Dexec.args="nodes=10000 churn=PT30M loss=0.01"</pre>
+ */
+public class Simulation {
+
+    private static final Logger logger = LoggerFactory.getLogger(Simulation.class);
+
+    /**
+     * Lookup in flight, hop of a node is one more than the hop of the node that returned it
+     */
+    private static final class Trace {
+        final long start;
+        final Map<NodeReference, Integer> hops = new HashMap<>();
+        int rpcs = 0;
+        int valueHop = 0;
+
+        Trace(long start) {
+            this.start = start;
+        }
+    }
+
+    private final long seed;
+
+    private int nodes = 1000;
+    private int idLength = Id.BITS;
+    private int k = 20;
+    private int alpha = 3;
+    private int keys = 100;
+    private LatencyModel latency = LatencyModel.uniform(Duration.ofMillis(10), Duration.ofMillis(150));
+    private LossModel loss = LossModel.none();
+    private ChurnModel churn = ChurnModel.none();
+    private Duration rpcTimeout = Duration.ofSeconds(5);
+    private Duration minPingInterval = Duration.ofSeconds(5);
+    private Duration republishInterval = Duration.ofMinutes(15);
+    private Duration expireInterval = Duration.ofMinutes(15).plus(Duration.ofSeconds(10));
+    private Duration expireTick = Duration.ofSeconds(1);
+    private Duration refreshInterval = Duration.ofMinutes(10);
+    private Duration joinSpacing = Duration.ofMillis(50);
+    private Duration lookupInterval = Duration.ofMillis(100);
+    private Duration sampleInterval = Duration.ofMinutes(1);
+
+    private Simulator simulator;
+    private SimulatedNetwork network;
+    private final Map<NodeReference, KademliaNode> online = new HashMap<>();
+    private final List<String> published = new ArrayList<>();
+    private final Map<NodeReference, Map<Id, Trace>> traces = new HashMap<>();
+    private int addresses = 0;
+
+    // current sample interval
+    private int lookups;
+    private int successful;
+    private long hops;
+    private int maxHops;
+    private long lookupRpcs;
+    private long latencyMillis;
+    private long rpcsBefore;
+    private long failedRpcsBefore;
+
+    public Simulation(long seed) {
+        this.seed = seed;
+    }
+
+    public Simulation nodes(int nodes) {
+        if (nodes < 1) throw new IllegalArgumentException("At least one node is required");
+        this.nodes = nodes;
+        return this;
+    }
+
+    /**
+     * Bits of node IDs and keys, see {@link KademliaNode#setIdLength(int)}
+     */
+    public Simulation idLength(int idLength) {
+        if (idLength < 4 || idLength > Id.BITS) throw new IllegalArgumentException("ID length must be between 4 and " + Id.BITS);
+        this.idLength = idLength;
+        return this;
+    }
+
+    public Simulation k(int k) {
+        if (k < 1 || k > 20) throw new IllegalArgumentException("k must be between 1 and 20");
+        this.k = k;
+        return this;
+    }
+
+    public Simulation alpha(int alpha) {
+        if (alpha < 1 || alpha > 10) throw new IllegalArgumentException("Alpha must be between 1 and 10");
+        this.alpha = alpha;
+        return this;
+    }
+
+    /**
+     * Number of keys published during the setup
+     */
+    public Simulation keys(int keys) {
+        if (keys < 1) throw new IllegalArgumentException("At least one key is required");
+        this.keys = keys;
+        return this;
+    }
+
+    public Simulation latency(LatencyModel latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    public Simulation loss(LossModel loss) {
+        this.loss = loss;
+        return this;
+    }
+
+    public Simulation churn(ChurnModel churn) {
+        this.churn = churn;
+        return this;
+    }
+
+    public Simulation rpcTimeout(Duration rpcTimeout) {
+        this.rpcTimeout = rpcTimeout;
+        return this;
+    }
+
+    /**
+     * Rate limit of ping-before-evict per bucket, see {@link kademlia.RoutingTable#setPingHandler}
+     */
+    public Simulation minPingInterval(Duration minPingInterval) {
+        this.minPingInterval = minPingInterval;
+        return this;
+    }
+
+    public Simulation republishInterval(Duration republishInterval) {
+        this.republishInterval = republishInterval;
+        return this;
+    }
+
+    public Simulation expireInterval(Duration expireInterval) {
+        this.expireInterval = expireInterval;
+        return this;
+    }
+
+    /**
+     * Resolution of key expiration, coarser than on a real node to keep the number of events down
+     */
+    public Simulation expireTick(Duration expireTick) {
+        if (expireTick.toMillis() < 1) throw new IllegalArgumentException("Expire tick must be at least 1 ms");
+        this.expireTick = expireTick;
+        return this;
+    }
+
+    public Simulation refreshInterval(Duration refreshInterval) {
+        this.refreshInterval = refreshInterval;
+        return this;
+    }
+
+    /**
+     * Time between two joins during the setup
+     */
+    public Simulation joinSpacing(Duration joinSpacing) {
+        this.joinSpacing = joinSpacing;
+        return this;
+    }
+
+    /**
+     * Time between two value lookups of the workload
+     */
+    public Simulation lookupInterval(Duration lookupInterval) {
+        if (lookupInterval.toMillis() < 1) throw new IllegalArgumentException("Lookup interval must be at least 1 ms");
+        this.lookupInterval = lookupInterval;
+        return this;
+    }
+
+    public Simulation sampleInterval(Duration sampleInterval) {
+        if (sampleInterval.toMillis() < 1) throw new IllegalArgumentException("Sample interval must be at least 1 ms");
+        this.sampleInterval = sampleInterval;
+        return this;
+    }
+
+    /**
+     * Build the network, publish the keys and measure for the given simulated time
+     */
+    public SimulationReport run(Duration duration) {
+        simulator = new Simulator(seed);
+        network = new SimulatedNetwork(simulator, latency, loss, rpcTimeout);
+        network.setListener(new SimulatedNetwork.Listener() {
+            @Override
+            public void sent(NodeReference from, NodeReference to, List<? extends MessageLite> requests) {
+                Trace trace = trace(from, requests);
+                if (trace != null) trace.rpcs++;
+            }
+
+            @Override
+            public void completed(NodeReference from, NodeReference to, List<? extends MessageLite> requests,
+                                  List<? extends MessageLite> responses) {
+                Trace trace = trace(from, requests);
+                if (trace == null || responses.isEmpty()) return;
+                int hop = trace.hops.getOrDefault(to, 1);
+                MessageLite response = responses.get(0);
+                if (isValue(response)) {
+                    if (trace.valueHop == 0) trace.valueHop = hop;
+                } else if (response instanceof Kademlia.FindValueResponse) {
+                    ((Kademlia.FindValueResponse) response).getKClosestList()
+                            .forEach(n -> trace.hops.putIfAbsent(new NodeReference(n), hop + 1));
+                } else if (response instanceof Kademlia.FindNodeResponse) {
+                    ((Kademlia.FindNodeResponse) response).getKClosestList()
+                            .forEach(n -> trace.hops.putIfAbsent(new NodeReference(n), hop + 1));
+                }
+            }
+        });
+        online.clear();
+        published.clear();
+        traces.clear();
+        addresses = 0;
+
+        // settings of nodes created outside of the simulation, restored afterwards
+        int savedIdLength = KademliaNode.getIdLength();
+        int savedK = KademliaNode.getK();
+        int savedAlpha = KademliaNode.getAlpha();
+        Duration savedRpcTimeout = KademliaNode.getRpcTimeout();
+        Duration savedMinPingInterval = KademliaNode.getMinPingInterval();
+        Duration savedRepublishInterval = KademliaNode.getRepublishInterval();
+        Duration savedExpireInterval = KademliaNode.getExpireInterval();
+        Duration savedExpireTick = KademliaNode.getExpireTick();
+        Duration savedRefreshInterval = KademliaNode.getRefreshInterval();
+        Function<NodeReference, StorageEngine> savedStorageEngineFactory = KademliaNode.getStorageEngineFactory();
+
+        KademliaNode.setIdLength(idLength);
+        KademliaNode.setK(k);
+        KademliaNode.setAlpha(alpha);
+        KademliaNode.setRpcTimeout(rpcTimeout);
+        KademliaNode.setMinPingInterval(minPingInterval);
+        KademliaNode.setRepublishInterval(republishInterval);
+        KademliaNode.setExpireInterval(expireInterval);
+        KademliaNode.setExpireTick(expireTick);
+        KademliaNode.setRefreshInterval(refreshInterval);
+        KademliaNode.setStorageEngineFactory(null);
+        KademliaNode.setClock(simulator::now);
+        KademliaNode.setTransportFactory(network::transport);
+        KademliaNode.setMaintenanceTicker(node -> simulator.ticker());
+        KademliaNode.setRandom(simulator::random);
+        try {
+            return measure(duration);
+        } finally {
+            KademliaNode.setClock(null);
+            KademliaNode.setTransportFactory(null);
+            KademliaNode.setMaintenanceTicker(null);
+            KademliaNode.setRandom(null);
+            // ID length first, K is checked against it
+            KademliaNode.setIdLength(savedIdLength);
+            KademliaNode.setK(savedK);
+            KademliaNode.setAlpha(savedAlpha);
+            KademliaNode.setRpcTimeout(savedRpcTimeout);
+            KademliaNode.setMinPingInterval(savedMinPingInterval);
+            KademliaNode.setRepublishInterval(savedRepublishInterval);
+            KademliaNode.setExpireInterval(savedExpireInterval);
+            KademliaNode.setExpireTick(savedExpireTick);
+            KademliaNode.setRefreshInterval(savedRefreshInterval);
+            KademliaNode.setStorageEngineFactory(savedStorageEngineFactory);
+        }
+    }
+
+    private SimulationReport measure(Duration duration) {
+        long spacing = joinSpacing.toMillis();
+        spawn();
+        for (int i = 1; i < nodes; i++) {
+            simulator.schedule(i * spacing, this::spawn);
+        }
+        long publishStart = nodes * spacing;
+        for (int i = 0; i < keys; i++) {
+            simulator.schedule(publishStart + i * spacing, this::publish);
+        }
+        // let the last stores finish
+        long start = publishStart + keys * spacing + 2 * rpcTimeout.toMillis();
+        simulator.runUntil(start);
+
+        SimulationReport report = new SimulationReport();
+        rpcsBefore = network.getRpcs();
+        failedRpcsBefore = network.getFailedRpcs();
+        long lookupEvery = lookupInterval.toMillis();
+        long sampleEvery = sampleInterval.toMillis();
+        long end = start + duration.toMillis();
+        long nextLookup = start;
+        for (long sampleEnd = start + sampleEvery; sampleEnd <= end; sampleEnd += sampleEvery) {
+            for (; nextLookup < sampleEnd; nextLookup += lookupEvery) {
+                simulator.schedule(nextLookup - simulator.now(), this::lookup);
+            }
+            simulator.runUntil(sampleEnd);
+            report.add(sample(sampleEnd - start));
+        }
+        return report;
+    }
+
+    public Simulator getSimulator() {
+        return simulator;
+    }
+
+    public SimulatedNetwork getNetwork() {
+        return network;
+    }
+
+    /**
+     * Online node by its reference, null if it is not online
+     */
+    public KademliaNode getNode(NodeReference node) {
+        return online.get(node);
+    }
+
+    /**
+     * Uniformly random ID of idLength bits
+     */
+    private Id randomId() {
+        Id id = Id.randomWithHighestBit(idLength - 1, simulator.random());
+        return simulator.random().nextBoolean() ? id.xor(Id.ZERO.setBit(idLength - 1)) : id;
+    }
+
+    /**
+     * New node joining through a random online node, the first one starts the network
+     */
+    private void spawn() {
+        NodeReference bootstrap = network.randomOnline();
+        int address = addresses++;
+        String ip = "10." + ((address >> 16) & 0xff) + "." + ((address >> 8) & 0xff) + "." + (address & 0xff);
+        KademliaNode node = new KademliaNode(ip, 5_000, randomId());
+        try {
+            if (bootstrap == null) {
+                node.initKademlia();
+            } else {
+                node.joinAsync(bootstrap);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        online.put(node.getNodeReference(), node);
+        scheduleDeparture(node);
+    }
+
+    private void scheduleDeparture(KademliaNode node) {
+        long session = churn.sessionMillis(simulator.random());
+        if (session == Long.MAX_VALUE) return;
+        simulator.schedule(session, () -> {
+            online.remove(node.getNodeReference());
+            traces.remove(node.getNodeReference());
+            node.leave();
+            spawn();
+        });
+    }
+
+    /**
+     * Random node becomes the original publisher of the next key, its maintenance republishes it
+     */
+    private void publish() {
+        KademliaNode publisher = online.get(network.randomOnline());
+        String key = "key-" + published.size();
+        published.add(key);
+        publisher.putAsync(key, key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void lookup() {
+        KademliaNode node = online.get(network.randomOnline());
+        String key = published.get(simulator.random().nextInt(published.size()));
+        Map<Id, Trace> inFlight = traces.computeIfAbsent(node.getNodeReference(), n -> new HashMap<>());
+        Id keyId = Util.getId(key);
+        // calls of two lookups of the same key could not be told apart
+        if (inFlight.containsKey(keyId)) return;
+        Trace trace = new Trace(simulator.now());
+        inFlight.put(keyId, trace);
+        node.getBytesAsync(key).whenComplete((value, throwable) -> {
+            inFlight.remove(keyId);
+            lookups++;
+            lookupRpcs += trace.rpcs;
+            latencyMillis += simulator.now() - trace.start;
+            if (value != null) {
+                successful++;
+                hops += trace.valueHop;
+                maxHops = Math.max(maxHops, trace.valueHop);
+            }
+        });
+    }
+
+    /**
+     * Trace of the lookup a call belongs to, null for other calls <br>
+     * Nodes not known to speak v2 yet are asked with RETRIEVE and FIND_NODE instead of FIND_VALUE,
+     * every such call of the node about the key counts towards its lookup.
+     */
+    private Trace trace(NodeReference from, List<? extends MessageLite> requests) {
+        Map<Id, Trace> inFlight = traces.get(from);
+        if (inFlight == null || requests.isEmpty()) return null;
+        MessageLite request = requests.get(0);
+        if (request instanceof Kademlia.FindValueRequest) {
+            return inFlight.get(WireFormat.decodeId(((Kademlia.FindValueRequest) request).getRawKey(), ""));
+        }
+        if (request instanceof Kademlia.RetrieveRequest) {
+            Kademlia.RetrieveRequest retrieve = (Kademlia.RetrieveRequest) request;
+            return inFlight.get(WireFormat.decodeId(retrieve.getRawKey(), retrieve.getKey()));
+        }
+        if (request instanceof Kademlia.FindNodeRequest) {
+            Kademlia.FindNodeRequest findNode = (Kademlia.FindNodeRequest) request;
+            return inFlight.get(WireFormat.decodeId(findNode.getRawTargetId(), findNode.getTargetId()));
+        }
+        return null;
+    }
+
+    private static boolean isValue(MessageLite response) {
+        if (response instanceof Kademlia.FindValueResponse) {
+            return ((Kademlia.FindValueResponse) response).getStatus() == Kademlia.Status.SUCCESS;
+        }
+        return response instanceof Kademlia.RetrieveResponse
+                && ((Kademlia.RetrieveResponse) response).getStatus() == Kademlia.Status.SUCCESS;
+    }
+
+    private SimulationReport.Sample sample(long time) {
+        Set<Id> keyIds = published.stream().map(Util::getId).collect(Collectors.toSet());
+        Set<Id> available = new HashSet<>();
+        for (KademliaNode node : online.values()) {
+            node.getStorage().scan((key, value) -> {
+                if (keyIds.contains(key)) available.add(key);
+            });
+        }
+        long rpcs = network.getRpcs();
+        long failedRpcs = network.getFailedRpcs();
+        SimulationReport.Sample sample = new SimulationReport.Sample(time, network.getOnlineCount(), lookups, successful,
+                hops, maxHops, lookupRpcs, latencyMillis, rpcs - rpcsBefore, failedRpcs - failedRpcsBefore,
+                (double) available.size() / keyIds.size());
+        lookups = 0;
+        successful = 0;
+        hops = 0;
+        maxHops = 0;
+        lookupRpcs = 0;
+        latencyMillis = 0;
+        rpcsBefore = rpcs;
+        failedRpcsBefore = failedRpcs;
+        return sample;
+    }
+
+    /**
+     * Arguments as name=value: seed, nodes, idLength, k, alpha, keys, duration, churn (mean session), loss (probability),
+     * minLatency, maxLatency, joinSpacing, lookupInterval, sampleInterval, expireTick, refreshInterval;
+     * durations in ISO-8601, e.g. PT30M
+     */
+    public static void main(String[] args) {
+        long seed = 1;
+        Duration duration = Duration.ofMinutes(30);
+        Duration minLatency = Duration.ofMillis(10);
+        Duration maxLatency = Duration.ofMillis(150);
+        List<String> rest = new ArrayList<>();
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            if (pair.length != 2) throw new IllegalArgumentException("Expected name=value, got " + arg);
+            switch (pair[0]) {
+                case "seed": seed = Long.parseLong(pair[1]); break;
+                case "duration": duration = Duration.parse(pair[1]); break;
+                case "minLatency": minLatency = Duration.parse(pair[1]); break;
+                case "maxLatency": maxLatency = Duration.parse(pair[1]); break;
+                default: rest.add(arg);
+            }
+        }
+        Simulation simulation = new Simulation(seed).latency(LatencyModel.uniform(minLatency, maxLatency));
+        for (String arg : rest) {
+            String[] pair = arg.split("=", 2);
+            switch (pair[0]) {
+                case "nodes": simulation.nodes(Integer.parseInt(pair[1])); break;
+                case "idLength": simulation.idLength(Integer.parseInt(pair[1])); break;
+                case "k": simulation.k(Integer.parseInt(pair[1])); break;
+                case "alpha": simulation.alpha(Integer.parseInt(pair[1])); break;
+                case "keys": simulation.keys(Integer.parseInt(pair[1])); break;
+                case "churn": simulation.churn(ChurnModel.exponential(Duration.parse(pair[1]))); break;
+                case "loss": simulation.loss(LossModel.uniform(Double.parseDouble(pair[1]))); break;
+                case "joinSpacing": simulation.joinSpacing(Duration.parse(pair[1])); break;
+                case "lookupInterval": simulation.lookupInterval(Duration.parse(pair[1])); break;
+                case "sampleInterval": simulation.sampleInterval(Duration.parse(pair[1])); break;
+                case "expireTick": simulation.expireTick(Duration.parse(pair[1])); break;
+                case "refreshInterval": simulation.refreshInterval(Duration.parse(pair[1])); break;
+                default: throw new IllegalArgumentException("Unknown argument " + pair[0]);
+            }
+        }
+        long wallStart = System.nanoTime();
+        SimulationReport report = simulation.run(duration);
+        logger.info("Simulation of seed {}:{}{}", seed, System.lineSeparator(), report);
+        logger.info("{} events in {} s", simulation.getSimulator().getProcessedEvents(),
+                String.format(Locale.ROOT, "%.1f", (System.nanoTime() - wallStart) / 1e9));
+    }
+}
@@ -0,0 +1,167 @@
+package kademlia.simulation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Time series produced by a {@link Simulation}, one {@link Sample} per sample interval
+ */
+public class SimulationReport {
+
+    /**
+     * Lookups completed and RPCs sent within one sample interval, network state at its end
+     */
+    public static final class Sample {
+        private final long timeMillis;
+        private final int onlineNodes;
+        private final int lookups;
+        private final int successful;
+        private final long hops;
+        private final int maxHops;
+        private final long lookupRpcs;
+        private final long latencyMillis;
+        private final long rpcs;
+        private final long failedRpcs;
+        private final double availability;
+
+        Sample(long timeMillis, int onlineNodes, int lookups, int successful, long hops, int maxHops, long lookupRpcs,
+               long latencyMillis, long rpcs, long failedRpcs, double availability) {
+            this.timeMillis = timeMillis;
+            this.onlineNodes = onlineNodes;
+            this.lookups = lookups;
+            this.successful = successful;
+            this.hops = hops;
+            this.maxHops = maxHops;
+            this.lookupRpcs = lookupRpcs;
+            this.latencyMillis = latencyMillis;
+            this.rpcs = rpcs;
+            this.failedRpcs = failedRpcs;
+            this.availability = availability;
+        }
+
+        /**
+         * End of the interval, measured from the end of the setup
+         */
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        public int getOnlineNodes() {
+            return onlineNodes;
+        }
+
+        /**
+         * Value lookups completed within the interval
+         */
+        public int getLookups() {
+            return lookups;
+        }
+
+        /**
+         * Value lookups that found the value
+         */
+        public int getSuccessful() {
+            return successful;
+        }
+
+        public double getSuccessRate() {
+            return lookups == 0 ? 0 : (double) successful / lookups;
+        }
+
+        /**
+         * Mean hops of the successful lookups: nodes from the own routing table are one hop away, nodes returned
+         * by a node of hop h are h + 1 hops away, the hop of a lookup is the hop of the first node returning the value
+         */
+        public double getMeanHops() {
+            return successful == 0 ? 0 : (double) hops / successful;
+        }
+
+        public int getMaxHops() {
+            return maxHops;
+        }
+
+        /**
+         * Mean FIND_VALUE requests per lookup
+         */
+        public double getMeanLookupRpcs() {
+            return lookups == 0 ? 0 : (double) lookupRpcs / lookups;
+        }
+
+        public double getMeanLatencyMillis() {
+            return lookups == 0 ? 0 : (double) latencyMillis / lookups;
+        }
+
+        /**
+         * All requests sent within the interval: lookups, joins, stores, republishing and pings
+         */
+        public long getRpcs() {
+            return rpcs;
+        }
+
+        public long getFailedRpcs() {
+            return failedRpcs;
+        }
+
+        /**
+         * Fraction of the published keys held by at least one online node at the end of the interval
+         */
+        public double getAvailability() {
+            return availability;
+        }
+    }
+
+    private final List<Sample> samples = new ArrayList<>();
+
+    void add(Sample sample) {
+        samples.add(sample);
+    }
+
+    public List<Sample> getSamples() {
+        return Collections.unmodifiableList(samples);
+    }
+
+    public int getLookups() {
+        return samples.stream().mapToInt(Sample::getLookups).sum();
+    }
+
+    public double getSuccessRate() {
+        int lookups = getLookups();
+        return lookups == 0 ? 0 : (double) samples.stream().mapToInt(Sample::getSuccessful).sum() / lookups;
+    }
+
+    public double getMeanHops() {
+        int successful = samples.stream().mapToInt(Sample::getSuccessful).sum();
+        return successful == 0 ? 0 : (double) samples.stream().mapToLong(sample -> sample.hops).sum() / successful;
+    }
+
+    public double getMeanLookupRpcs() {
+        int lookups = getLookups();
+        return lookups == 0 ? 0 : (double) samples.stream().mapToLong(sample -> sample.lookupRpcs).sum() / lookups;
+    }
+
+    /**
+     * Availability at the end of the simulation
+     */
+    public double getFinalAvailability() {
+        return samples.isEmpty() ? 0 : samples.get(samples.size() - 1).getAvailability();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder table = new StringBuilder(String.format(Locale.ROOT,
+                "%9s %7s %7s %8s %6s %5s %9s %10s %9s %8s %12s%n",
+                "time[s]", "online", "lookups", "success", "hops", "max", "rpcs/lkp", "latency", "rpcs", "failed", "availability"));
+        for (Sample sample : samples) {
+            table.append(String.format(Locale.ROOT,
+                    "%9d %7d %7d %8.4f %6.2f %5d %9.1f %8.1fms %9d %8d %12.4f%n",
+                    sample.timeMillis / 1000, sample.onlineNodes, sample.lookups, sample.getSuccessRate(),
+                    sample.getMeanHops(), sample.maxHops, sample.getMeanLookupRpcs(), sample.getMeanLatencyMillis(),
+                    sample.rpcs, sample.failedRpcs, sample.availability));
+        }
+        table.append(String.format(Locale.ROOT, "total: %d lookups, success %.4f, %.2f hops, %.1f rpcs/lookup, final availability %.4f",
+                getLookups(), getSuccessRate(), getMeanHops(), getMeanLookupRpcs(), getFinalAvailability()));
+        return table.toString();
+    }
+}
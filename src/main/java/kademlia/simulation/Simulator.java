@@ -0,0 +1,105 @@
+package kademlia.simulation;
+
+import kademlia.MaintenanceScheduler;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Discrete-event loop with a virtual clock in milliseconds <br>
+ * Events run one after another on the calling thread, ordered by time and then by the order they were scheduled in.
+ * Together with the single seeded {@link Random} this makes every run with the same seed identical.
+ */
+public class Simulator {
+
+    private static final class Event implements Comparable<Event> {
+        final long time;
+        final long sequence;
+        final Runnable action;
+
+        Event(long time, long sequence, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            int byTime = Long.compare(time, other.time);
+            return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private final Random random;
+    private long now = 0;
+    private long sequence = 0;
+    private long processed = 0;
+
+    public Simulator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Current virtual time in milliseconds since the start of the simulation
+     */
+    public long now() {
+        return now;
+    }
+
+    /**
+     * Source of all randomness of the simulation, must only be used from events
+     */
+    public Random random() {
+        return random;
+    }
+
+    public void schedule(long delayMillis, Runnable action) {
+        events.add(new Event(now + Math.max(0, delayMillis), sequence++, action));
+    }
+
+    /**
+     * Ticks in virtual time until stopped, drives the maintenance of a simulated node
+     */
+    public MaintenanceScheduler.Ticker ticker() {
+        return new MaintenanceScheduler.Ticker() {
+            private boolean stopped = false;
+
+            @Override
+            public void scheduleAtFixedRate(Runnable tick, long periodMillis) {
+                schedule(periodMillis, () -> {
+                    if (stopped) return;
+                    tick.run();
+                    scheduleAtFixedRate(tick, periodMillis);
+                });
+            }
+
+            @Override
+            public void stop() {
+                stopped = true;
+            }
+        };
+    }
+
+    /**
+     * Run all events due up to the given time (inclusive), the clock then stands at that time
+     */
+    public void runUntil(long time) {
+        Event event;
+        while ((event = events.peek()) != null && event.time <= time) {
+            events.poll();
+            now = event.time;
+            event.action.run();
+            processed++;
+        }
+        now = Math.max(now, time);
+    }
+
+    public long getProcessedEvents() {
+        return processed;
+    }
+
+    public int getPendingEvents() {
+        return events.size();
+    }
+}
@@ -1,5 +1,6 @@
 package integration;
 
+import kademlia.Id;
 import kademlia.KademliaNode;
 import kademlia.NodeReference;
 import kademlia.Util;
@@ -62,13 +63,13 @@ public class BigTest extends BigTestBase {
         runningNodes.add(bootstrap);
         bootstrap.initKademlia();
         String KEY = "key6";
-        BigInteger keyHash = Util.getId(KEY); // 1010000000
+        Id keyHash = Util.getId(KEY); // 1010000000
         bootstrap.put(KEY, "val1");
 
         assertEquals(1, bootstrap.getLocalData().size());
 
         for (int i = 0; i < K; i++) {
-            BigInteger nextId = keyHash.setBit(i); // this way, the id will be XOR-closer to keyhash
+            Id nextId = keyHash.setBit(i); // this way, the id will be XOR-closer to keyhash
             KademliaNode joiner = new KademliaNode(LOCAL_IP, BASE_PORT++, nextId);
             joiner.join(bootstrap.getNodeReference());
             runningNodes.add(joiner);
@@ -102,13 +103,13 @@ public class BigTest extends BigTestBase {
         runningNodes.add(bootstrap);
         bootstrap.initKademlia();
         String KEY = "key6";
-        BigInteger keyHash = Util.getId(KEY); // 1010000000
+        Id keyHash = Util.getId(KEY); // 1010000000
         bootstrap.put(KEY, "val1");
 
         assertEquals(1, bootstrap.getLocalData().size());
 
         for (int i = 0; i < K; i++) {
-            BigInteger nextId = keyHash.setBit(i); // this way, the id will be XOR-closer to keyhash
+            Id nextId = keyHash.setBit(i); // this way, the id will be XOR-closer to keyhash
             KademliaNode joiner = new KademliaNode(LOCAL_IP, BASE_PORT++, nextId);
             joiner.join(bootstrap.getNodeReference());
             runningNodes.add(joiner);
@@ -9,6 +9,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Random;
@@ -56,6 +57,14 @@ public class BaseTest {
         return runningNodes.get(random.nextInt(runningNodes.size()));
     }
 
+    protected static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    protected static String string(byte[] value) {
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+
     protected BigInteger getRandomId() {
         return new BigInteger(""+random.nextInt((int)Math.pow(2,BITS)));
     }
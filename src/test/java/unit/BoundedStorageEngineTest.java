@@ -0,0 +1,164 @@
+package unit;
+
+import kademlia.BoundedStorageEngine;
+import kademlia.Id;
+import kademlia.InMemoryStorageEngine;
+import kademlia.KademliaNode;
+import kademlia.NodeReference;
+import kademlia.PutResult;
+import kademlia.Util;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link BoundedStorageEngine} over an in-memory engine with budgets of a few dozen bytes
+ */
+public class BoundedStorageEngineTest extends BaseTest {
+
+    private final NodeReference owner = new NodeReference(LOCAL_IP, 1);
+    private final NodeReference alice = new NodeReference(LOCAL_IP, 2);
+    private final NodeReference bob = new NodeReference(LOCAL_IP, 3);
+    private final List<Id> evicted = new ArrayList<>();
+
+    private BoundedStorageEngine engine(long capacity, long senderQuota) {
+        return new BoundedStorageEngine(new InMemoryStorageEngine(Duration.ofMillis(10), 8), owner, capacity, senderQuota, evicted::add);
+    }
+
+    /**
+     * Least recently read replica goes first, owned values are never evicted
+     */
+    @Test
+    public void testLruEviction() {
+        BoundedStorageEngine engine = engine(40, Long.MAX_VALUE);
+        engine.put(Id.of(0), new byte[10], Long.MAX_VALUE);
+        assertTrue(engine.put(Id.of(1), new byte[10], Long.MAX_VALUE, alice));
+        assertTrue(engine.put(Id.of(2), new byte[10], Long.MAX_VALUE, bob));
+        assertTrue(engine.put(Id.of(3), new byte[10], Long.MAX_VALUE, alice));
+        engine.get(Id.of(1));
+
+        assertTrue(engine.put(Id.of(4), new byte[10], Long.MAX_VALUE, bob));
+        assertEquals(Arrays.asList(Id.of(2)), evicted);
+        assertTrue(engine.put(Id.of(5), new byte[20], Long.MAX_VALUE, bob));
+        assertEquals(Arrays.asList(Id.of(2), Id.of(3), Id.of(1)), evicted);
+
+        assertNotNull(engine.get(Id.of(0)));
+        assertEquals(40, engine.getUsedBytes());
+        assertEquals(3, engine.getEvictions());
+        assertEquals(0, engine.getRejections());
+    }
+
+    /**
+     * Sender over its quota is refused without evicting anything, so is a replica that does not fit next to owned values
+     */
+    @Test
+    public void testRejections() {
+        BoundedStorageEngine engine = engine(40, 20);
+        assertTrue(engine.put(Id.of(1), new byte[10], Long.MAX_VALUE, alice));
+        assertTrue(engine.put(Id.of(2), new byte[10], Long.MAX_VALUE, alice));
+        assertFalse(engine.put(Id.of(3), new byte[10], Long.MAX_VALUE, alice));
+        // overwrite does not count twice
+        assertTrue(engine.put(Id.of(2), new byte[10], Long.MAX_VALUE, alice));
+        assertEquals(20, engine.getSenderBytes(alice));
+
+        engine.put(Id.of(4), new byte[30], Long.MAX_VALUE);
+        assertFalse(engine.put(Id.of(5), new byte[11], Long.MAX_VALUE, bob));
+        assertTrue(engine.put(Id.of(5), new byte[10], Long.MAX_VALUE, bob));
+        assertEquals(2, engine.getRejections());
+        assertEquals(Arrays.asList(Id.of(1), Id.of(2)), evicted);
+        assertEquals(0, engine.getSenderBytes(alice));
+
+        // deleted and expired values release their bytes
+        engine.delete(Id.of(4));
+        assertEquals(10, engine.getUsedBytes());
+        engine.put(Id.of(6), new byte[10], System.currentTimeMillis() - 1, bob);
+        engine.expire(System.currentTimeMillis() + 20);
+        assertEquals(10, engine.getSenderBytes(bob));
+    }
+
+    /**
+     * Values recovered by the delegate over the capacity are evicted at construction, not on the next put
+     */
+    @Test
+    public void testRecoveredOverCapacity() {
+        InMemoryStorageEngine recovered = new InMemoryStorageEngine(Duration.ofMillis(10), 8);
+        for (int i = 0; i < 5; i++) {
+            recovered.put(Id.of(i), new byte[10], Long.MAX_VALUE);
+        }
+        BoundedStorageEngine engine = new BoundedStorageEngine(recovered, owner, 30, Long.MAX_VALUE, evicted::add);
+        assertEquals(2, evicted.size());
+        assertEquals(2, engine.getEvictions());
+        assertEquals(30, engine.getUsedBytes());
+        assertEquals(3, recovered.size());
+    }
+
+    /**
+     * Reads complete while a writer holds the engine's lock
+     */
+    @Test
+    public void testReadsDoNotLock() throws Exception {
+        BoundedStorageEngine engine = engine(40, Long.MAX_VALUE);
+        assertTrue(engine.put(Id.of(1), new byte[10], Long.MAX_VALUE, alice));
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            synchronized (engine) {
+                locked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        writer.start();
+        try {
+            locked.await();
+            CompletableFuture<byte[]> read = CompletableFuture.supplyAsync(() -> engine.get(Id.of(1)));
+            assertNotNull(read.get(5, TimeUnit.SECONDS));
+            assertTrue(engine.read(Id.of(1), buffer -> assertEquals(10, buffer.remaining())));
+        } finally {
+            release.countDown();
+            writer.join();
+        }
+    }
+
+    /**
+     * Publisher keeps its value, STOREs from another node over the quota are refused and counted
+     */
+    @Test
+    public void testNodeQuota() throws IOException {
+        KademliaNode.setSenderQuota(16);
+        try {
+            KademliaNode first = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.ZERO);
+            runningNodes.add(first);
+            first.initKademlia();
+            KademliaNode second = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.ONE);
+            runningNodes.add(second);
+            second.join(first.getNodeReference());
+
+            second.put("small", new byte[8]);
+            assertEquals(0, first.getRejectedStores());
+            PutResult result = second.putAsync("large", new byte[32]).join();
+            assertEquals(Arrays.asList(second.getNodeReference()), result.getAcknowledged());
+            assertFalse(result.isQuorumReached());
+            assertEquals(1, first.getRejectedStores());
+
+            assertFalse(first.getLocalData().containsKey(Util.getId("large")));
+            assertTrue(second.getLocalData().containsKey(Util.getId("large")));
+            assertEquals(0, second.getRejectedStores());
+        } finally {
+            KademliaNode.setSenderQuota(Long.MAX_VALUE);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package unit;
+
+import io.grpc.ManagedChannel;
+import kademlia.ChannelPool;
+import kademlia.KademliaNode;
+import kademlia.NodeReference;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChannelPoolTest extends BaseTest {
+
+    /**
+     * Channel opened during join is reused and closed once the node leaves the routing table
+     */
+    @Test
+    public void testChannelEvictedOnRoutingTableRemove() throws IOException {
+        KademliaNode bootstrap = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.ZERO);
+        runningNodes.add(bootstrap);
+        bootstrap.initKademlia();
+
+        KademliaNode joiner = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.ONE);
+        runningNodes.add(joiner);
+        joiner.join(bootstrap.getNodeReference());
+
+        joiner.put("key1", "val1");
+        assertEquals("val1", joiner.get("key1"));
+        assertTrue(joiner.getChannelPool().contains(bootstrap.getNodeReference()));
+
+        joiner.getRoutingTable().remove(bootstrap.getNodeReference());
+        assertFalse(joiner.getChannelPool().contains(bootstrap.getNodeReference()));
+    }
+
+    @Test
+    public void testSizeCapAndIdleEviction() {
+        NodeReference owner = new NodeReference(LOCAL_IP, BASE_PORT++, BigInteger.ZERO);
+        ChannelPool pool = new ChannelPool(owner, 2, Duration.ZERO, 3);
+
+        NodeReference a = new NodeReference(LOCAL_IP, BASE_PORT++, BigInteger.ONE);
+        NodeReference b = new NodeReference(LOCAL_IP, BASE_PORT++, BigInteger.TWO);
+        NodeReference c = new NodeReference(LOCAL_IP, BASE_PORT++, BigInteger.TEN);
+
+        pool.acquire(a);
+        pool.acquire(b);
+        pool.acquire(a);
+        pool.acquire(c);
+
+        // b was the least recently used
+        assertEquals(2, pool.size());
+        assertTrue(pool.contains(a));
+        assertFalse(pool.contains(b));
+
+        pool.evictIdle();
+        assertEquals(0, pool.size());
+        pool.shutdown();
+    }
+
+    @Test
+    public void testChannelClosedAfterFailures() {
+        NodeReference owner = new NodeReference(LOCAL_IP, BASE_PORT++, BigInteger.ZERO);
+        ChannelPool pool = new ChannelPool(owner, 2, Duration.ofMinutes(1), 2);
+        NodeReference peer = new NodeReference(LOCAL_IP, BASE_PORT++, BigInteger.ONE);
+
+        pool.acquire(peer);
+        pool.reportFailure(peer);
+        pool.reportSuccess(peer);
+        pool.reportFailure(peer);
+        assertTrue(pool.contains(peer));
+
+        pool.reportFailure(peer);
+        assertFalse(pool.contains(peer));
+        pool.shutdown();
+    }
+
+    /**
+     * Channel evicted by another peer's acquire is shut down only after its user released it
+     */
+    @Test
+    public void testConcurrentAcquireAndEviction() {
+        NodeReference owner = new NodeReference(LOCAL_IP, BASE_PORT++, BigInteger.ZERO);
+        ChannelPool pool = new ChannelPool(owner, 1, Duration.ofMinutes(1), 3);
+        NodeReference a = new NodeReference(LOCAL_IP, BASE_PORT++, BigInteger.ONE);
+        NodeReference b = new NodeReference(LOCAL_IP, BASE_PORT++, BigInteger.TWO);
+
+        ManagedChannel channel = pool.acquire(a);
+        pool.release(b, pool.acquire(b));
+        assertFalse(pool.contains(a));
+        assertFalse(channel.isShutdown());
+        pool.release(a, channel);
+        assertTrue(channel.isShutdown());
+
+        // every acquired channel stays open until released while other threads keep evicting it
+        NodeReference[] peers = {a, b, new NodeReference(LOCAL_IP, BASE_PORT++, BigInteger.TEN)};
+        AtomicInteger closedWhileAcquired = new AtomicInteger();
+        List<CompletableFuture<Void>> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < 500; i++) {
+                    NodeReference peer = peers[random.nextInt(peers.length)];
+                    ManagedChannel acquired = pool.acquire(peer);
+                    if (acquired.isShutdown()) closedWhileAcquired.incrementAndGet();
+                    Thread.yield();
+                    if (acquired.isShutdown()) closedWhileAcquired.incrementAndGet();
+                    pool.release(peer, acquired);
+                }
+            }));
+        }
+        threads.forEach(CompletableFuture::join);
+        assertEquals(0, closedWhileAcquired.get());
+        assertEquals(1, pool.size());
+        pool.shutdown();
+    }
+}
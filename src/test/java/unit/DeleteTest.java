@@ -10,6 +10,7 @@ import java.math.BigInteger;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
 
 public class DeleteTest extends BaseTest {
@@ -47,4 +48,30 @@ public class DeleteTest extends BaseTest {
         gotValue = getRandomRunningNode().get("key1");
         assertNull(null, gotValue);
     }
+
+    /**
+     * Delete completes although one of the K-closest nodes is down, the remaining nodes drop the key
+     */
+    @Test
+    public void testDeleteAsync_unresponsiveNode() throws IOException {
+        for (int i = 0; i < K; i++) {
+            KademliaNode joiner = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.valueOf(i));
+            if (runningNodes.isEmpty())
+                joiner.initKademlia();
+            else
+                joiner.join(runningNodes.get(0).getNodeReference());
+            runningNodes.add(joiner);
+        }
+        KademliaNode deleter = runningNodes.get(0);
+        deleter.put("key1", "val1");
+
+        KademliaNode down = runningNodes.get(K - 1);
+        down.shutdownKademliaNode();
+        deleter.deleteAsync("key1").join();
+
+        for (KademliaNode node : runningNodes.subList(0, K - 1)) {
+            assertFalse(node.getLocalData().containsKey(Util.getId("key1")));
+        }
+        assertEquals(K - 2, deleter.getRoutingTable().getSize());
+    }
 }
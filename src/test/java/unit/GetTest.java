@@ -0,0 +1,183 @@
+package unit;
+
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import kademlia.KademliaNode;
+import kademlia.NodeReference;
+import org.junit.jupiter.api.Test;
+import proto.Kademlia;
+import proto.KademliaServiceGrpc;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GetTest extends BaseTest {
+
+    /**
+     * Every node finds the value with FIND_VALUE, missing key is null
+     */
+    @Test
+    public void testGet_findValue() throws IOException {
+        KademliaNode bootstrap = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.ZERO);
+        runningNodes.add(bootstrap);
+        bootstrap.initKademlia();
+
+        for (int i = 1; i < 12; i++) {
+            KademliaNode joiner = new KademliaNode(LOCAL_IP, BASE_PORT++, getRandomId());
+            runningNodes.add(joiner);
+            joiner.join(bootstrap.getNodeReference());
+        }
+
+        bootstrap.put("key1", "val1");
+
+        for (KademliaNode node : runningNodes) {
+            assertEquals("val1", node.get("key1"));
+            assertNull(node.get("missing"));
+        }
+
+        // value is replicated on K nodes, quorum of all of them is reachable
+        KademliaNode.setReadQuorum(K);
+        try {
+            assertEquals("val1", getRandomRunningNode().get("key1"));
+        } finally {
+            KademliaNode.setReadQuorum(1);
+        }
+    }
+
+    /**
+     * Bytes that are not valid UTF-8 survive STORE and FIND_VALUE unchanged
+     */
+    @Test
+    public void testGet_binaryValue() throws IOException {
+        startNodes(K + 2);
+        byte[] value = {(byte) 0xff, (byte) 0xfe, 0, (byte) 0xc3, 0x28, (byte) 0x80};
+
+        runningNodes.get(1).put("binary", value);
+
+        for (KademliaNode node : runningNodes) {
+            assertArrayEquals(value, node.getBytes("binary"));
+        }
+        ByteBuffer buffer = getRandomRunningNode().getBuffer("binary");
+        assertTrue(buffer.isReadOnly());
+        assertEquals(ByteBuffer.wrap(value), buffer);
+    }
+
+    /**
+     * Value above the gRPC message limit (4 MB) is stored and retrieved in chunks
+     */
+    @Test
+    public void testGet_largeValue() throws IOException {
+        startNodes(K + 2);
+        byte[] value = new byte[6 << 20];
+        random.nextBytes(value);
+
+        runningNodes.get(1).put("large", value);
+
+        for (KademliaNode node : runningNodes) {
+            assertArrayEquals(value, node.getBytes("large"));
+        }
+    }
+
+    /**
+     * Nodes serving and calling on virtual threads (platform threads before Java 21) behave the same
+     */
+    @Test
+    public void testGet_virtualThreads() throws IOException {
+        KademliaNode.setVirtualThreads(true);
+        try {
+            startNodes(K + 2);
+        } finally {
+            KademliaNode.setVirtualThreads(false);
+        }
+        runningNodes.get(2).put("key", "value");
+
+        List<CompletableFuture<String>> gets = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            KademliaNode node = getRandomRunningNode();
+            gets.add(CompletableFuture.supplyAsync(() -> node.get("key")));
+        }
+        gets.forEach(get -> assertEquals("value", get.join()));
+    }
+
+    /**
+     * RETRIEVE sent to a v1 node is cancelled once the lookup found the value elsewhere, the v1 node is not dropped
+     */
+    @Test
+    public void testGet_v1RetrieveCancelled() throws Exception {
+        KademliaNode bootstrap = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.ZERO);
+        runningNodes.add(bootstrap);
+        bootstrap.initKademlia();
+
+        CountDownLatch retrieved = new CountDownLatch(1);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        int silentPort = BASE_PORT++;
+        Server silent = legacyNode(silentPort, (request, responseObserver) -> {
+            ((ServerCallStreamObserver<Kademlia.RetrieveResponse>) responseObserver).setOnCancelHandler(cancelled::countDown);
+            retrieved.countDown();
+        });
+        // answers only once the silent node was asked, so that the lookup completes with that RETRIEVE in flight
+        int holderPort = BASE_PORT++;
+        Server holder = legacyNode(holderPort, (request, responseObserver) -> {
+            try {
+                retrieved.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            responseObserver.onNext(Kademlia.RetrieveResponse.newBuilder().setStatus(Kademlia.Status.SUCCESS).setValue("value").build());
+            responseObserver.onCompleted();
+        });
+        KademliaNode.setRpcTimeout(Duration.ofMinutes(1));
+        try {
+            KademliaNode getter = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.ONE);
+            runningNodes.add(getter);
+            getter.join(bootstrap.getNodeReference());
+            getter.getRoutingTable().insert(new NodeReference(LOCAL_IP, silentPort, BigInteger.TEN));
+            getter.getRoutingTable().insert(new NodeReference(LOCAL_IP, holderPort, BigInteger.valueOf(11)));
+
+            assertEquals("value", getter.get("key"));
+            assertTrue(retrieved.await(5, TimeUnit.SECONDS));
+            assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+            assertEquals(3, getter.getRoutingTable().getSize());
+        } finally {
+            KademliaNode.setRpcTimeout(Duration.ofSeconds(5));
+            silent.shutdownNow();
+            holder.shutdownNow();
+        }
+    }
+
+    /**
+     * Node speaking v1 that serves RETRIEVE only
+     */
+    private static Server legacyNode(int port, BiConsumer<Kademlia.RetrieveRequest, StreamObserver<Kademlia.RetrieveResponse>> retrieve)
+            throws IOException {
+        return ServerBuilder.forPort(port).addService(new KademliaServiceGrpc.KademliaServiceImplBase() {
+            @Override
+            public void retrieve(Kademlia.RetrieveRequest request, StreamObserver<Kademlia.RetrieveResponse> responseObserver) {
+                retrieve.accept(request, responseObserver);
+            }
+        }).build().start();
+    }
+
+    private void startNodes(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            KademliaNode node = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.valueOf(i));
+            if (runningNodes.isEmpty())
+                node.initKademlia();
+            else
+                node.join(runningNodes.get(0).getNodeReference());
+            runningNodes.add(node);
+        }
+    }
+}
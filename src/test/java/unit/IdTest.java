@@ -0,0 +1,70 @@
+package unit;
+
+import kademlia.Id;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link Id} must behave exactly like the BigInteger IDs it replaced
+ */
+public class IdTest extends BaseTest {
+
+    private BigInteger random160() {
+        // vary bit length so that all three words are exercised
+        return new BigInteger(1 + random.nextInt(160), random);
+    }
+
+    @Test
+    public void testConversions() {
+        for (int i = 0; i < 1000; i++) {
+            BigInteger value = random160();
+            Id id = Id.of(value);
+            assertEquals(value, id.toBigInteger());
+            assertEquals(value.toString(), id.toString());
+            assertEquals(id, Id.fromBytes(id.toBytes(Id.BYTES)));
+            assertEquals(value.bitLength(), id.bitLength());
+        }
+        assertThrows(IllegalArgumentException.class, () -> Id.of(BigInteger.ONE.shiftLeft(160)));
+    }
+
+    @Test
+    public void testDistanceCompare() {
+        for (int i = 0; i < 1000; i++) {
+            BigInteger target = random160(), a = random160(), b = random160();
+            int expected = Integer.signum(target.xor(a).compareTo(target.xor(b)));
+            int actual = Integer.signum(Id.of(target).compareDistance(Id.of(a), Id.of(b)));
+            assertEquals(expected, actual);
+            assertEquals(target.xor(a), Id.of(target).xor(Id.of(a)).toBigInteger());
+            assertEquals(Integer.signum(a.compareTo(b)), Integer.signum(Id.of(a).compareTo(Id.of(b))));
+        }
+    }
+
+    @Test
+    public void testBucketIndexAndBits() {
+        for (int i = 0; i < 1000; i++) {
+            BigInteger a = random160(), b = random160();
+            assertEquals(a.xor(b).bitLength() - 1, Id.of(a).highestDifferingBit(Id.of(b)));
+
+            int low = random.nextInt(160);
+            int count = Math.min(random.nextInt(65), 160 - low);
+            long expected = a.shiftRight(low).and(BigInteger.ONE.shiftLeft(count).subtract(BigInteger.ONE)).longValue();
+            assertEquals(expected, Id.of(a).bits(low, count));
+
+            int bit = random.nextInt(160);
+            assertEquals(a.testBit(bit), Id.of(a).testBit(bit));
+            assertEquals(a.setBit(bit), Id.of(a).setBit(bit).toBigInteger());
+        }
+        assertEquals(-1, Id.of(42).highestDifferingBit(Id.of(42)));
+    }
+
+    @Test
+    public void testRandomWithHighestBit() {
+        for (int index = 0; index < 160; index++) {
+            Id id = Id.randomWithHighestBit(index, random);
+            assertEquals(index + 1, id.bitLength());
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package unit;
+
+import kademlia.Id;
+import kademlia.InMemoryStorageEngine;
+import kademlia.StorageEngine;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link InMemoryStorageEngine} driven by explicit time, 10 ms expiration ticks
+ */
+public class InMemoryStorageEngineTest extends BaseTest {
+
+    private StorageEngine engine() {
+        return new InMemoryStorageEngine(Duration.ofMillis(10), 8);
+    }
+
+    @Test
+    public void testPutGetDelete() {
+        StorageEngine engine = engine();
+        engine.put(Id.of(1), bytes("a"), Long.MAX_VALUE);
+        engine.put(Id.of(2), bytes("b"), Long.MAX_VALUE);
+        engine.put(Id.of(1), bytes("c"), Long.MAX_VALUE);
+
+        assertEquals("c", string(engine.get(Id.of(1))));
+        assertEquals(2, engine.size());
+        assertTrue(engine.delete(Id.of(2)));
+        assertFalse(engine.delete(Id.of(2)));
+        assertNull(engine.get(Id.of(2)));
+
+        Map<Id, String> scanned = new HashMap<>();
+        engine.scan((key, value) -> scanned.put(key, string(value)));
+        assertEquals(Collections.singletonMap(Id.of(1), "c"), scanned);
+        // view is live
+        assertEquals(Collections.singleton(Id.of(1)), engine.asMap().keySet());
+        engine.asMap().clear();
+        assertEquals(0, engine.size());
+    }
+
+    /**
+     * Key stored again with a later deadline survives its first deadline, deleted key is not reported as expired
+     */
+    @Test
+    public void testExpire() {
+        long now = System.currentTimeMillis();
+        StorageEngine engine = engine();
+        engine.put(Id.of(1), bytes("a"), now + 20);
+        engine.put(Id.of(2), bytes("b"), now + 20);
+        engine.put(Id.of(3), bytes("c"), now + 20);
+        engine.put(Id.of(2), bytes("b"), now + 50);
+        engine.delete(Id.of(3));
+
+        assertTrue(engine.expire(now + 10).isEmpty());
+        assertEquals(Collections.singletonList(Id.of(1)), engine.expire(now + 30));
+        assertEquals("b", string(engine.get(Id.of(2))));
+        assertEquals(Collections.singletonList(Id.of(2)), engine.expire(now + 60));
+        assertEquals(0, engine.size());
+    }
+}
@@ -0,0 +1,168 @@
+package unit;
+
+import kademlia.Id;
+import kademlia.InMemoryStorageEngine;
+import kademlia.KademliaNode;
+import kademlia.LogStorageEngine;
+import kademlia.Util;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link LogStorageEngine} reopened on the same directory, background compaction is off (1 day)
+ */
+public class LogStorageEngineTest extends BaseTest {
+
+    @TempDir
+    Path directory;
+
+    private LogStorageEngine open(long segmentBytes) throws IOException {
+        return new LogStorageEngine(directory, Duration.ofMillis(10), 8, segmentBytes, Duration.ofDays(1));
+    }
+
+    /**
+     * Reopened log contains last value of every key with its deadline, deleted and expired keys are gone
+     */
+    @Test
+    public void testRecover() throws IOException {
+        long now = System.currentTimeMillis();
+        LogStorageEngine engine = open(1 << 20);
+        engine.put(Id.of(1), bytes("a"), Long.MAX_VALUE);
+        engine.put(Id.of(1), bytes("b"), Long.MAX_VALUE);
+        engine.put(Id.of(2), bytes("c"), now + 60_000);
+        engine.put(Id.of(3), bytes("d"), Long.MAX_VALUE);
+        engine.put(Id.of(4), bytes("e"), now - 1);
+        engine.delete(Id.of(3));
+        engine.close();
+
+        LogStorageEngine reopened = open(1 << 20);
+        assertEquals("b", string(reopened.get(Id.of(1))));
+        assertEquals("c", string(reopened.get(Id.of(2))));
+        assertNull(reopened.get(Id.of(3)));
+        assertNull(reopened.get(Id.of(4)));
+        assertEquals(2, reopened.size());
+        // remaining TTL is kept
+        assertTrue(reopened.expire(now + 59_000).isEmpty());
+        assertEquals(Collections.singletonList(Id.of(2)), reopened.expire(now + 61_000));
+        reopened.close();
+    }
+
+    /**
+     * Record cut in half by a crash is dropped, the log stays appendable
+     */
+    @Test
+    public void testTornTail() throws IOException {
+        LogStorageEngine engine = open(1 << 20);
+        engine.put(Id.of(1), bytes("a"), Long.MAX_VALUE);
+        engine.close();
+        try (Stream<Path> files = Files.list(directory)) {
+            Path segment = files.findFirst().orElseThrow(IllegalStateException::new);
+            Files.write(segment, new byte[]{7, 7, 7, 7, 1, 0, 0}, StandardOpenOption.APPEND);
+        }
+
+        LogStorageEngine reopened = open(1 << 20);
+        assertEquals("a", string(reopened.get(Id.of(1))));
+        reopened.put(Id.of(2), bytes("b"), Long.MAX_VALUE);
+        reopened.close();
+
+        LogStorageEngine again = open(1 << 20);
+        assertEquals("a", string(again.get(Id.of(1))));
+        assertEquals("b", string(again.get(Id.of(2))));
+        again.close();
+    }
+
+    /**
+     * Compaction drops overwritten records and tombstones without resurrecting deleted keys
+     */
+    @Test
+    public void testCompaction() throws IOException {
+        LogStorageEngine engine = open(256);
+        for (int round = 0; round < 20; round++) {
+            for (int key = 0; key < 4; key++) {
+                engine.put(Id.of(key), bytes("value" + round), Long.MAX_VALUE);
+            }
+        }
+        engine.delete(Id.of(3));
+        engine.put(Id.of(9), bytes("x"), Long.MAX_VALUE);
+        int before = engine.getSegmentCount();
+
+        assertTrue(engine.compact());
+        assertTrue(engine.getSegmentCount() < before, before + " -> " + engine.getSegmentCount());
+        assertEquals("value19", string(engine.get(Id.of(0))));
+        engine.close();
+
+        LogStorageEngine reopened = open(256);
+        assertEquals(4, reopened.size());
+        assertEquals("value19", string(reopened.get(Id.of(2))));
+        assertNull(reopened.get(Id.of(3)));
+        assertEquals("x", string(reopened.get(Id.of(9))));
+        reopened.close();
+    }
+
+    /**
+     * Interrupted reader closes the segment channel, the read and all later reads and writes still succeed
+     */
+    @Test
+    public void testInterruptedRead() throws IOException {
+        LogStorageEngine engine = open(1 << 20);
+        engine.put(Id.of(1), bytes("a"), Long.MAX_VALUE);
+        engine.put(Id.of(2), bytes("b"), Long.MAX_VALUE);
+
+        Thread.currentThread().interrupt();
+        try {
+            assertEquals("a", string(engine.get(Id.of(1))));
+        } finally {
+            // flag is restored for the caller
+            assertTrue(Thread.interrupted());
+        }
+
+        assertEquals("a", string(engine.get(Id.of(1))));
+        assertEquals("b", string(engine.get(Id.of(2))));
+        engine.put(Id.of(3), bytes("c"), Long.MAX_VALUE);
+        assertEquals("c", string(engine.get(Id.of(3))));
+        engine.close();
+
+        LogStorageEngine reopened = open(1 << 20);
+        assertEquals(3, reopened.size());
+        assertEquals("c", string(reopened.get(Id.of(3))));
+        reopened.close();
+    }
+
+    /**
+     * Restarted node serves its data from the log before it (re)joins
+     */
+    @Test
+    public void testNodeRestart() throws IOException {
+        KademliaNode.setStorageEngineFactory(node -> {
+            try {
+                return new LogStorageEngine(directory, Duration.ofMillis(100), 512);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        try {
+            KademliaNode node = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.ZERO);
+            node.initKademlia();
+            node.put("key", "value");
+            node.shutdownKademliaNode();
+
+            KademliaNode restarted = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.ZERO);
+            runningNodes.add(restarted);
+            assertEquals("value", restarted.getLocalData().get(Util.getId("key")));
+        } finally {
+            KademliaNode.setStorageEngineFactory(node -> new InMemoryStorageEngine(Duration.ofMillis(100), 512));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package unit;
+
+import kademlia.MaintenanceScheduler;
+import kademlia.MaintenanceScheduler.Kind;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link MaintenanceScheduler} with ticks of a few milliseconds
+ */
+public class MaintenanceSchedulerTest extends BaseTest {
+
+    private MaintenanceScheduler scheduler;
+
+    @AfterEach
+    public void shutdownScheduler() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Single busy worker: every kind queues at most one run, expiration is served before republishing
+     */
+    @Test
+    public void testPriorities() {
+        scheduler = new MaintenanceScheduler("test", 1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Kind> order = Collections.synchronizedList(new ArrayList<>());
+
+        scheduler.scheduleAtFixedRate(Kind.REFRESH, () -> {
+            order.add(Kind.REFRESH);
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, Duration.ofMillis(5));
+        await().until(() -> scheduler.getRunning(Kind.REFRESH) == 1);
+
+        scheduler.scheduleAtFixedRate(Kind.REPUBLISH, () -> order.add(Kind.REPUBLISH), Duration.ofMillis(5));
+        scheduler.scheduleAtFixedRate(Kind.EXPIRE, () -> order.add(Kind.EXPIRE), Duration.ofMillis(5));
+        await().until(() -> scheduler.getSkipped(Kind.EXPIRE) > 2 && scheduler.getSkipped(Kind.REPUBLISH) > 2);
+        assertEquals(1, scheduler.getQueueDepth(Kind.EXPIRE));
+        assertEquals(1, scheduler.getQueueDepth(Kind.REPUBLISH));
+        assertEquals(2, scheduler.getQueueDepth());
+
+        release.countDown();
+        await().until(() -> scheduler.getCompleted(Kind.REPUBLISH) > 0);
+        assertEquals(Kind.REFRESH, order.get(0));
+        assertEquals(Kind.EXPIRE, order.get(1));
+        assertTrue(order.indexOf(Kind.REPUBLISH) > 1);
+    }
+
+    /**
+     * Asynchronous run lasts until its future completes, ticks meanwhile are skipped
+     */
+    @Test
+    public void testAsyncRunsDoNotOverlap() {
+        scheduler = new MaintenanceScheduler("test", 2);
+        List<CompletableFuture<Void>> runs = Collections.synchronizedList(new ArrayList<>());
+        scheduler.scheduleAsyncAtFixedRate(Kind.REPUBLISH, () -> {
+            CompletableFuture<Void> run = new CompletableFuture<>();
+            runs.add(run);
+            return run;
+        }, Duration.ofMillis(5));
+
+        await().until(() -> scheduler.getSkipped(Kind.REPUBLISH) > 3);
+        assertEquals(1, runs.size());
+        assertEquals(1, scheduler.getRunning(Kind.REPUBLISH));
+        assertEquals(0, scheduler.getQueueDepth(Kind.REPUBLISH));
+
+        runs.get(0).completeExceptionally(new IllegalStateException("lookup failed"));
+        await().until(() -> runs.size() == 2);
+        assertEquals(1, scheduler.getCompleted(Kind.REPUBLISH));
+    }
+
+    /**
+     * Run whose future never completes is abandoned after its run timeout, its late completion is ignored
+     */
+    @Test
+    public void testStuckRunTimesOut() {
+        scheduler = new MaintenanceScheduler("test", 1);
+        List<CompletableFuture<Void>> runs = Collections.synchronizedList(new ArrayList<>());
+        scheduler.scheduleAsyncAtFixedRate(Kind.REPUBLISH, () -> {
+            CompletableFuture<Void> run = new CompletableFuture<>();
+            runs.add(run);
+            return run;
+        }, Duration.ofMillis(5), Duration.ofMillis(20));
+
+        await().until(() -> runs.size() >= 2);
+        assertTrue(scheduler.getTimedOut(Kind.REPUBLISH) >= 1);
+        assertTrue(scheduler.getRunning(Kind.REPUBLISH) <= 1);
+
+        runs.get(0).complete(null);
+        assertEquals(0, scheduler.getCompleted(Kind.REPUBLISH));
+    }
+}
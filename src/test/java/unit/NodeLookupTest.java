@@ -0,0 +1,190 @@
+package unit;
+
+import kademlia.Id;
+import kademlia.NodeLookup;
+import kademlia.NodeReference;
+import kademlia.RoutingTable;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link NodeLookup} against in-memory networks, no gRPC involved
+ */
+public class NodeLookupTest extends BaseTest {
+
+    private final int bits = 32;
+    private final int k = 4;
+    private final int alpha = 3;
+
+    private List<NodeReference> network(int size) {
+        Set<Id> used = new HashSet<>();
+        List<NodeReference> nodes = new ArrayList<>();
+        while (nodes.size() < size) {
+            Id id = Id.randomWithHighestBit(random.nextInt(bits), random);
+            if (used.add(id)) {
+                nodes.add(new NodeReference(LOCAL_IP, 40_000 + nodes.size(), id));
+            }
+        }
+        return nodes;
+    }
+
+    private List<NodeReference> kClosest(List<NodeReference> nodes, Id target) {
+        return nodes.stream().sorted(NodeReference.byDistanceTo(target)).limit(k).collect(Collectors.toList());
+    }
+
+    /**
+     * Responses are completed manually, lookup must keep alpha requests in flight without waiting for a whole round
+     */
+    @Test
+    public void testKeepsAlphaInFlight() {
+        List<NodeReference> nodes = network(200);
+        Id target = Id.randomWithHighestBit(bits - 1, random);
+
+        Map<NodeReference, CompletableFuture<List<NodeReference>>> pending = new ConcurrentHashMap<>();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        NodeLookup lookup = new NodeLookup(target, k, alpha, nodes.subList(0, alpha), recipient -> {
+            CompletableFuture<List<NodeReference>> response = new CompletableFuture<>();
+            pending.put(recipient, response);
+            maxInFlight.accumulateAndGet((int) pending.values().stream().filter(f -> !f.isDone()).count(), Math::max);
+            return response;
+        });
+
+        CompletableFuture<List<NodeReference>> result = lookup.start();
+        assertFalse(result.isDone());
+        assertEquals(alpha, pending.size());
+
+        // first recipient never answers, the others must still make progress
+        NodeReference slow = pending.keySet().iterator().next();
+        while (!result.isDone()) {
+            List<NodeReference> open = pending.entrySet().stream()
+                    .filter(e -> !e.getValue().isDone() && !e.getKey().equals(slow))
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toList());
+            if (open.isEmpty()) {
+                pending.get(slow).completeExceptionally(new RuntimeException("timeout"));
+                continue;
+            }
+            NodeReference next = open.get(0);
+            pending.get(next).complete(kClosest(nodes, target));
+        }
+
+        assertTrue(maxInFlight.get() <= alpha);
+        assertTrue(lookup.getRpcCount() > alpha, "slow node blocked the lookup");
+        List<NodeReference> expected = kClosest(nodes, target).stream().filter(n -> !n.equals(slow)).collect(Collectors.toList());
+        assertEquals(expected, result.join().subList(0, expected.size()));
+    }
+
+    /**
+     * Synchronously answering network, lookup converges to the global k closest
+     */
+    @Test
+    public void testFindsKClosest() {
+        List<NodeReference> nodes = network(500);
+        for (int i = 0; i < 50; i++) {
+            Id target = Id.randomWithHighestBit(bits - 1, random);
+            NodeReference start = nodes.get(random.nextInt(nodes.size()));
+            NodeLookup lookup = new NodeLookup(target, k, alpha, kClosest(nodes, start.getId()),
+                    recipient -> CompletableFuture.completedFuture(kClosest(nodes, target)));
+
+            assertEquals(kClosest(nodes, target), lookup.start().join());
+        }
+    }
+
+    /**
+     * Every node answers from its own routing table, lookup must stop after O(log n) queries instead of visiting the network
+     */
+    @Test
+    public void testRpcCountOnLargeNetwork() {
+        int size = 1000;
+        int kLarge = 8;
+        List<NodeReference> nodes = network(size);
+        Map<NodeReference, RoutingTable> tables = new HashMap<>();
+        for (NodeReference owner : nodes) {
+            RoutingTable table = new RoutingTable(bits, alpha, kLarge, owner);
+            nodes.forEach(table::insert);
+            tables.put(owner, table);
+        }
+
+        int lookups = 100, exact = 0, rpcs = 0;
+        for (int i = 0; i < lookups; i++) {
+            Id target = Id.randomWithHighestBit(bits - 1, random);
+            RoutingTable start = tables.get(nodes.get(random.nextInt(size)));
+            NodeLookup lookup = new NodeLookup(target, kLarge, alpha, start.findAlphaClosest(target),
+                    recipient -> CompletableFuture.completedFuture(tables.get(recipient).findKClosest(target)));
+
+            List<NodeReference> found = lookup.start().join();
+            List<NodeReference> expected = nodes.stream().sorted(NodeReference.byDistanceTo(target)).limit(kLarge).collect(Collectors.toList());
+            if (found.equals(expected)) exact++;
+            rpcs += lookup.getRpcCount();
+        }
+
+        logger.info("Average FIND_NODE calls per lookup in {} nodes: {}, exact results: {}/{}", size, (double) rpcs / lookups, exact, lookups);
+        assertTrue(rpcs / lookups < 4 * kLarge, "lookup queried too many nodes: " + rpcs / lookups);
+        assertTrue(exact >= lookups * 9 / 10);
+    }
+
+    /**
+     * Value lookup stops at the first node holding the value, missing value ends like a node lookup
+     */
+    @Test
+    public void testValueLookupStopsEarly() {
+        List<NodeReference> nodes = network(500);
+        Id key = Id.randomWithHighestBit(bits - 1, random);
+        NodeReference start = nodes.get(random.nextInt(nodes.size()));
+        // first hop nodes hold the value as well, no further hop is needed
+        Set<NodeReference> holders = new HashSet<>(kClosest(nodes, key));
+        List<NodeReference> initial = kClosest(nodes, start.getId()).subList(0, alpha);
+        holders.addAll(initial);
+
+        NodeLookup lookup = NodeLookup.forValue(key, k, alpha, 1, initial, recipient -> CompletableFuture.completedFuture(
+                holders.contains(recipient) ? NodeLookup.Reply.value(bytes("value")) : NodeLookup.Reply.closer(kClosest(nodes, key))));
+        lookup.start().join();
+        assertArrayEquals(bytes("value"), lookup.getValue());
+        // only the first wave of alpha requests was sent
+        assertEquals(alpha, lookup.getRpcCount());
+
+        NodeLookup missing = NodeLookup.forValue(key, k, alpha, 1, initial,
+                recipient -> CompletableFuture.completedFuture(NodeLookup.Reply.closer(kClosest(nodes, key))));
+        assertEquals(kClosest(nodes, key), missing.start().join());
+        assertNull(missing.getValue());
+    }
+
+    /**
+     * Value lookup completes on read quorum, calls still in flight are cancelled
+     */
+    @Test
+    public void testReadQuorumCancelsRemaining() {
+        List<NodeReference> nodes = network(100);
+        Id key = Id.randomWithHighestBit(bits - 1, random);
+        List<NodeReference> holders = kClosest(nodes, key);
+
+        Map<NodeReference, CompletableFuture<NodeLookup.Reply>> pending = new ConcurrentHashMap<>();
+        NodeLookup lookup = NodeLookup.forValue(key, k, alpha, 2, holders.subList(0, alpha), recipient -> {
+            CompletableFuture<NodeLookup.Reply> response = new CompletableFuture<>();
+            pending.put(recipient, response);
+            return response;
+        });
+        CompletableFuture<List<NodeReference>> result = lookup.start();
+
+        pending.get(holders.get(0)).complete(NodeLookup.Reply.value(bytes("v1")));
+        assertFalse(result.isDone());
+        pending.get(holders.get(1)).complete(NodeLookup.Reply.value(bytes("v2")));
+        assertTrue(result.isDone());
+
+        assertTrue(pending.get(holders.get(2)).isCancelled());
+        assertArrayEquals(bytes("v1"), lookup.getValue());
+        assertEquals(2, lookup.getValues().size());
+    }
+}
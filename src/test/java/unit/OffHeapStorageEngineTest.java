@@ -0,0 +1,176 @@
+package unit;
+
+import kademlia.Id;
+import kademlia.InMemoryStorageEngine;
+import kademlia.KademliaNode;
+import kademlia.NodeReference;
+import kademlia.OffHeapStorageEngine;
+import kademlia.PutResult;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link OffHeapStorageEngine} with 4 kB chunks and a tiny initial index
+ */
+public class OffHeapStorageEngineTest extends BaseTest {
+
+    private OffHeapStorageEngine engine() {
+        return new OffHeapStorageEngine(Duration.ofMillis(10), 8, 4096, 8);
+    }
+
+    /**
+     * Index grows past its initial capacity, deleted keys leave no trace, values are served from direct memory
+     */
+    @Test
+    public void testPutGetDelete() {
+        OffHeapStorageEngine engine = engine();
+        Map<Id, String> expected = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            Id key = Id.randomWithHighestBit(159, random);
+            String value = "value-" + i + "-č";
+            engine.put(key, bytes(value), Long.MAX_VALUE);
+            expected.put(key, value);
+        }
+        int removed = 0;
+        for (Id key : new HashMap<>(expected).keySet()) {
+            if (removed++ % 2 == 0) {
+                assertTrue(engine.delete(key));
+                assertFalse(engine.delete(key));
+                expected.remove(key);
+            }
+        }
+
+        assertEquals(expected.size(), engine.size());
+        expected.forEach((key, value) -> assertEquals(value, string(engine.get(key))));
+        Map<Id, String> scanned = new HashMap<>();
+        engine.scan((key, value) -> scanned.put(key, string(value)));
+        assertEquals(expected, scanned);
+        assertEquals(expected.keySet(), engine.asMap().keySet());
+
+        Id key = expected.keySet().iterator().next();
+        ByteBuffer[] served = new ByteBuffer[1];
+        assertTrue(engine.read(key, value -> served[0] = value));
+        assertTrue(served[0].isDirect() && served[0].isReadOnly());
+        assertEquals(expected.get(key), StandardCharsets.UTF_8.decode(served[0]).toString());
+    }
+
+    /**
+     * Overwritten values reuse freed slots instead of reserving new memory
+     */
+    @Test
+    public void testSlotReuse() {
+        OffHeapStorageEngine engine = engine();
+        for (int round = 0; round < 100; round++) {
+            for (int key = 0; key < 10; key++) {
+                engine.put(Id.of(key), bytes("round " + round), Long.MAX_VALUE);
+            }
+        }
+        assertEquals("round 99", string(engine.get(Id.of(3))));
+        assertEquals(4096, engine.getReservedBytes());
+        assertTrue(engine.getAllocatedBytes() <= 10 * 16);
+
+        assertThrows(IllegalArgumentException.class, () -> engine.put(Id.of(1), new byte[5000], Long.MAX_VALUE));
+        NodeReference sender = new NodeReference(LOCAL_IP, BASE_PORT);
+        assertFalse(engine.accepts(Id.of(1), 5000, sender));
+        assertFalse(engine.put(Id.of(1), new byte[5000], Long.MAX_VALUE, sender));
+        assertEquals("round 99", string(engine.get(Id.of(1))));
+    }
+
+    /**
+     * Rest of a chunk too short for the next slot is reused by smaller values
+     */
+    @Test
+    public void testChunkTail() {
+        OffHeapStorageEngine engine = engine();
+        engine.put(Id.of(1), new byte[2500], Long.MAX_VALUE);
+        long tail = 4096 - engine.getAllocatedBytes();
+        engine.put(Id.of(2), new byte[4096], Long.MAX_VALUE);
+        assertEquals(2 * 4096, engine.getReservedBytes());
+
+        // largest slot the tail was split into
+        OffHeapStorageEngine probe = engine();
+        long slot = tail + 1;
+        for (int length = (int) tail; slot > tail; length--) {
+            probe.put(Id.of(0), new byte[length], Long.MAX_VALUE);
+            slot = probe.getAllocatedBytes();
+        }
+        engine.put(Id.of(3), new byte[(int) slot], Long.MAX_VALUE);
+        assertEquals(2 * 4096, engine.getReservedBytes());
+        assertEquals(slot, engine.get(Id.of(3)).length);
+    }
+
+    @Test
+    public void testExpire() {
+        long now = System.currentTimeMillis();
+        OffHeapStorageEngine engine = engine();
+        engine.put(Id.of(1), bytes("a"), now + 20);
+        engine.put(Id.of(2), bytes("b"), now + 20);
+        engine.put(Id.of(2), bytes("b"), now + 50);
+
+        assertEquals(Collections.singletonList(Id.of(1)), engine.expire(now + 30));
+        assertEquals("b", string(engine.get(Id.of(2))));
+        assertEquals(Collections.singletonList(Id.of(2)), engine.expire(now + 60));
+        assertEquals(0, engine.size());
+    }
+
+    /**
+     * Store, Retrieve and FIND_VALUE over the network with values kept off-heap
+     */
+    @Test
+    public void testNodesOffHeap() throws IOException {
+        KademliaNode.setStorageEngineFactory(node -> new OffHeapStorageEngine(Duration.ofMillis(100), 512));
+        try {
+            for (int i = 0; i < K + 1; i++) {
+                KademliaNode node = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.valueOf(i));
+                if (runningNodes.isEmpty())
+                    node.initKademlia();
+                else
+                    node.join(runningNodes.get(0).getNodeReference());
+                runningNodes.add(node);
+            }
+            runningNodes.get(1).put("key", "value č");
+            for (KademliaNode node : runningNodes) {
+                assertEquals("value č", node.get("key"));
+            }
+        } finally {
+            KademliaNode.setStorageEngineFactory(node -> new InMemoryStorageEngine(Duration.ofMillis(100), 512));
+        }
+    }
+
+    /**
+     * STORE of a value larger than a chunk is rejected, the sender keeps the node in its routing table
+     */
+    @Test
+    public void testStoreLargerThanChunk() throws IOException {
+        int port = BASE_PORT++;
+        KademliaNode.setStorageEngineFactory(node -> node.getPort() == port
+                ? new OffHeapStorageEngine(Duration.ofMillis(100), 512, 4096, 8)
+                : new InMemoryStorageEngine(Duration.ofMillis(100), 512));
+        try {
+            KademliaNode first = new KademliaNode(LOCAL_IP, port, BigInteger.ZERO);
+            runningNodes.add(first);
+            first.initKademlia();
+            KademliaNode second = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.ONE);
+            runningNodes.add(second);
+            second.join(first.getNodeReference());
+
+            PutResult result = second.putAsync("large", new byte[5000]).join();
+            assertEquals(Arrays.asList(second.getNodeReference()), result.getAcknowledged());
+            assertEquals(1, first.getRejectedStores());
+            assertEquals(1, second.getRoutingTable().getSize());
+        } finally {
+            KademliaNode.setStorageEngineFactory(node -> new InMemoryStorageEngine(Duration.ofMillis(100), 512));
+        }
+    }
+}
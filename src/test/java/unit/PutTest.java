@@ -1,7 +1,9 @@
 package unit;
 
+import kademlia.Id;
 import kademlia.KademliaNode;
 import kademlia.NodeReference;
+import kademlia.PutResult;
 import kademlia.Util;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
@@ -11,9 +13,11 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static kademlia.Util.*;
+import static org.awaitility.Awaitility.await;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class PutTest extends BaseTest {
@@ -47,4 +51,39 @@ public class PutTest extends BaseTest {
         assertEquals("val1", value);
     }
 
+
+    /**
+     * putAsync completes after write quorum acknowledged, the other replicas are written in the background
+     */
+    @Test
+    public void testPutAsync_writeQuorum() throws IOException {
+        KademliaNode bootstrap = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.ZERO);
+        runningNodes.add(bootstrap);
+        bootstrap.initKademlia();
+
+        for (int i = 1; i < 8; i++) {
+            KademliaNode joiner = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.valueOf(i));
+            runningNodes.add(joiner);
+            joiner.join(bootstrap.getNodeReference());
+        }
+
+        // default: all K replicas
+        assertEquals(K, KademliaNode.getWriteQuorum());
+        PutResult all = bootstrap.putAsync("key1", "val1").join();
+        assertTrue(all.isQuorumReached());
+        assertEquals(K, all.getAcknowledged().size());
+
+        KademliaNode.setWriteQuorum(1);
+        try {
+            PutResult one = bootstrap.putAsync("key2", "val2").join();
+            assertTrue(one.isQuorumReached());
+            assertFalse(one.getAcknowledged().isEmpty());
+        } finally {
+            KademliaNode.setWriteQuorum(0);
+        }
+
+        Id keyHash = getId("key2");
+        await().atMost(5, TimeUnit.SECONDS).untilAsserted(() ->
+                assertEquals(K, runningNodes.stream().filter(n -> n.getLocalData().containsKey(keyHash)).count()));
+    }
 }
@@ -0,0 +1,61 @@
+package unit;
+
+import kademlia.Id;
+import kademlia.NodeReference;
+import kademlia.Shortlist;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShortlistTest extends BaseTest {
+
+    private NodeReference node(long id) {
+        return new NodeReference(LOCAL_IP, 40_000 + (int) id, Id.of(id));
+    }
+
+    /**
+     * Nodes are polled closest first, only within the k closest that have not failed
+     */
+    @Test
+    public void testPollClosestWithinK() {
+        Shortlist shortlist = new Shortlist(Id.ZERO, 2, Arrays.asList(node(8), node(1), node(4)));
+
+        assertEquals(node(1), shortlist.pollClosest());
+        assertEquals(node(4), shortlist.pollClosest());
+        // 8 is not among the 2 closest
+        assertNull(shortlist.pollClosest());
+
+        shortlist.markFailed(node(4));
+        assertEquals(node(8), shortlist.pollClosest());
+        assertEquals(Shortlist.State.IN_FLIGHT, shortlist.getState(node(8)));
+        assertEquals(Collections.singletonList(node(4)), shortlist.getFailed());
+    }
+
+    /**
+     * Converged once the k closest alive nodes responded, closer node learned later reopens the lookup
+     */
+    @Test
+    public void testConvergence() {
+        Shortlist shortlist = new Shortlist(Id.ZERO, 2, Arrays.asList(node(8), node(4)));
+        shortlist.pollClosest();
+        shortlist.pollClosest();
+        shortlist.markResponded(node(4));
+        assertFalse(shortlist.isConverged());
+        shortlist.markResponded(node(8));
+        assertTrue(shortlist.isConverged());
+
+        shortlist.addToQuery(node(2));
+        assertFalse(shortlist.isConverged());
+        assertEquals(node(2), shortlist.pollClosest());
+        shortlist.markResponded(node(2));
+        assertTrue(shortlist.isConverged());
+        assertEquals(Arrays.asList(node(2), node(4)), shortlist.getKBestResponded());
+
+        // already known node keeps its state
+        shortlist.addToQuery(node(2));
+        assertEquals(Shortlist.State.RESPONDED, shortlist.getState(node(2)));
+    }
+}
@@ -0,0 +1,194 @@
+package unit;
+
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import kademlia.Id;
+import kademlia.KademliaNode;
+import kademlia.NodeReference;
+import kademlia.Transport;
+import kademlia.simulation.ChurnModel;
+import kademlia.simulation.LatencyModel;
+import kademlia.simulation.LossModel;
+import kademlia.simulation.SimulatedNetwork;
+import kademlia.simulation.Simulation;
+import kademlia.simulation.SimulationReport;
+import kademlia.simulation.Simulator;
+import org.junit.jupiter.api.Test;
+import proto.Kademlia;
+import proto.KademliaServiceGrpc;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link Simulation} of a few hundred {@link KademliaNode}s for a few simulated minutes
+ */
+public class SimulationTest extends BaseTest {
+
+    /**
+     * Without loss and churn every lookup finds its value within a few hops
+     */
+    @Test
+    public void testReliableNetwork() {
+        SimulationReport report = new Simulation(1).nodes(300).keys(20).run(Duration.ofMinutes(3));
+
+        assertEquals(3, report.getSamples().size());
+        assertTrue(report.getLookups() > 1500);
+        assertEquals(1.0, report.getSuccessRate());
+        assertEquals(1.0, report.getFinalAvailability());
+        assertTrue(report.getMeanHops() > 0 && report.getMeanHops() < 4, "mean hops " + report.getMeanHops());
+        report.getSamples().forEach(sample -> {
+            assertEquals(300, sample.getOnlineNodes());
+            assertEquals(0, sample.getFailedRpcs());
+        });
+    }
+
+    /**
+     * Same seed and settings give the same report, loss and churn included
+     */
+    @Test
+    public void testDeterministic() {
+        String first = faultySimulation(7).run(Duration.ofMinutes(3)).toString();
+        String second = faultySimulation(7).run(Duration.ofMinutes(3)).toString();
+        String other = faultySimulation(8).run(Duration.ofMinutes(3)).toString();
+
+        assertEquals(first, second);
+        assertNotEquals(first, other);
+    }
+
+    /**
+     * Values expire once their publishers leave, nobody republishes them
+     */
+    @Test
+    public void testChurnLosesData() {
+        SimulationReport report = new Simulation(3).nodes(200).keys(50)
+                .churn(ChurnModel.exponential(Duration.ofMinutes(2)))
+                .republishInterval(Duration.ofMinutes(1))
+                .expireInterval(Duration.ofMinutes(2))
+                .run(Duration.ofMinutes(8));
+
+        SimulationReport.Sample last = report.getSamples().get(report.getSamples().size() - 1);
+        assertEquals(200, last.getOnlineNodes());
+        assertTrue(last.getFailedRpcs() > 0);
+        assertTrue(report.getFinalAvailability() < 0.5, "availability " + report.getFinalAvailability());
+        assertTrue(last.getSuccessRate() <= report.getFinalAvailability() + 0.1);
+    }
+
+    /**
+     * Call to a node that is not online fails exactly at its deadline, a call without deadline at the RPC timeout
+     */
+    @Test
+    public void testOfflineRecipientTimesOut() {
+        Simulator simulator = new Simulator(1);
+        SimulatedNetwork network = new SimulatedNetwork(simulator, LatencyModel.constant(Duration.ofMillis(10)),
+                LossModel.none(), Duration.ofSeconds(3));
+        NodeReference from = new NodeReference("10.0.0.1", 5_000, Id.of(1));
+        NodeReference to = new NodeReference("10.0.0.2", 5_000, Id.of(2));
+        Transport transport = network.transport(from);
+        Kademlia.PingRequest request = Kademlia.PingRequest.getDefaultInstance();
+
+        List<Throwable> errors = new ArrayList<>();
+        transport.ping(to, request, 1_000, observer(errors));
+        transport.ping(to, request, 0, observer(errors));
+        simulator.runUntil(999);
+        assertTrue(errors.isEmpty());
+        simulator.runUntil(1_000);
+        assertEquals(1, errors.size());
+        assertEquals(Status.Code.DEADLINE_EXCEEDED, Status.fromThrowable(errors.get(0)).getCode());
+        simulator.runUntil(3_010);
+        assertEquals(2, errors.size());
+        assertEquals(Status.Code.UNAVAILABLE, Status.fromThrowable(errors.get(1)).getCode());
+        assertEquals(2, network.getRpcs());
+        assertEquals(2, network.getFailedRpcs());
+    }
+
+    /**
+     * Calls reach the handler of an online node after the latency, the response arrives after another one
+     */
+    @Test
+    public void testCallReachesHandler() throws IOException {
+        Simulator simulator = new Simulator(1);
+        SimulatedNetwork network = new SimulatedNetwork(simulator, LatencyModel.constant(Duration.ofMillis(10)),
+                LossModel.none(), Duration.ofSeconds(1));
+        NodeReference from = new NodeReference("10.0.0.1", 5_000, Id.of(1));
+        NodeReference to = new NodeReference("10.0.0.2", 5_000, Id.of(2));
+        List<Long> received = new ArrayList<>();
+        network.transport(to).startServer(new KademliaServiceGrpc.KademliaServiceImplBase() {
+            @Override
+            public void ping(Kademlia.PingRequest request, StreamObserver<Kademlia.PingResponse> responseObserver) {
+                received.add(simulator.now());
+                responseObserver.onNext(Kademlia.PingResponse.getDefaultInstance());
+                responseObserver.onCompleted();
+            }
+        });
+
+        List<Throwable> errors = new ArrayList<>();
+        List<Long> completed = new ArrayList<>();
+        network.transport(from).ping(to, Kademlia.PingRequest.getDefaultInstance(), 1_000, new StreamObserver<Kademlia.PingResponse>() {
+            @Override
+            public void onNext(Kademlia.PingResponse response) {
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                errors.add(throwable);
+            }
+
+            @Override
+            public void onCompleted() {
+                completed.add(simulator.now());
+            }
+        });
+        simulator.runUntil(2_000);
+
+        assertEquals(Collections.singletonList(10L), received);
+        assertEquals(Collections.singletonList(20L), completed);
+        assertTrue(errors.isEmpty());
+        assertEquals(0, network.getFailedRpcs());
+    }
+
+    private static StreamObserver<Kademlia.PingResponse> observer(List<Throwable> errors) {
+        return new StreamObserver<Kademlia.PingResponse>() {
+            @Override
+            public void onNext(Kademlia.PingResponse response) {
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                errors.add(throwable);
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        };
+    }
+
+    private static Simulation faultySimulation(long seed) {
+        return new Simulation(seed).nodes(200).keys(20)
+                .loss(LossModel.uniform(0.05))
+                .churn(ChurnModel.exponential(Duration.ofMinutes(10)));
+    }
+
+    /**
+     * Static settings of the nodes are the same after a run as before it
+     */
+    @Test
+    public void testSettingsRestored() {
+        Duration rpcTimeout = KademliaNode.getRpcTimeout();
+        Duration refreshInterval = KademliaNode.getRefreshInterval();
+        new Simulation(5).nodes(20).keys(2).idLength(160).k(20).alpha(5).run(Duration.ofMinutes(1));
+
+        assertEquals(BITS, KademliaNode.getIdLength());
+        assertEquals(K, KademliaNode.getK());
+        assertEquals(ALPHA, KademliaNode.getAlpha());
+        assertEquals(rpcTimeout, KademliaNode.getRpcTimeout());
+        assertEquals(refreshInterval, KademliaNode.getRefreshInterval());
+        assertEquals(Duration.ofDays(1), KademliaNode.getRepublishInterval());
+    }
+}
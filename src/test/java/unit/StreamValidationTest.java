@@ -0,0 +1,279 @@
+package unit;
+
+import com.google.protobuf.ByteString;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.Status;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+import kademlia.Id;
+import kademlia.KademliaNode;
+import kademlia.NodeReference;
+import kademlia.Util;
+import kademlia.WireFormat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import proto.Kademlia;
+import proto.KademliaServiceGrpc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Streamed and oversized values, talking raw gRPC to a real node
+ */
+public class StreamValidationTest extends BaseTest {
+
+    private ManagedChannel channel;
+    private Server fake;
+
+    @AfterEach
+    public void closeRawConnections() throws InterruptedException {
+        if (channel != null) channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        if (fake != null) fake.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Forged total size and missing key are refused before anything is allocated, chunks sent after the error are ignored
+     */
+    @Test
+    public void testStoreStream_invalidFirstChunk() throws IOException {
+        KademliaNode node = startNode();
+
+        Status.Code tooLarge = storeStreamError(Kademlia.StoreChunk.newBuilder()
+                .setRawKey(WireFormat.encodeId(Id.of(1)))
+                .setSender(sender())
+                .setTotalSize(Long.MAX_VALUE)
+                .setData(ByteString.copyFrom(new byte[10]))
+                .build());
+        assertEquals(Status.Code.INVALID_ARGUMENT, tooLarge);
+
+        Status.Code noKey = storeStreamError(Kademlia.StoreChunk.newBuilder()
+                .setSender(sender())
+                .setTotalSize(10)
+                .setData(ByteString.copyFrom(new byte[10]))
+                .build());
+        assertEquals(Status.Code.INVALID_ARGUMENT, noKey);
+
+        assertTrue(node.getLocalData().isEmpty());
+        // node keeps serving
+        node.put("key", "value");
+        assertEquals("value", node.get("key"));
+    }
+
+    /**
+     * Value over the sender quota is rejected on the first chunk, before the rest of the stream arrives
+     */
+    @Test
+    public void testStoreStream_quotaCheckedUpFront() throws Exception {
+        KademliaNode.setSenderQuota(1_000);
+        KademliaNode node;
+        try {
+            node = startNode();
+        } finally {
+            KademliaNode.setSenderQuota(Long.MAX_VALUE);
+        }
+
+        CompletableFuture<Kademlia.StoreResponse> response = new CompletableFuture<>();
+        StreamObserver<Kademlia.StoreChunk> chunks = KademliaServiceGrpc.newStub(channel(node)).storeStream(observer(response));
+        chunks.onNext(Kademlia.StoreChunk.newBuilder()
+                .setRawKey(WireFormat.encodeId(Id.of(1)))
+                .setSender(sender())
+                .setTotalSize(2_000)
+                .setData(ByteString.copyFrom(new byte[10]))
+                .build());
+
+        // stream is still open
+        assertEquals(Kademlia.Status.REJECTED, response.get(5, TimeUnit.SECONDS).getStatus());
+        assertEquals(1, node.getRejectedStores());
+        chunks.onCompleted();
+    }
+
+    /**
+     * Peer announcing a huge value or sending more than it announced gives no value, the lookup still completes
+     */
+    @Test
+    public void testRetrieveStream_forgedSize() throws IOException {
+        assertNull(getFromFakePeer(Kademlia.RetrieveChunk.newBuilder().setTotalSize(Long.MAX_VALUE)));
+        assertNull(getFromFakePeer(Kademlia.RetrieveChunk.newBuilder().setTotalSize(4).setData(ByteString.copyFrom(new byte[100]))));
+    }
+
+    /**
+     * Reader that asks for one chunk at a time gets the value it asked for, the key can be overwritten meanwhile
+     */
+    @Test
+    public void testRetrieveStream_slowReader() throws Exception {
+        KademliaNode.setStreamChunkSize(1_000);
+        try {
+            KademliaNode node = startNode();
+            byte[] value = new byte[10_500];
+            random.nextBytes(value);
+            node.put("key", value);
+
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            CompletableFuture<Integer> chunks = new CompletableFuture<>();
+            AtomicInteger count = new AtomicInteger();
+            CompletableFuture<Void> first = new CompletableFuture<>();
+            AtomicReference<ClientCallStreamObserver<Kademlia.RetrieveRequest>> call = new AtomicReference<>();
+            KademliaServiceGrpc.newStub(channel(node)).retrieveStream(Kademlia.RetrieveRequest.newBuilder()
+                    .setSender(sender())
+                    .setRawKey(WireFormat.encodeId(Util.getId("key")))
+                    .build(), new ClientResponseObserver<Kademlia.RetrieveRequest, Kademlia.RetrieveChunk>() {
+                @Override
+                public void beforeStart(ClientCallStreamObserver<Kademlia.RetrieveRequest> requestStream) {
+                    requestStream.disableAutoInboundFlowControl();
+                    call.set(requestStream);
+                }
+
+                @Override
+                public void onNext(Kademlia.RetrieveChunk chunk) {
+                    received.write(chunk.getData().toByteArray(), 0, chunk.getData().size());
+                    count.incrementAndGet();
+                    first.complete(null);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    chunks.completeExceptionally(throwable);
+                }
+
+                @Override
+                public void onCompleted() {
+                    chunks.complete(count.get());
+                }
+            });
+            call.get().request(1);
+            first.get(5, TimeUnit.SECONDS);
+
+            // no engine lock is held by the transfer
+            node.put("key", "other");
+            call.get().request(Integer.MAX_VALUE);
+
+            assertEquals(11, chunks.get(5, TimeUnit.SECONDS));
+            assertArrayEquals(value, received.toByteArray());
+        } finally {
+            KademliaNode.setStreamChunkSize(256 << 10);
+        }
+    }
+
+    /**
+     * Value that does not fit into a single message is refused to a v2 peer with a clear status, not sent
+     */
+    @Test
+    public void testFindValue_legacyTooLarge() throws Exception {
+        KademliaNode node = startNode();
+        node.put("key", new byte[5 << 20]);
+
+        CompletableFuture<Kademlia.FindValueResponse> response = new CompletableFuture<>();
+        KademliaServiceGrpc.newStub(channel(node)).findValue(Kademlia.FindValueRequest.newBuilder()
+                .setSender(new NodeReference(LOCAL_IP, 30_000, Id.of(5)).toProto(WireFormat.V2))
+                .setRawKey(WireFormat.encodeId(Util.getId("key")))
+                .build(), observer(response));
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> response.get(5, TimeUnit.SECONDS));
+        Status status = Status.fromThrowable(e.getCause());
+        assertEquals(Status.Code.RESOURCE_EXHAUSTED, status.getCode());
+        assertTrue(status.getDescription().contains("exceeds the message limit"));
+    }
+
+    private byte[] getFromFakePeer(Kademlia.RetrieveChunk.Builder forged) throws IOException {
+        int port = BASE_PORT++;
+        NodeReference peer = new NodeReference(LOCAL_IP, port, BigInteger.ONE);
+        fake = ServerBuilder.forPort(port).addService(new KademliaServiceGrpc.KademliaServiceImplBase() {
+            @Override
+            public void promptNodeLookup(Kademlia.LookupRequest request, StreamObserver<Kademlia.LookupResponse> responseObserver) {
+                responseObserver.onNext(Kademlia.LookupResponse.newBuilder().setProtocolVersion(WireFormat.LATEST).build());
+                responseObserver.onCompleted();
+            }
+
+            @Override
+            public void findNode(Kademlia.FindNodeRequest request, StreamObserver<Kademlia.FindNodeResponse> responseObserver) {
+                responseObserver.onNext(Kademlia.FindNodeResponse.newBuilder().setProtocolVersion(WireFormat.LATEST).build());
+                responseObserver.onCompleted();
+            }
+
+            @Override
+            public void findValue(Kademlia.FindValueRequest request, StreamObserver<Kademlia.FindValueResponse> responseObserver) {
+                responseObserver.onNext(Kademlia.FindValueResponse.newBuilder()
+                        .setStatus(Kademlia.Status.SUCCESS)
+                        .setStreamedSize(100)
+                        .setProtocolVersion(WireFormat.LATEST)
+                        .build());
+                responseObserver.onCompleted();
+            }
+
+            @Override
+            public void retrieveStream(Kademlia.RetrieveRequest request, StreamObserver<Kademlia.RetrieveChunk> responseObserver) {
+                responseObserver.onNext(forged.setStatus(Kademlia.Status.SUCCESS).setProtocolVersion(WireFormat.LATEST).build());
+                responseObserver.onCompleted();
+            }
+        }).build().start();
+        try {
+            KademliaNode node = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.valueOf(2));
+            runningNodes.add(node);
+            node.join(peer);
+            return node.getBytes("key");
+        } finally {
+            fake.shutdownNow();
+        }
+    }
+
+    private KademliaNode startNode() throws IOException {
+        KademliaNode node = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.ZERO);
+        node.initKademlia();
+        runningNodes.add(node);
+        return node;
+    }
+
+    private Status.Code storeStreamError(Kademlia.StoreChunk first) {
+        CompletableFuture<Kademlia.StoreResponse> response = new CompletableFuture<>();
+        StreamObserver<Kademlia.StoreChunk> chunks = KademliaServiceGrpc.newStub(channel(runningNodes.get(0))).storeStream(observer(response));
+        chunks.onNext(first);
+        chunks.onNext(Kademlia.StoreChunk.newBuilder().setData(ByteString.copyFrom(new byte[10])).build());
+        chunks.onCompleted();
+        CompletionException e = assertThrows(CompletionException.class, response::join);
+        return Status.fromThrowable(e.getCause()).getCode();
+    }
+
+    private ManagedChannel channel(KademliaNode node) {
+        if (channel == null) {
+            channel = ManagedChannelBuilder.forAddress(LOCAL_IP, node.getNodeReference().getPort()).usePlaintext().build();
+        }
+        return channel;
+    }
+
+    private static Kademlia.NodeReference sender() {
+        return new NodeReference(LOCAL_IP, 30_000, Id.of(5)).toProto(WireFormat.LATEST);
+    }
+
+    private static <T> StreamObserver<T> observer(CompletableFuture<T> future) {
+        return new StreamObserver<T>() {
+            @Override
+            public void onNext(T value) {
+                future.complete(value);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                future.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onCompleted() {
+                future.complete(null);
+            }
+        };
+    }
+}
@@ -0,0 +1,74 @@
+package unit;
+
+import kademlia.TimingWheel;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link TimingWheel} driven by explicit time, 10 ms ticks and 8 slots (one round = 80 ms)
+ */
+public class TimingWheelTest extends BaseTest {
+
+    private TimingWheel<String> wheel() {
+        return new TimingWheel<>(Duration.ofMillis(10), 8, 0);
+    }
+
+    @Test
+    public void testDueInBulk() {
+        TimingWheel<String> wheel = wheel();
+        wheel.schedule("a", 25);
+        wheel.schedule("b", 28);
+        wheel.schedule("c", 45);
+
+        assertTrue(wheel.advance(20).isEmpty());
+        // deadlines are rounded up to the tick
+        assertTrue(wheel.advance(29).isEmpty());
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), new HashSet<>(wheel.advance(30)));
+        assertEquals(1, wheel.size());
+        assertEquals(Collections.singletonList("c"), wheel.advance(50));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testRescheduleAndCancel() {
+        TimingWheel<String> wheel = wheel();
+        wheel.schedule("a", 20);
+        wheel.schedule("b", 20);
+        // later slot
+        wheel.schedule("a", 50);
+        // same slot, next round
+        wheel.schedule("b", 100);
+        wheel.schedule("c", 30);
+        wheel.cancel("c");
+
+        assertTrue(wheel.advance(40).isEmpty());
+        assertEquals(Long.valueOf(50), wheel.getDeadline("a"));
+        assertNull(wheel.getDeadline("c"));
+        assertEquals(Collections.singletonList("a"), wheel.advance(90));
+        assertEquals(Collections.singletonList("b"), wheel.advance(100));
+    }
+
+    /**
+     * Deadlines several rounds ahead and a long pause between two advances
+     */
+    @Test
+    public void testRoundsAndLongPause() {
+        TimingWheel<String> wheel = wheel();
+        wheel.schedule("far", 1000);
+        wheel.schedule("near", 15);
+        wheel.schedule("past", -5);
+
+        List<String> due = wheel.advance(10);
+        assertEquals(Collections.singletonList("past"), due);
+        assertEquals(Collections.singletonList("near"), wheel.advance(990));
+        assertTrue(wheel.advance(999).isEmpty());
+        assertEquals(Collections.singletonList("far"), wheel.advance(5000));
+    }
+}
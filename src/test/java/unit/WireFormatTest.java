@@ -0,0 +1,82 @@
+package unit;
+
+import kademlia.Id;
+import kademlia.KademliaNode;
+import kademlia.NodeReference;
+import kademlia.WireFormat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import proto.Kademlia;
+
+import java.io.IOException;
+import java.math.BigInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WireFormatTest extends BaseTest {
+
+    @AfterEach
+    public void resetVersion() {
+        KademliaNode.setProtocolVersion(WireFormat.LATEST);
+    }
+
+    @Test
+    public void testIdRoundTrip() {
+        KademliaNode.setIdLength(160);
+        BigInteger max = BigInteger.ONE.shiftLeft(160).subtract(BigInteger.ONE);
+
+        for (BigInteger id : new BigInteger[]{BigInteger.ZERO, BigInteger.ONE, max, BigInteger.ONE.shiftLeft(159)}) {
+            assertEquals(20, WireFormat.encodeId(Id.of(id)).size());
+            assertEquals(Id.of(id), WireFormat.decodeId(WireFormat.encodeId(Id.of(id)), ""));
+        }
+        assertEquals(Id.of(10), WireFormat.decodeId(com.google.protobuf.ByteString.EMPTY, "10"));
+    }
+
+    @Test
+    public void testNodeReferenceV2Encoding() {
+        KademliaNode.setIdLength(160);
+        NodeReference ipv4 = new NodeReference("10.0.0.255", 65535);
+        NodeReference hostname = new NodeReference(LOCAL_IP, 10);
+
+        Kademlia.NodeReference packed = ipv4.toProto(WireFormat.V2);
+        assertTrue(packed.getIp().isEmpty());
+        assertTrue(packed.getId().isEmpty());
+        assertTrue(packed.getSerializedSize() < ipv4.toProto(WireFormat.V1).getSerializedSize());
+
+        NodeReference decoded = new NodeReference(packed);
+        assertEquals(ipv4, decoded);
+        assertEquals(ipv4.getId(), decoded.getId());
+
+        decoded = new NodeReference(hostname.toProto(WireFormat.V2));
+        assertEquals(hostname, decoded);
+        assertEquals(hostname.getId(), decoded.getId());
+    }
+
+    /**
+     * v2 node talks v1 to a v1 node and v2 to a v2 node once versions are learned
+     */
+    @Test
+    public void testMixedVersionCluster() throws IOException {
+        KademliaNode.setProtocolVersion(WireFormat.V1);
+        KademliaNode oldNode = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.ZERO);
+        runningNodes.add(oldNode);
+        oldNode.initKademlia();
+
+        KademliaNode.setProtocolVersion(WireFormat.V2);
+        KademliaNode newNode = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.ONE);
+        runningNodes.add(newNode);
+        newNode.join(oldNode.getNodeReference());
+
+        KademliaNode newNode2 = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.TWO);
+        runningNodes.add(newNode2);
+        newNode2.join(newNode.getNodeReference());
+
+        newNode.put("key1", "val1");
+        assertEquals("val1", oldNode.get("key1"));
+        assertEquals("val1", newNode2.get("key1"));
+
+        assertEquals(WireFormat.V1, newNode.getWireFormat().versionFor(oldNode.getNodeReference()));
+        assertEquals(WireFormat.V2, newNode.getWireFormat().versionFor(newNode2.getNodeReference()));
+        assertEquals(WireFormat.V1, oldNode.getWireFormat().versionFor(newNode.getNodeReference()));
+    }
+}
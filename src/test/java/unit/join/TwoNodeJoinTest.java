@@ -1,5 +1,6 @@
 package unit.join;
 
+import kademlia.Id;
 import kademlia.KademliaNode;
 import org.junit.jupiter.api.Test;
 import unit.BaseTest;
@@ -59,7 +60,7 @@ public class TwoNodeJoinTest extends BaseTest {
         assertEquals(1, joiner.getRoutingTable().getSize());
         assertEquals(1, bootstrap.getRoutingTable().getSize());
 
-        BigInteger distance = joiner.getNodeReference().getId().xor(bootstrap.getNodeReference().getId());
+        Id distance = joiner.getNodeReference().getId().xor(bootstrap.getNodeReference().getId());
         int index = distance.bitLength() - 1;
 
         // only the k-bucket at XOR index is filled
@@ -1,18 +1,23 @@
 package unit.routingtable;
 
+import kademlia.Id;
+import kademlia.KBucket;
 import kademlia.KademliaNode;
+import kademlia.NodeReference;
 import org.junit.jupiter.api.Test;
 import unit.BaseTest;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
 
+import static org.awaitility.Awaitility.await;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class DropNodeTest extends BaseTest {
 
     /**
-     * Validate that after joining K+1 nodes from the same bucket, a node is dropped <br> <br>
+     * Validate that after joining K+1 nodes from the same bucket, the bucket stays at K nodes <br> <br>
      * <i>Note: Exact dropped node cannot be validated since nodelookup is done asynchronously -> nodes respond in random, therefore are inserted into routing table at random</i>
      */
     @Test
@@ -30,7 +35,7 @@ public class DropNodeTest extends BaseTest {
             joiner.join(bootstrap.getNodeReference());
         }
 
-        int fullBucketIndex = bootstrap.getRoutingTable().getBucketIndex(thirdBucketStartId);
+        int fullBucketIndex = bootstrap.getRoutingTable().getBucketIndex(Id.of(thirdBucketStartId));
         assertEquals(K, bootstrap.getRoutingTable().getKBucket(fullBucketIndex).getSize());
 
         // insert K+1-th node, thus dropping a node
@@ -38,8 +43,40 @@ public class DropNodeTest extends BaseTest {
         runningNodes.add(joiner);
         joiner.join(bootstrap.getNodeReference());
 
-        // still K -> a node was dropped
+        // still K -> live head answered the ping, newcomer waits in the replacement cache
         assertEquals(K, bootstrap.getRoutingTable().getKBucket(fullBucketIndex).getSize());
     }
 
+    /**
+     * Least-recently seen node that does not answer the ping is replaced by the newcomer
+     */
+    @Test
+    public void testKBucketEvictsDeadHead() throws IOException {
+        KademliaNode bootstrap = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.ZERO);
+        runningNodes.add(bootstrap);
+        bootstrap.initKademlia();
+
+        BigInteger thirdBucketStartId = new BigInteger("2").pow(3);
+
+        // fill bucket with K nodes that are not running
+        NodeReference deadHead = null;
+        for (int i = 0; i < K; i++) {
+            NodeReference dead = new NodeReference(LOCAL_IP, BASE_PORT++, thirdBucketStartId.add(BigInteger.valueOf(i)));
+            bootstrap.getRoutingTable().insert(dead);
+            if (deadHead == null) deadHead = dead;
+        }
+        int fullBucketIndex = bootstrap.getRoutingTable().getBucketIndex(Id.of(thirdBucketStartId));
+        KBucket bucket = bootstrap.getRoutingTable().getKBucket(fullBucketIndex);
+
+        KademliaNode joiner = new KademliaNode(LOCAL_IP, BASE_PORT++, thirdBucketStartId.add(BigInteger.valueOf(K)));
+        runningNodes.add(joiner);
+        joiner.join(bootstrap.getNodeReference());
+
+        NodeReference head = deadHead;
+        await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> {
+            assertFalse(bucket.contains(head));
+            assertTrue(bucket.contains(joiner.getNodeReference()));
+        });
+    }
+
 }
@@ -1,5 +1,6 @@
 package unit.routingtable;
 
+import kademlia.Id;
 import kademlia.KBucket;
 import kademlia.KademliaNode;
 import kademlia.NodeReference;
@@ -8,9 +9,14 @@ import org.junit.jupiter.api.Test;
 import unit.BaseTest;
 
 import java.math.BigInteger;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
@@ -18,26 +24,46 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class RoutingTableTest extends BaseTest {
 
+    /**
+     * Full bucket keeps its least-recently seen node, newcomer waits in the replacement cache until the head fails a ping
+     */
     @Test
     public void testInsertOverflow() {
         NodeReference owner = new NodeReference(LOCAL_IP, BASE_PORT++, BigInteger.ZERO);
         RoutingTable routingTable = new RoutingTable(BITS, ALPHA, K, owner);
+        List<NodeReference> pinged = new ArrayList<>();
+        routingTable.setPingHandler(pinged::add, Duration.ZERO);
 
         int idIncrement = 16; // 16 = 2^4, therefore only 4th KBucket is in our interest
-        NodeReference dropped = new NodeReference(LOCAL_IP, BASE_PORT++, owner.getId().add(BigInteger.valueOf(idIncrement++)));
-        routingTable.insert(dropped);
+        NodeReference head = new NodeReference(LOCAL_IP, BASE_PORT++, owner.getId().toBigInteger().add(BigInteger.valueOf(idIncrement++)));
+        routingTable.insert(head);
 
-        // fill KBucket with K nodes so that the first node is dropped
+        // fill KBucket with K nodes, the K+1-th goes to the replacement cache
+        NodeReference newcomer = null;
         for (int i = 0; i < K; i++) {
-            NodeReference n = new NodeReference(LOCAL_IP, BASE_PORT++, owner.getId().add(BigInteger.valueOf(idIncrement++)));
-            routingTable.insert(n);
+            newcomer = new NodeReference(LOCAL_IP, BASE_PORT++, owner.getId().toBigInteger().add(BigInteger.valueOf(idIncrement++)));
+            routingTable.insert(newcomer);
         }
 
-        int insertIndex = owner.getId().xor(BigInteger.valueOf(idIncrement)).bitLength() - 1;
-        KBucket targetKbucket = routingTable.getKBucket(insertIndex);
-
-        assertFalse(targetKbucket.contains(dropped));
-
+        KBucket targetKbucket = routingTable.getKBucket(routingTable.getBucketIndex(head.getId()));
+
+        assertTrue(targetKbucket.contains(head));
+        assertFalse(targetKbucket.contains(newcomer));
+        assertEquals(Collections.singletonList(newcomer), targetKbucket.getReplacements());
+        assertEquals(Collections.singletonList(head), pinged);
+
+        // live head moves to the tail
+        routingTable.pingResult(head, true);
+        assertEquals(head, targetKbucket.getTail());
+        assertFalse(targetKbucket.contains(newcomer));
+
+        // dead node is replaced by the newcomer
+        routingTable.pingResult(head, false);
+        assertFalse(targetKbucket.contains(head));
+        assertTrue(targetKbucket.contains(newcomer));
+        assertEquals(K, targetKbucket.getSize());
+        assertEquals(K, routingTable.getSize());
+        assertTrue(targetKbucket.getReplacements().isEmpty());
     }
 
     @Test
@@ -51,7 +77,9 @@ public class RoutingTableTest extends BaseTest {
             int insertIndex = owner.getId().xor(n.getId()).bitLength() - 1;
 
             if (owner.getId().compareTo(n.getId()) != 0) {
-                assertTrue(routingTable.getKBucket(insertIndex).contains(n));
+                // full bucket keeps its nodes, newcomer waits in the replacement cache
+                KBucket bucket = routingTable.getKBucket(insertIndex);
+                assertTrue(bucket.contains(n) || bucket.getReplacements().contains(n));
             }
         }
     }
@@ -67,7 +95,7 @@ public class RoutingTableTest extends BaseTest {
 
         for (int i = 0; i < 20; i++) {
             BigInteger rangeStart = BigInteger.valueOf(2).pow(i);
-            List<NodeReference> kBestInRange = routingTable.findKClosest(rangeStart);
+            List<NodeReference> kBestInRange = routingTable.findKClosest(Id.of(rangeStart));
             assertEquals(1, kBestInRange.size());
         }
     }
@@ -87,14 +115,16 @@ public class RoutingTableTest extends BaseTest {
             int insertIndex = owner.getId().xor(n.getId()).bitLength() - 1;
 
             if (owner.getId().compareTo(n.getId()) != 0) {
-                assertTrue(routingTable.getKBucket(insertIndex).contains(n));
+                // full bucket keeps its nodes, newcomer waits in the replacement cache
+                KBucket bucket = routingTable.getKBucket(insertIndex);
+                assertTrue(bucket.contains(n) || bucket.getReplacements().contains(n));
             }
         }
 
         for (int i = 0; i < 20; i++) {
             int randomId = new Random().nextInt((int)Math.pow(2, BITS));
             BigInteger targetId = new BigInteger(String.valueOf(randomId));
-            List<NodeReference> kClosest = routingTable.findKClosest(targetId);
+            List<NodeReference> kClosest = routingTable.findKClosest(Id.of(targetId));
 
             // got some K nodes
             assertEquals(KademliaNode.getK(), kClosest.size());
@@ -102,6 +132,88 @@ public class RoutingTableTest extends BaseTest {
 
     }
 
+    /**
+     * Bucket walk in XOR order must return the same nodes as a full sort of all contacts
+     */
+    @Test
+    public void testFindKClosest_matchesLinearScan() {
+        int bits = 160, k = 20;
+        NodeReference owner = new NodeReference(LOCAL_IP, BASE_PORT++, Id.randomWithHighestBit(bits - 1, random));
+        RoutingTable routingTable = new RoutingTable(bits, ALPHA, k, owner);
+
+        // fill every bucket that can hold k nodes, IDs must be unique so that there are no distance ties
+        List<NodeReference> contacts = new ArrayList<>();
+        Set<Id> used = new HashSet<>();
+        for (int bucket = bits - 1; bucket >= 5; bucket--) {
+            for (int i = 0; i < k; i++) {
+                Id id = owner.getId().xor(Id.randomWithHighestBit(bucket, random));
+                if (!used.add(id)) {
+                    i--;
+                    continue;
+                }
+                NodeReference n = new NodeReference(LOCAL_IP, 20_000 + contacts.size(), id);
+                routingTable.insert(n);
+                contacts.add(n);
+            }
+        }
+        assertEquals(contacts.size(), routingTable.getSize());
+
+        List<Id> targets = new ArrayList<>();
+        targets.add(owner.getId());
+        for (int i = 0; i < 200; i++) {
+            targets.add(Id.randomWithHighestBit(bits - 1, random));
+            targets.add(contacts.get(random.nextInt(contacts.size())).getId());
+        }
+
+        for (Id target : targets) {
+            List<NodeReference> expected = contacts.stream()
+                    .sorted(NodeReference.byDistanceTo(target))
+                    .limit(k)
+                    .collect(Collectors.toList());
+            assertEquals(expected, routingTable.findKClosest(target));
+            assertEquals(expected.subList(0, ALPHA), routingTable.findAlphaClosest(target));
+        }
+    }
+
+    /**
+     * Concurrent inserts (including evictions from full buckets) and removals keep size equal to the bucket contents
+     */
+    @Test
+    public void testSizeUnderConcurrentWrites() throws InterruptedException {
+        NodeReference owner = new NodeReference(LOCAL_IP, BASE_PORT++, BigInteger.ZERO);
+        RoutingTable routingTable = new RoutingTable(BITS, ALPHA, K, owner);
+
+        List<NodeReference> nodes = new ArrayList<>();
+        for (int i = 1; i < 2000; i++) {
+            nodes.add(new NodeReference(LOCAL_IP, 30_000 + i, BigInteger.valueOf(i)));
+        }
+
+        Thread[] writers = new Thread[8];
+        for (int t = 0; t < writers.length; t++) {
+            writers[t] = new Thread(() -> {
+                Random rnd = new Random();
+                for (int i = 0; i < 20_000; i++) {
+                    NodeReference n = nodes.get(rnd.nextInt(nodes.size()));
+                    if (rnd.nextInt(3) == 0)
+                        routingTable.remove(n);
+                    else
+                        routingTable.insert(n);
+                    routingTable.findKClosest(n.getId());
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        int inBuckets = 0;
+        for (int i = 0; i < BITS; i++) {
+            inBuckets += routingTable.getKBucket(i).getSize();
+        }
+        assertEquals(inBuckets, routingTable.getSize());
+    }
+
     @Test
     public void testDistance() {
         BigInteger routingTableOwnerID = new BigInteger("60");
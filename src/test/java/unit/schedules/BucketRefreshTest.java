@@ -1,13 +1,20 @@
 package unit.schedules;
 
+import kademlia.Id;
 import kademlia.KademliaNode;
+import kademlia.NodeReference;
+import kademlia.RoutingTable;
+import kademlia.Util;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import unit.BaseTest;
 
 import java.io.IOException;
+import java.math.BigInteger;
 import java.time.Duration;
 
+import static org.junit.jupiter.api.Assertions.*;
+
 public class BucketRefreshTest extends BaseTest {
 
     @Test
@@ -32,4 +39,38 @@ public class BucketRefreshTest extends BaseTest {
 
         Thread.sleep(1000*70);
     }
+
+    /**
+     * Sweep refreshes exactly the buckets without recent contact, refreshed buckets count as active again
+     */
+    @Test
+    public void testRefreshOnlyIdleBuckets() throws IOException {
+        for (int i = 0; i < K + 2; i++) {
+            KademliaNode node = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.valueOf(i * 1000L));
+            if (runningNodes.isEmpty())
+                node.initKademlia();
+            else
+                node.join(runningNodes.get(0).getNodeReference());
+            runningNodes.add(node);
+        }
+        KademliaNode node = runningNodes.get(1);
+        RoutingTable routingTable = node.getRoutingTable();
+        long before = node.getBucketRefreshes();
+
+        assertEquals(0, node.refreshIdleBuckets().join());
+        routingTable.getKBucket(3).touch(0);
+        routingTable.getKBucket(BITS - 1).touch(0);
+        assertEquals(2, node.refreshIdleBuckets().join());
+        assertEquals(before + 2, node.getBucketRefreshes());
+        assertEquals(0, node.refreshIdleBuckets().join());
+    }
+
+    @Test
+    public void testRandomWithinBucket() {
+        Id owner = Id.randomWithHighestBit(BITS - 1, random);
+        RoutingTable routingTable = new RoutingTable(BITS, ALPHA, K, new NodeReference(LOCAL_IP, 1, owner));
+        for (int bucket = 0; bucket < BITS; bucket++) {
+            assertEquals(bucket, routingTable.getBucketIndex(Util.randomWithinBucket(owner, bucket)));
+        }
+    }
 }
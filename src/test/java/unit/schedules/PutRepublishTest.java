@@ -1,16 +1,26 @@
 package unit.schedules;
 
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.stub.StreamObserver;
+import kademlia.Id;
 import kademlia.KademliaNode;
+import kademlia.NodeReference;
 import kademlia.Util;
+import kademlia.WireFormat;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInfo;
+import proto.Kademlia;
+import proto.KademliaServiceGrpc;
 import unit.BaseTest;
 
 import java.io.IOException;
 import java.math.BigInteger;
 import java.time.Duration;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static org.awaitility.Awaitility.await;
 import static org.junit.jupiter.api.Assertions.*;
@@ -102,4 +112,118 @@ public class PutRepublishTest extends BaseTest {
         await().atMost((long) (1.5*republishInterval.toMillis()), TimeUnit.MILLISECONDS)
                 .untilAsserted(() -> assertNotNull(runningNodes.get(runningNodes.size()-1).getLocalData().get(Util.getId("key"))));
     }
+
+    /**
+     * One sweep republishes all keys with a lookup per key-space region and a single STORE_BATCH per destination <br>
+     * 1. publish many keys from node 0, every other node is in its routing table <br>
+     * 2. drop the replicas and run one sweep <br>
+     * 3. validate that every key is back on its K closest nodes (the publisher itself may be one of them) <br>
+     */
+    @Test
+    public void testBatchedRepublish() throws IOException {
+        KademliaNode.setRepublishInterval(Duration.ofDays(1));
+        int keys = 50;
+
+        KademliaNode publisher = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.ZERO);
+        publisher.initKademlia();
+        runningNodes.add(publisher);
+        for (int i = 1; i <= K+1; i++) {
+            KademliaNode joiner = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.valueOf(i));
+            joiner.join(publisher.getNodeReference());
+            runningNodes.add(joiner);
+        }
+        for (int i = 0; i < keys; i++) {
+            publisher.put("key" + i, "value" + i);
+        }
+        List<KademliaNode> others = runningNodes.subList(1, runningNodes.size());
+        others.forEach(node -> node.getLocalData().clear());
+
+        publisher.republish().join();
+
+        assertTrue(publisher.getRepublishLookups() <= BITS, "lookups: " + publisher.getRepublishLookups());
+        assertTrue(publisher.getStoreBatchCalls() <= runningNodes.size(), "batches: " + publisher.getStoreBatchCalls());
+        for (int i = 0; i < keys; i++) {
+            Id keyHash = Util.getId("key" + i);
+            List<NodeReference> expected = runningNodes.stream()
+                    .map(KademliaNode::getNodeReference)
+                    .sorted(NodeReference.byDistanceTo(keyHash))
+                    .limit(K)
+                    .collect(Collectors.toList());
+            for (KademliaNode node : others) {
+                // 10 bit hashes of different keys may collide, only the presence is checked
+                assertEquals(expected.contains(node.getNodeReference()), node.getLocalData().containsKey(keyHash), "key" + i + " on " + node.getNodeReference());
+            }
+        }
+    }
+
+    /**
+     * Opt-1: publisher does not republish a key another node stored on it within the republish interval <br>
+     * 1. node 0 publishes two keys <br>
+     * 2. node 1 publishes one of them as well, which stores it on node 0 <br>
+     * 3. validate that the sweep of node 0 only republishes the other key <br>
+     */
+    @Test
+    public void testSkipRecentlyStored() throws IOException {
+        KademliaNode.setRepublishInterval(Duration.ofDays(1));
+
+        KademliaNode publisher = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.ZERO);
+        publisher.initKademlia();
+        runningNodes.add(publisher);
+        KademliaNode other = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.ONE);
+        other.join(publisher.getNodeReference());
+        runningNodes.add(other);
+
+        publisher.put("shared", "value");
+        publisher.put("own", "value");
+        other.put("shared", "value");
+        other.getLocalData().clear();
+
+        publisher.republish().join();
+
+        assertEquals(1, publisher.getSuppressedRepublishes());
+        assertTrue(other.getLocalData().containsKey(Util.getId("own")));
+        assertFalse(other.getLocalData().containsKey(Util.getId("shared")));
+    }
+
+    /**
+     * Peer answers lookups but never STORE or STORE_BATCH: both fail at the RPC deadline,
+     * so neither put nor the republish sweep waits for it forever
+     */
+    @Test
+    public void testUnresponsivePeer() throws IOException {
+        KademliaNode.setRpcTimeout(Duration.ofMillis(500));
+        int peerPort = BASE_PORT++;
+        NodeReference peer = new NodeReference(LOCAL_IP, peerPort, BigInteger.ONE);
+        Server blackHole = ServerBuilder.forPort(peerPort).addService(new KademliaServiceGrpc.KademliaServiceImplBase() {
+            @Override
+            public void findNode(Kademlia.FindNodeRequest request, StreamObserver<Kademlia.FindNodeResponse> responseObserver) {
+                responseObserver.onNext(Kademlia.FindNodeResponse.newBuilder().setProtocolVersion(WireFormat.LATEST).build());
+                responseObserver.onCompleted();
+            }
+
+            @Override
+            public void store(Kademlia.StoreRequest request, StreamObserver<Kademlia.StoreResponse> responseObserver) {
+            }
+
+            @Override
+            public void storeBatch(Kademlia.StoreBatchRequest request, StreamObserver<Kademlia.StoreBatchResponse> responseObserver) {
+            }
+        }).build().start();
+        try {
+            KademliaNode node = new KademliaNode(LOCAL_IP, BASE_PORT++, BigInteger.ZERO);
+            node.initKademlia();
+            runningNodes.add(node);
+
+            node.getRoutingTable().insert(peer);
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> node.put("key", "value"));
+
+            // the failed STORE removed the peer
+            node.getRoutingTable().insert(peer);
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> node.republish().join());
+            assertEquals(1, node.getStoreBatchCalls());
+        } finally {
+            blackHole.shutdownNow();
+            KademliaNode.setRpcTimeout(Duration.ofSeconds(5));
+        }
+    }
 }